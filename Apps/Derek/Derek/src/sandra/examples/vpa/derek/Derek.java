@@ -22,11 +22,13 @@
 
 package sandra.examples.vpa.derek;
 
+import java.io.File;
 import java.util.ArrayList;
 
 import sandra.libs.asr.asrlib.ASR;
 import sandra.libs.tts.TTS;
 import sandra.libs.vpa.vpalib.Bot;
+import sandra.libs.vpa.vpalib.BotCache;
 
 import android.content.Intent;
 import android.os.Bundle;
@@ -50,17 +52,19 @@ import android.widget.Toast;
  * 
  * @author Michael McTear
  * @author Zoraida Callejas
- * @version 2.0, 09/10/13
+ * @version 2.6, 10/19/26
  *
  */
 public class Derek extends ASR {
 	private static final String LOGTAG = "JACK";
 	private static final String BOTID = "f53ee2647e3443ef";
+	private static final int CACHE_ENTRIES = 200;
 	
 	private TTS myTts;
 	private Button speakButton;
 	
 	private Bot bot;
+	private BotCache cache;
 	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -72,12 +76,24 @@ public class Derek extends ASR {
 		
 		//Initialize the speech recognizer
 		createRecognizer(getApplicationContext());	
+		setPartialResults(true);	//The stable partial results are sent to the bot before the user finishes speaking
 				
 		//Initialize text to speech
 		 myTts = TTS.getInstance(this);
 		
 		 //Create bot
 		 bot = new Bot(this, BOTID, myTts, "type 2 diabetes");
+		 cache = new BotCache(CACHE_ENTRIES, new File(getCacheDir(), "bot.cache"));	//Answers kept when the app is closed
+		 cache.loadInBackground();
+		 bot.setCache(cache);
+		 
+		 //Load the brain compiled from the AIML of the bot, so that the queries are answered without contacting Pandorabots
+		 try {
+		 	bot.loadBrain("derek.brain");
+		 } catch (Exception e) {
+		 	Log.e(LOGTAG, "The brain could not be loaded, all the queries will be sent to Pandorabots: "+e.getMessage());
+		 }
+		 bot.preconnect();
 	
 	}
 
@@ -102,6 +118,8 @@ public class Derek extends ASR {
 	@Override
 	public void processAsrError(int errorCode) {
 		
+		bot.cancelSpeculation();
+		
 		String errorMessage;
 		switch (errorCode) 
         {
@@ -151,7 +169,15 @@ public class Derek extends ASR {
 	@Override
 	public void processAsrReadyForSpeech() {
 		Toast.makeText(this, "I'm listening", Toast.LENGTH_LONG).show();
-		
+		bot.preconnect();	//The connection is ready when the user finishes speaking
+	}
+	
+	/**
+	 * Sends the query to the bot before the final results, if they are the same its response is used
+	 */
+	@Override
+	public void processAsrStableResult(String hypothesis) {
+		bot.speculateQuery(hypothesis);
 	}
 
 	@Override
@@ -164,6 +190,13 @@ public class Derek extends ASR {
 		
 	}
 
+	// Save the answers in the background, as the app may be killed after it is paused
+	@Override
+	protected void onPause() {
+		super.onPause();
+		cache.saveInBackground();
+	}
+	
 	// Shut down TTS engine when finished
 	@Override
 	public void onDestroy() {
@@ -22,18 +22,13 @@
 
 package sandra.examples.nlu.grammartest;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 
 import org.xmlpull.v1.XmlPullParserException;
 
 import sandra.libs.nlu.nlulib.GrammarException;
 import sandra.libs.nlu.nlulib.NLU;
-import android.content.res.AssetManager;
 import android.graphics.PorterDuff;
 import android.os.Bundle;
 import android.speech.RecognizerIntent;
@@ -59,7 +54,7 @@ import android.widget.Toast;
  * 
  * @author Zoraida Callejas
  * @author Michael McTear
- * @version 3.1, 01/22/14
+ * @version 3.2, 10/19/26
  *
  */
 
@@ -77,7 +72,9 @@ public class GrammarTest extends NLU {
 		
 		//Initialize the handcrafted grammar
 		try {
-			initializeHandCrafted(getGrammarContent());
+			initializeHandCraftedFromAsset("sample_grammar.xml");
+		} catch (IOException e) {
+			Log.e(LOGTAG, "Grammar file could not be read: "+e.getMessage());
 		} catch (XmlPullParserException e) {
 			Log.e(LOGTAG, e.getMessage());
 		} catch (GrammarException e) {
@@ -88,6 +85,8 @@ public class GrammarTest extends NLU {
 		setButtonText();
 		setButtonASR();
 		indicateNotListening();
+		
+		preconnectStatistical();
 	}
 	
 	/**
@@ -226,37 +225,6 @@ public class GrammarTest extends NLU {
 			});
 	}
 
-	/**
-	 * Reads the content of the grammar file from the assets folder
-	 */
-	private String getGrammarContent() {
-		
-		StringBuffer contents = new StringBuffer();
-		BufferedReader reader = null;
-		
-		try {
-			AssetManager assetManager = this.getAssets();
-			InputStream inputStream = assetManager.open("sample_grammar.xml");	 
-			reader = new BufferedReader(new InputStreamReader(inputStream));
-			String text=null;
-	     
-			while ((text = reader.readLine()) != null) {
-				contents.append(text).append(System.getProperty(
-					"line.separator"));
-			}
-		} catch (FileNotFoundException e) {
-		} catch (IOException e) {
-		} finally {
-				try {
-					if (reader != null) {
-						reader.close();
-					}
-				} catch (IOException e) {
-		}}
-		
-		return contents.toString();
-	}
-
 	/**
 	 * Shows an ASR error message
 	 */
@@ -327,6 +295,7 @@ public class GrammarTest extends NLU {
 	@Override
 	public void processAsrReadyForSpeech() {
 		indicateListening();
+		preconnectStatistical();	//The connection to Maluuba is ready when the user finishes speaking
 	}
 
 	/**
@@ -22,11 +22,15 @@
 
 package sandra.examples.vpa.jack;
 
+import java.io.File;
 import java.util.ArrayList;
 
 import sandra.libs.asr.asrlib.ASR;
 import sandra.libs.tts.TTS;
+import sandra.libs.util.xmllib.XMLClient;
+import sandra.libs.util.xmllib.XMLMetrics;
 import sandra.libs.vpa.vpalib.Bot;
+import sandra.libs.vpa.vpalib.BotCache;
 
 import android.content.Intent;
 import android.os.Bundle;
@@ -48,17 +52,22 @@ import android.widget.Toast;
  * 
  * @author Michael McTear
  * @author Zoraida Callejas
- * @version 2.0, 09/10/13
+ * @version 2.4, 10/19/26
  *
  */
 public class Jack extends ASR {
 	private static final String LOGTAG = "JACK";
 	private static final String BOTID = "d7b695cf0e344c0a";
+	private static final int CACHE_ENTRIES = 200;
 	
 	private TTS myTts;
 	private Button speakButton;
 	
 	private Bot bot;
+	private BotCache cache;
+	
+	//Timings, sizes and errors of the queries to Pandorabots, written to the log when the activity is destroyed
+	private final XMLMetrics metrics = new XMLMetrics();
 	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -70,12 +79,18 @@ public class Jack extends ASR {
 		
 		//Initialize the speech recognizer
 		createRecognizer(getApplicationContext());	
+		setPartialResults(true);	//The stable partial results are sent to the bot before the user finishes speaking
 				
 		//Initialize text to speech
 		 myTts = TTS.getInstance(this);
 		
 		 //Create bot
 		 bot = new Bot(this, BOTID, myTts);
+		 cache = new BotCache(CACHE_ENTRIES, new File(getCacheDir(), "bot.cache"));	//Answers kept when the app is closed
+		 cache.loadInBackground();
+		 bot.setCache(cache);
+		 bot.preconnect();
+		 XMLClient.getInstance().addListener(metrics);
 	
 	}
 
@@ -100,6 +115,8 @@ public class Jack extends ASR {
 	@Override
 	public void processAsrError(int errorCode) {
 		
+		bot.cancelSpeculation();
+		
 		String errorMessage;
 		switch (errorCode) 
         {
@@ -149,7 +166,15 @@ public class Jack extends ASR {
 	@Override
 	public void processAsrReadyForSpeech() {
 		Toast.makeText(this, "I'm listening", Toast.LENGTH_LONG).show();
-		
+		bot.preconnect();	//The connection is ready when the user finishes speaking
+	}
+	
+	/**
+	 * Sends the query to the bot before the final results, if they are the same its response is used
+	 */
+	@Override
+	public void processAsrStableResult(String hypothesis) {
+		bot.speculateQuery(hypothesis);
 	}
 
 	@Override
@@ -163,10 +188,19 @@ public class Jack extends ASR {
 		
 	}
 
-	// Shut down TTS engine when finished
+	// Save the answers in the background, as the app may be killed after it is paused
+	@Override
+	protected void onPause() {
+		super.onPause();
+		cache.saveInBackground();
+	}
+	
+	// Shut down TTS engine and export the network metrics when finished
 	@Override
 	public void onDestroy() {
 		myTts.shutdown();
+		XMLClient.getInstance().removeListener(metrics);
+		Log.i(LOGTAG, "Network metrics: "+metrics.report());
 		super.onDestroy();
 	}
 	
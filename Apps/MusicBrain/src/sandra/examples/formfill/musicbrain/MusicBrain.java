@@ -22,6 +22,7 @@
 
 package sandra.examples.formfill.musicbrain;
 
+import java.io.File;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -30,6 +31,7 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.TreeSet;
 
+import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import sandra.examples.formfill.musicbrain.R;
@@ -37,14 +39,16 @@ import sandra.libs.dm.formfilllib.DialogInterpreter;
 import sandra.libs.dm.formfilllib.Form;
 import sandra.libs.dm.formfilllib.FormFillLibException;
 import sandra.libs.dm.formfilllib.VXMLParser;
-import sandra.libs.util.xmllib.RetrieveXMLTask;
 import sandra.libs.util.xmllib.XMLAsyncResponse;
+import sandra.libs.util.xmllib.XMLClient;
+import sandra.libs.util.xmllib.XMLMetrics;
+import sandra.libs.util.xmllib.XMLResponseCache;
+import sandra.libs.util.xmllib.XMLStreamHandler;
 
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
@@ -68,11 +72,11 @@ import android.widget.TextView;
  * 
  * @author Zoraida Callejas
  * @author Michael McTear
- * @version 3.0, 08/18/13
+ * @version 3.1, 10/19/26
  *
  */
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
-public class MusicBrain extends DialogInterpreter implements XMLAsyncResponse{
+public class MusicBrain extends DialogInterpreter implements XMLAsyncResponse, XMLStreamHandler{
 
 	private static final String LOGTAG = "MUSICBRAIN";
 	
@@ -80,8 +84,20 @@ public class MusicBrain extends DialogInterpreter implements XMLAsyncResponse{
 	private static final String URL_VXML = "http://lsi.ugr.es/zoraida/androidspeechbook/code/sandra/examples/formfill/musicbrain.vxml";
 	private static final String DEFAULT_URL_VXML = "http://lsi.ugr.es/zoraida/androidspeechbook/code/sandra/examples/formfill/musicbrain.vxml";
 	
+	//URL of the MusicBrainz search of releases, the query is appended
+	private static final String URL_MUSICBRAINZ = "http://www.musicbrainz.org/ws/2/release/?query=release:";
+	
 	//Contains the albums that correspond to the user query
 	HashMap<String,String> albumData;
+	
+	//Cache of the VXML file and the MusicBrainz results, so that repeated dialogs start without waiting for the network
+	private static final int CACHE_MEMORY_ENTRIES = 16;
+	private static final long CACHE_DISK_BYTES = 1024 * 1024;
+	private static final long CACHE_MAX_AGE = 5 * 60 * 1000;						//Used only when the server does not indicate it
+	private static final long CACHE_STALE_WHILE_REVALIDATE = 24 * 60 * 60 * 1000;	//Used only when the server does not indicate it
+	
+	//Timings, sizes and errors of the requests made while the activity is running, written to the log when it is destroyed
+	private final XMLMetrics metrics = new XMLMetrics();
 
 	/**
 	 * Initializes the GUI and starts the spoken dialog
@@ -91,11 +107,36 @@ public class MusicBrain extends DialogInterpreter implements XMLAsyncResponse{
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.form_fill_music_brain);	
 		setRestartButton();
+		enableResponseCache();
+		XMLClient.getInstance().addListener(metrics);
+		XMLClient.getInstance().preconnect(URL_VXML, URL_MUSICBRAINZ);
 		
 		//Start the interpretation of the VXML file
 		startDialog();
 	}
 	
+	/**
+	 * Sets a cache in memory and in the cache directory of the app for the files retrieved from the Internet
+	 */
+	private void enableResponseCache(){
+		XMLClient client = XMLClient.getInstance();
+		if(client.getResponseCache()==null){
+			XMLResponseCache cache = new XMLResponseCache(CACHE_MEMORY_ENTRIES, new File(getCacheDir(), "xml"), CACHE_DISK_BYTES);
+			cache.setDefaultFreshness(CACHE_MAX_AGE, CACHE_STALE_WHILE_REVALIDATE);
+			client.setResponseCache(cache);
+		}
+	}
+	
+	/**
+	 * Exports the network metrics to the log
+	 */
+	@Override
+	public void onDestroy() {
+		XMLClient.getInstance().removeListener(metrics);
+		Log.i(LOGTAG, "Network metrics: "+metrics.report());
+		super.onDestroy();
+	}
+	
 	
 	/**
 	 * Initializes the restart button and its listener. When the button is pressed, the activity is 
@@ -138,29 +179,11 @@ public class MusicBrain extends DialogInterpreter implements XMLAsyncResponse{
 	 * which parses and interprets the dialog
 	 */
 	public void retrieveXML(String url, String url_default){
-		RetrieveXMLTask retrieveXML = new RetrieveXMLTask();	//AsyncTask to retrieve the contents of the XML file fro mthe URL
-		retrieveXML.delegate = this;	//It is crucial in order to retrieve the data from the asyncrhonous task (see the AsyncResponse and RetrieveXMLTask classes)
-
-		
 		/*
-		 * The string corresponding to the XML file is retrieved with an asynchronous task, and thus
-		 * is executed in the background. When this process is finished, the "processXMLContents" method
-		 * is invoked (see below).
+		 * The string corresponding to the XML file is retrieved in the background by the shared XMLClient.
+		 * When this process is finished, the "processXMLContents" method is invoked (see below).
 		 */
-		retrieveXML.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, url, url_default); //An Executor that can be used to execute tasks in parallel.
-		
-		
-		//See reference here: http://developer.android.com/reference/android/os/AsyncTask.Status.html
-		if(retrieveXML.getStatus() == (AsyncTask.Status.PENDING)) {
-            //Indicates that the task has not been executed yet
-			Log.i(LOGTAG, "VXML reading: Pending");
-        } else if(retrieveXML.getStatus() == (AsyncTask.Status.RUNNING)) {
-            //Indicates that the task is running
-        	Log.i(LOGTAG, "VXML reading: Running");
-        } else if(retrieveXML.getStatus() == (AsyncTask.Status.FINISHED)) {
-            //Indicates that AsyncTask.onPostExecute has finished
-        	Log.i(LOGTAG, "VXML reading: Finished");
-        } 
+		XMLClient.getInstance().request(url, url_default, this);
 	}
 	
 	/**
@@ -172,50 +195,60 @@ public class MusicBrain extends DialogInterpreter implements XMLAsyncResponse{
 	@Override
 	public void processXMLContents(String xmlContent) {
 
-		if(!xmlContent.contains("musicbrainz")){
-			Form form;
-			
-				
-				try {
-					form = VXMLParser.parseVXML(xmlContent);
-					startInterpreting(form);
-				} catch (XmlPullParserException ex) {
-					Log.e(LOGTAG, "Error parsing the VXML file: "+ex.getMessage());
-					createAlert("Parsing error", "Please check your Internet connection").show();
-				} catch (FormFillLibException ex) {
-					Log.e(LOGTAG, ex.getMessage());
-					createAlert("Parsing error", ex.getReason()).show();
-				}
-		}
-		else{
-				parseMusicResults(xmlContent);			
+		Form form;
+		
+		try {
+			form = VXMLParser.parseVXML(xmlContent);
+			startInterpreting(form);
+		} catch (XmlPullParserException ex) {
+			Log.e(LOGTAG, "Error parsing the VXML file: "+ex.getMessage());
+			createAlert("Parsing error", "Please check your Internet connection").show();
+		} catch (FormFillLibException ex) {
+			Log.e(LOGTAG, ex.getMessage());
+			createAlert("Parsing error", ex.getReason()).show();
 		}
 	}
 	
 	
 	/**
-	 * Parses the content of the XML response from the MusicBrainZ web service.
+	 * Parses the XML response from the MusicBrainZ web service while it is being received.
 	 * The result from the parsing is a collection of albums already sorted by dates and without duplicates
 	 * (see the explanation in <code>MusicBrainParser.java</code>). These albums contain the word uttered by the user
 	 * in their title. This collection is filtered to keep only the albums released between the dates 
 	 * indicated by the user. The filtered collection is shown in the listView of the GUI  
 	 * 
-	 * @param xmlContent Result from the query to the MusicBrainZ service
+	 * It is invoked in a background thread, so the GUI is updated with <code>runOnUiThread</code>
+	 * 
+	 * @param parser Parser bound to the response of the MusicBrainZ service
 	 */
-	void parseMusicResults(String xmlContent){
-
-		TreeSet<Album> results;
-		
-			try {
-				results = MusicBrainParser.parse(xmlContent);
-				showResults(filterAlbums(results));
-			} catch (XmlPullParserException ex) {
-				Log.e(LOGTAG, "Error parsing the VXML file: "+ex.getMessage());
-				createAlert("Parsing error", "The VXML may be not accessible or ill-formed").show();
-			} catch (MusicBrainException ex) {
-				Log.e(LOGTAG, ex.getMessage());
-				createAlert("Parsing error", ex.getReason()).show();
-			}		
+	@Override
+	public void processXMLStream(XmlPullParser parser) {
+		try {
+			final TreeSet<Album> results = filterAlbums(MusicBrainParser.parse(parser));
+			runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					showResults(results);
+				}
+			});
+		} catch (final MusicBrainException ex) {
+			Log.e(LOGTAG, ex.getMessage());
+			runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					createAlert("Parsing error", ex.getReason()).show();
+				}
+			});
+		}
+	}
+	
+	/**
+	 * It is invoked when the response from the MusicBrainZ service could not be retrieved
+	 */
+	@Override
+	public void processXMLStreamError(String error) {
+		Log.e(LOGTAG, "Error retrieving the results from MusicBrainZ: "+error);
+		createAlert("Connnection error", "The results from MusicBrainZ could not be retrieved, please check your Internet connection").show();
 	}
 	
 	/**
@@ -333,7 +366,18 @@ public class MusicBrain extends DialogInterpreter implements XMLAsyncResponse{
 	public void processDialogResults(HashMap<String, String> result) {
 		Log.i(LOGTAG, "Dialogue end. The results are: "+result);
 		albumData = result;
-		retrieveXML("http://www.musicbrainz.org/ws/2/release/?query=release:"+albumData.get("query"), "http://www.musicbrainz.org/ws/2/release/?query=release:Android");
+		
+		//The results are parsed while they are received (see processXMLStream)
+		XMLClient.getInstance().stream(URL_MUSICBRAINZ+albumData.get("query"), URL_MUSICBRAINZ+"Android", this);
+	}
+	
+	/**
+	 * Opens the connection to MusicBrainz while the user speaks, so that it is ready when the dialog finishes 
+	 * (it is skipped if the connection is already open)
+	 */
+	@Override
+	public void processAsrReadyForSpeech() {
+		XMLClient.getInstance().preconnect(URL_MUSICBRAINZ);
 	}
 	
 	/**
@@ -36,7 +36,7 @@ import org.xmlpull.v1.XmlPullParserFactory;
  * @see http://musicbrainz.org/doc/Development/XML_Web_Service/Version_2/Search#Release
  * @author Zoraida Callejas
  * @author Michael McTear
- * @version 2.0, 08/17/13
+ * @version 2.1, 10/19/26
  */
 
 public class MusicBrainParser{
@@ -49,6 +49,28 @@ public class MusicBrainParser{
      */
 	static TreeSet<Album> parse(String xmlContent) throws XmlPullParserException, MusicBrainException{
 		
+		XmlPullParserFactory factory = XmlPullParserFactory.newInstance();  //May throw XMLPullParserException
+		XmlPullParser parser = factory.newPullParser(); 					//May throw XMLPullParserException
+		StringReader xmlReader = new StringReader(xmlContent);				
+		
+		try{
+			parser.setInput(xmlReader);
+		}
+		catch(XmlPullParserException ex){
+			throw new MusicBrainException(ex.getMessage(), "VXML not accessible, check Internet connection and accesibility of the URL");
+		}
+		
+		return parse(parser);
+	}
+	
+    /**
+     * Parses the results read with a parser already bound to the xml file (e.g. to the response of the web service while it
+     * is being received, see <code>XMLClient.stream</code>) into a sorted collection of Albums without duplicates. 
+     * @param parser parser positioned at the start of the response of the MusicBrainZ web service
+     * @result collection of Albums sorted from most to least recent release date
+     */
+	static TreeSet<Album> parse(XmlPullParser parser) throws MusicBrainException{
+		
 		Album album = null;
         String tag=null;
         String tagContents=null;
@@ -65,17 +87,6 @@ public class MusicBrainParser{
         TreeSet<Album> albumList = new TreeSet<Album>(new AlbumComparator());
         
         int eventType;
-                	
-		XmlPullParserFactory factory = XmlPullParserFactory.newInstance();  //May throw XMLPullParserException
-		XmlPullParser parser = factory.newPullParser(); 					//May throw XMLPullParserException
-		StringReader xmlReader = new StringReader(xmlContent);				
-		
-		try{
-			parser.setInput(xmlReader); //We are reading the xml from a string, but we could read it directly from the streaminput
-		}
-		catch(XmlPullParserException ex){
-			throw new MusicBrainException(ex.getMessage(), "VXML not accessible, check Internet connection and accesibility of the URL");
-		}
 
 		try{
 			eventType = parser.getEventType();	//May throw a XMLPullParserException
@@ -21,11 +21,13 @@
  */
 package sandra.examples.vpa.stacy;
 
+import java.io.File;
 import java.util.ArrayList;
 
 import sandra.libs.asr.asrlib.ASR;
 import sandra.libs.tts.TTS;
 import sandra.libs.vpa.vpalib.Bot;
+import sandra.libs.vpa.vpalib.BotCache;
 import android.content.Intent;
 import android.os.Bundle;
 import android.speech.RecognizerIntent;
@@ -46,16 +48,18 @@ import android.widget.Toast;
  * 
  * @author Michael McTear
  * @author Zoraida Callejas
- * @version 2.0, 09/10/13
+ * @version 2.6, 10/19/26
  *
  */
 public class Stacy extends ASR {
 	private static final String LOGTAG = "Stacy";
 	private static final String BOTID = "e257c70bae346e98";
+	private static final int CACHE_ENTRIES = 200;
 	
 	private TTS myTts;
 	private Button speakButton;
 	private Bot bot;
+	private BotCache cache;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -67,12 +71,24 @@ public class Stacy extends ASR {
 		
 		//Initialize the speech recognizer
 		createRecognizer(getApplicationContext());	
+		setPartialResults(true);	//The stable partial results are sent to the bot before the user finishes speaking
 				
 		//Initialize text to speech
 		myTts = TTS.getInstance(this);
 		
 		//Create bot
 		bot = new Bot(this, BOTID, myTts, "assistant");
+		cache = new BotCache(CACHE_ENTRIES, new File(getCacheDir(), "bot.cache"));	//Answers kept when the app is closed
+		cache.loadInBackground();
+		bot.setCache(cache);
+		
+		//Load the brain compiled from the AIML of the bot, so that the queries are answered without contacting Pandorabots
+		try {
+			bot.loadBrain("stacy.brain");
+		} catch (Exception e) {
+			Log.e(LOGTAG, "The brain could not be loaded, all the queries will be sent to Pandorabots: "+e.getMessage());
+		}
+		bot.preconnect();
 			
 			}
 
@@ -97,6 +113,8 @@ public class Stacy extends ASR {
 	@Override
 	public void processAsrError(int errorCode) {
 		
+		bot.cancelSpeculation();
+		
 		String errorMessage;
 		switch (errorCode) 
         {
@@ -146,7 +164,15 @@ public class Stacy extends ASR {
 	@Override
 	public void processAsrReadyForSpeech() {
 		Toast.makeText(this, "I'm listening", Toast.LENGTH_LONG).show();
-		
+		bot.preconnect();	//The connection is ready when the user finishes speaking
+	}
+	
+	/**
+	 * Sends the query to the bot before the final results, if they are the same its response is used
+	 */
+	@Override
+	public void processAsrStableResult(String hypothesis) {
+		bot.speculateQuery(hypothesis);
 	}
 
 	@Override
@@ -160,6 +186,13 @@ public class Stacy extends ASR {
 		
 	}
 
+	// Save the answers in the background, as the app may be killed after it is paused
+	@Override
+	protected void onPause() {
+		super.onPause();
+		cache.saveInBackground();
+	}
+	
 	@Override
 	public void onDestroy() {
 		myTts.shutdown();
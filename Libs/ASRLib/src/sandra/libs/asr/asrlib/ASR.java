@@ -46,9 +46,14 @@ import android.util.Log;
  * Only the methods for processing the ASR output are abstract, so that each app using the ASRLib can
  * specify a different behavior.
  * 
+ * When partial results are enabled, the recognizer sends hypotheses while the user is speaking. A hypothesis 
+ * that does not change for some time (usually because the user has stopped speaking and the recognizer is 
+ * waiting for the end of the silence) is sent to <code>processAsrStableResult</code>, so that the app can start 
+ * working on it (e.g. send it to a bot) before the final results arrive.
+ * 
  * @author Zoraida Callejas
  * @author Michael McTear
- * @version 2.4, 11/24/13
+ * @version 2.5, 10/19/26
  *
  */
 
@@ -59,6 +64,14 @@ public abstract class ASR extends Activity implements RecognitionListener{
 	
 	private static final String LIB_LOGTAG = "ASRLIB";
 	
+	private static final long DEFAULT_STABILITY_TIME = 300;	//Time that a partial result must not change to be stable, in milliseconds
+	
+	private boolean partialResults = false;
+	private long stabilityTime = DEFAULT_STABILITY_TIME;
+	private String partialHypothesis = null;	//Last partial result and time when it was first received
+	private long partialHypothesisTime = 0;
+	private String stableHypothesis = null;		//Last partial result sent to processAsrStableResult
+	
 	/**
 	 * Creates the single SpeechRecognizer instance and assigns a listener
 	 * @see CustomRecognitionListener.java
@@ -98,6 +111,12 @@ public abstract class ASR extends Activity implements RecognitionListener{
 
 			// Specify how many results to receive. Results listed in order of confidence
 			intent.putExtra(RecognizerIntent.EXTRA_MAX_RESULTS, maxResults);  
+			
+			// Receive the hypotheses while the user is speaking
+			if(partialResults)
+				intent.putExtra(RecognizerIntent.EXTRA_PARTIAL_RESULTS, true);
+			partialHypothesis = null;
+			stableHypothesis = null;
     
 			// Start recognition
 			myASR.startListening(intent);
@@ -109,6 +128,23 @@ public abstract class ASR extends Activity implements RecognitionListener{
 
 	}
 
+	/**
+	 * Enables or disables the partial results for the next recognitions
+	 * @param enabled true to receive the stable partial results in <code>processAsrStableResult</code>
+	 * @param stabilityMillis time that a partial result must not change to be considered stable
+	 */
+	public void setPartialResults(boolean enabled, long stabilityMillis){
+		partialResults = enabled;
+		stabilityTime = stabilityMillis;
+	}
+	
+	/**
+	 * Enables or disables the partial results for the next recognitions, with the default stability time
+	 */
+	public void setPartialResults(boolean enabled){
+		setPartialResults(enabled, DEFAULT_STABILITY_TIME);
+	}
+	
 	/**
 	 * Stops listening to the user
 	 */
@@ -184,7 +220,11 @@ public abstract class ASR extends Activity implements RecognitionListener{
 	 * @see android.speech.RecognitionListener#onBeginningOfSpeech()
 	 */
 	@Override
-	public void onEndOfSpeech() {}
+	public void onEndOfSpeech() {
+		//The user has finished speaking, so the last partial result will not change until the final results
+		if(partialHypothesis!=null)
+			stabilize(partialHypothesis);
+	}
 
 	/*
 	 * (non-Javadoc)
@@ -198,7 +238,33 @@ public abstract class ASR extends Activity implements RecognitionListener{
 	 * @see android.speech.RecognitionListener#onPartialResults(android.os.Bundle)
 	 */
 	@Override
-	public void onPartialResults(Bundle arg0) {}
+	public void onPartialResults(Bundle partial) {
+		if(!partialResults || partial==null)
+			return;
+		ArrayList<String> hypotheses = partial.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
+		if(hypotheses==null || hypotheses.isEmpty() || hypotheses.get(0)==null || hypotheses.get(0).trim().length()==0)
+			return;
+		
+		String hypothesis = hypotheses.get(0).trim();
+		long now = System.currentTimeMillis();
+		if(!hypothesis.equalsIgnoreCase(partialHypothesis)){
+			partialHypothesis = hypothesis;
+			partialHypothesisTime = now;
+		}
+		else if(now - partialHypothesisTime >= stabilityTime)
+			stabilize(hypothesis);
+	}
+	
+	/**
+	 * Sends a stable partial result to the app, unless it was already sent
+	 */
+	private void stabilize(String hypothesis){
+		if(!hypothesis.equalsIgnoreCase(stableHypothesis)){
+			stableHypothesis = hypothesis;
+			Log.d(LIB_LOGTAG, "Stable partial result: "+hypothesis);
+			processAsrStableResult(hypothesis);
+		}
+	}
 
 		/*
 	 * (non-Javadoc)
@@ -215,6 +281,14 @@ public abstract class ASR extends Activity implements RecognitionListener{
 	 */
 	public abstract void processAsrResults(ArrayList<String> nBestList, float [] nBestConfidences);	
 
+	/**
+	 * Processes a partial result that has not changed for some time, when partial results are enabled. The 
+	 * final results may be different, so the app must be ready to discard any work done with it. By default it 
+	 * does nothing.
+	 * @param hypothesis best partial result
+	 */
+	public void processAsrStableResult(String hypothesis) { }
+	
 	/**
 	 * Abstract method to process the situation in which the ASR engine is ready to listen
 	 */
@@ -225,4 +299,4 @@ public abstract class ASR extends Activity implements RecognitionListener{
 	 * @param errorCode code of the error (constant of the {@link android.speech.SpeechRecognizer} class
 	 */
 	public abstract void processAsrError(int errorCode);
-}
\ No newline at end of file
+}
\ No newline at end of file
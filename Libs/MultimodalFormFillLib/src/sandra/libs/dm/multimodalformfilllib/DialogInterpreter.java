@@ -26,6 +26,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 
 import sandra.libs.asr.asrlib.ASR;
+import sandra.libs.nlu.nlulib.GrammarException;
+import sandra.libs.nlu.nlulib.UnionGrammar;
 import sandra.libs.tts.TTS;
 
 import android.speech.RecognizerIntent;
@@ -168,7 +170,8 @@ public abstract class DialogInterpreter extends ASR{
 	 * CHANGED WITH RESPECT TO FORMFILLLIB (chapter 5)
 	 * Changes:
 	 * 	- If any of the recognized values is valid for the field (according to the grammar), it is saved as the current value, and it is synchronized with the GUI
-	 * 	- If not, the field is interpreted again
+	 * 	- If not, the recognized values are checked against the grammars of all the fields, so that a single phrase can fill several fields (e.g. "send an urgent message to my mother")
+	 * 	- If no field is filled, the field is interpreted again
 	 * 
 	 */
 	@Override
@@ -187,14 +190,11 @@ public abstract class DialogInterpreter extends ASR{
 
 		//If there is a valid value...
 		if(validValue) {
-			currentField.setValue(nBestList.get(i-1)); //... it is set as the current value for the field
-			result.put(currentField.getName(), nBestList.get(i-1));
-			try {
-				oralToGui(currentField);			//and it is synchronized with the GUI
-			} catch (MultimodalException e) {
-				Toast.makeText(this, e.getReason(), Toast.LENGTH_LONG).show();
-				Log.e(LOGTAG, e.getReason());
-			}
+			fillField(currentField, nBestList.get(i-1)); //... it is set as the current value for the field
+			moveToNextField();
+		}
+		//If not, the phrase may contain values for several fields
+		else if(fillSeveralFields(nBestList)) {
 			moveToNextField();
 		}
 		//If not...
@@ -203,6 +203,50 @@ public abstract class DialogInterpreter extends ASR{
 		}
 	}
 	
+	/**
+	 * Searches the n best ASR recognition results for values of any of the unfilled fields, using the union
+	 * of the grammars of all the fields. The first recognition result that fills at least one field is used.
+	 * @return true if any field was filled
+	 */
+	private Boolean fillSeveralFields(ArrayList<String> nBestList){
+		UnionGrammar union = form.getUnionGrammar();
+		if(union==null)
+			return false;
+		
+		for(String phrase: nBestList){
+			Boolean filled = false;
+			try {
+				for(UnionGrammar.Slot slot: union.match(phrase)){
+					Field field = form.getField(slot.getTag());
+					if(field!=null && !field.isFilled()){
+						fillField(field, slot.getText());
+						filled = true;
+					}
+				}
+			} catch (GrammarException e) {
+				Log.e(LOGTAG, "The grammars of the fields could not be used: "+e.getReason());
+			}
+			
+			if(filled)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Sets the value of a field, saves it in the results and synchronizes it with the GUI
+	 */
+	private void fillField(Field field, String value){
+		field.setValue(value);
+		result.put(field.getName(), value);
+		try {
+			oralToGui(field);
+		} catch (MultimodalException e) {
+			Toast.makeText(this, e.getReason(), Toast.LENGTH_LONG).show();
+			Log.e(LOGTAG, e.getReason());
+		}
+	}
+	
 	/**
 	 * Provides feedback to the user (by means of a Toast and a synthesized message) when the ASR encounters an error
 	 * 
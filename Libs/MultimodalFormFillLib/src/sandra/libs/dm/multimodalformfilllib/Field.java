@@ -22,22 +22,18 @@
 
 package sandra.libs.dm.multimodalformfilllib;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 
 import org.xmlpull.v1.XmlPullParserException;
 
 import sandra.libs.nlu.nlulib.GrammarException;
 import sandra.libs.nlu.nlulib.HandCraftedGrammar;
-import sandra.libs.util.xmllib.RetrieveXMLTask;
 import sandra.libs.util.xmllib.XMLAsyncResponse;
+import sandra.libs.util.xmllib.XMLClient;
+import sandra.libs.util.xmllib.XMLPriority;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
-import android.content.res.AssetManager;
-import android.os.AsyncTask;
 import android.util.Log;
 
 
@@ -69,6 +65,9 @@ public class Field implements XMLAsyncResponse{
 	private String value = null;							//Value for the field provided by the user (e.g. "Paris")
 	
 	private static final String LOGTAG = "FIELD";
+	
+	//Maximum number of phrases whose validity is cached for the field (users tend to repeat the same short answers)
+	private static final int GRAMMAR_CACHE_SIZE = 64;
 
 	public void setValue(String value){
 		this.value=value;
@@ -145,8 +144,10 @@ public class Field implements XMLAsyncResponse{
 	
 	/**
 	 * Starts the retrieval of the NLU grammar from the specified location.
-	 * If the location is an URL, it access the Internet, if not, it tries to read it from the assets folder.
-	 * When it is done, the <code>processXMLContents</code> method is invoked.
+	 * If the location is an URL, it access the Internet and when it is done, the <code>processXMLContents</code> method is invoked.
+	 * The grammars of all the fields are retrieved when the form is created, before they are needed, so they are 
+	 * requested with prefetch priority to avoid delaying the requests that the user is waiting for.
+	 * If not, the grammar is parsed directly from the file in the assets folder.
 	 * @param location URL or path in the assets folder for the grammar file.
 	 * @param ctx Context of the application. It is necessary in order to access the assets folder.
 	 */
@@ -154,65 +155,25 @@ public class Field implements XMLAsyncResponse{
 		
 		//URL
 		if(location.contains("http") || location.contains("www")) {
-			RetrieveXMLTask retrieve = new RetrieveXMLTask();	//AsyncTask to retrieve the contents of the XML file from the URL
-			retrieve.delegate = (XMLAsyncResponse) this;	//It is crucial in order to retrieve the data from the asynchronous task (see the AsyncResponse and RetrieveXMLTask classes)
-			retrieve.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, location, location); //An Executor that can be used to execute tasks in parallel.
-		
-			
-			//See reference here: http://developer.android.com/reference/android/os/AsyncTask.Status.html
-			if(retrieve.getStatus() == (AsyncTask.Status.PENDING)) {
-		        //Indicates that the task has not been executed yet
-				Log.i(LOGTAG, "Grammar connection: Pending");
-		    } else if(retrieve.getStatus() == (AsyncTask.Status.RUNNING)) {
-		        //Indicates that the task is running
-		    	Log.i(LOGTAG, "Grammar connection: Running");
-		    } else if(retrieve.getStatus() == (AsyncTask.Status.FINISHED)) {
-		        //Indicates that AsyncTask.onPostExecute has finished
-		    	Log.i(LOGTAG, "Grammar connection: Finished");
-		    } 
+			XMLClient.getInstance().request(location, null, (XMLAsyncResponse) this, XMLPriority.PREFETCH);	//Retrieved in the background, then processXMLContents is invoked
 		//ASSESTS
 		} else {
 			try{
-				processXMLContents(getContentFromAssets(location, ctx));
+				grammar = HandCraftedGrammar.fromAsset(ctx.getAssets(), location);	//Parsed directly from the file, without reading it into a String
+				grammar.enableSemanticsCache(GRAMMAR_CACHE_SIZE);
 			} catch (IOException e) {
 				grammar = null;
 				Log.e(LOGTAG, "Grammar could not be initialized, using no grammar");
+			} catch (XmlPullParserException e) {
+				grammar = null;
+				Log.e(LOGTAG, "Grammar could not be initialized, using no grammar");
+			} catch (GrammarException e) {
+				grammar = null;
+				Log.e(LOGTAG, "Grammar could not be initialized, using no grammar");
 			}
 		}
 	} 
 	
-	/**
-	 * Reads a file from the assets folder.
-	 * @param filename Path inside the assets folder.
-	 * @return File contents.
-	 * @throws IOException If it is not possible to read the specified file.
-	 */
-	private String getContentFromAssets(String filename, Context ctx) throws IOException {
-		
-		StringBuffer contents = new StringBuffer();
-		BufferedReader reader = null;
-		
-		try{
-			AssetManager assetManager = ctx.getAssets();
-			InputStream inputStream;
-			inputStream = assetManager.open(filename);
-		 
-			reader = new BufferedReader(new InputStreamReader(inputStream));
-			String text=null;
-		     
-			while ((text = reader.readLine()) != null) {
-				contents.append(text).append(System.getProperty("line.separator"));
-			}
-	
-			reader.close();
-		} catch (IOException e) {
-			reader.close();
-			throw new IOException(e.getMessage());
-		}
-			
-		return contents.toString();
-	}
-	
 	/**
 	 * Initializes the HandCraftedGrammar with the xml read. It is invoked when the <code>retrieveGrammar</code> finishes processing.
 	 * If the grammar cannot be initialized, then it is not considered.
@@ -222,6 +183,7 @@ public class Field implements XMLAsyncResponse{
 		
 		try {
 			grammar = new HandCraftedGrammar(XMLGrammarContent);
+			grammar.enableSemanticsCache(GRAMMAR_CACHE_SIZE);
 		} catch (XmlPullParserException e) {
 		} catch (GrammarException e) {
 			grammar = null;
@@ -230,6 +192,13 @@ public class Field implements XMLAsyncResponse{
 		
 	}
 
+	/**
+	 * Returns the NLU grammar of the field, or null if it has no grammar (or it has not been retrieved yet)
+	 */
+	HandCraftedGrammar getGrammar(){
+		return grammar;
+	}
+	
 	/**
 	 * Checks whether a phrase recognized to fill the current field is valid according to the
 	 * NLU grammar considered.
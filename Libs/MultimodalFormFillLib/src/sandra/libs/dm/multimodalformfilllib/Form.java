@@ -23,6 +23,13 @@
 package sandra.libs.dm.multimodalformfilllib;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import sandra.libs.nlu.nlulib.GrammarException;
+import sandra.libs.nlu.nlulib.HandCraftedGrammar;
+import sandra.libs.nlu.nlulib.UnionGrammar;
+
+import android.util.Log;
 
 /**
 * Represents a form containing a dialogue.
@@ -43,6 +50,12 @@ public class Form {
 	//Collection of fields
 	private ArrayList<Field> fields = new ArrayList<Field>();
 	
+	//Union of the grammars of the fields, and the grammars used to build it (they are retrieved asynchronously, so it may have to be rebuilt)
+	private UnionGrammar unionGrammar = null;
+	private ArrayList<HandCraftedGrammar> unionGrammarSources = new ArrayList<HandCraftedGrammar>();
+	
+	private static final String LOGTAG = "FORM";
+	
 	/**
 	 * Adds a new field to the collection of fields of the form
 	 * @throws Exception When the field is not complete (it does not have all the information needed to process it
@@ -61,6 +74,17 @@ public class Form {
 		return fields.get(position);
 	}
 
+	/**
+	 * Returns the field with the indicated name, or null if there is no such field in the form
+	 */
+	public Field getField(String name){
+		for(Field f: fields){
+			if(f.getName().equals(name))
+				return f;
+		}
+		return null;
+	}
+
 	/**
 	 * Calculates the number of fields in the form
 	 */
@@ -86,4 +110,35 @@ public class Form {
 		
 		return (i==fields.size());
 	}
+	
+	/**
+	 * Returns the union of the grammars of all the fields, tagged with the names of the fields, so that it is 
+	 * possible to find all the fields that a phrase fills (see <code>UnionGrammar</code>). 
+	 * It is built the first time it is needed, and built again if the grammars of the fields change.
+	 * @return The union of grammars, or null if no field has a grammar
+	 */
+	public synchronized UnionGrammar getUnionGrammar(){
+		ArrayList<HandCraftedGrammar> sources = new ArrayList<HandCraftedGrammar>(fields.size());
+		LinkedHashMap<String, HandCraftedGrammar> taggedGrammars = new LinkedHashMap<String, HandCraftedGrammar>();
+		for(Field f: fields){
+			HandCraftedGrammar grammar = f.getGrammar();
+			sources.add(grammar);
+			if(grammar!=null)
+				taggedGrammars.put(f.getName(), grammar);
+		}
+		
+		if(!sources.equals(unionGrammarSources)){
+			unionGrammarSources = sources;
+			unionGrammar = null;
+			if(!taggedGrammars.isEmpty()){
+				try {
+					unionGrammar = new UnionGrammar(taggedGrammars);
+				} catch (GrammarException e) {
+					Log.e(LOGTAG, "The grammars of the fields could not be combined: "+e.getReason());
+				}
+			}
+		}
+		
+		return unionGrammar;
+	}
 }
@@ -0,0 +1,483 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.nlu.nlulib;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Generates sentences from a handcrafted grammar, each of them paired with the semantic tags that
+ * the grammar assigns to it. It can be used to obtain labelled utterances to test or benchmark the NLU.
+ * 
+ * The number of sentences of the grammar (the size of its language) is computed by dynamic programming
+ * over the parsed rules, so that every sentence has an index between 0 and size-1 and it is
+ * possible to build the sentence in any position without enumerating the previous ones. Thus,
+ * sentences are generated lazily, either exhaustively (in index order) or uniformly at random,
+ * and the language is never stored in memory.
+ * 
+ * Note that the sentences are counted by derivation: if the same words can be obtained from the grammar
+ * in two different ways, they are counted (and can be generated) twice.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+public class GrammarSampler {
+
+	private HandCraftedGrammar grammar;
+	
+	//Number of sentences that each element of the grammar can generate (dynamic programming table)
+	private IdentityHashMap<GrammarElement, BigInteger> counts = new IdentityHashMap<GrammarElement, BigInteger>();
+	
+	//Number of sentences of the grammar
+	private BigInteger languageSize;
+	
+	//Rule references of each rule, in the order in which they appear in its regular expression
+	private IdentityHashMap<Rule, ArrayList<RuleReference>> references = new IdentityHashMap<Rule, ArrayList<RuleReference>>();
+	
+	//Position of each rule reference among those of its rule
+	private IdentityHashMap<RuleReference, Integer> referencePositions = new IdentityHashMap<RuleReference, Integer>();
+	
+	//Occurrence of the main rule, from which the occurrences of all the references in the grammar hang
+	private Occurrence mainOccurrence;
+	
+	/**
+	 * Occurrence of a rule reference in the regular expression of the grammar, once all references are solved
+	 */
+	private static class Occurrence {
+		final Rule rule;
+		Occurrence[] children = null;	//Occurrences of the references inside the rule, in order
+		boolean tagged = false;			//True if the grammar obtains semantics for it
+		
+		Occurrence(Rule rule){
+			this.rule = rule;
+		}
+	}
+	
+	/**
+	 * Sentence generated from the grammar, with the semantic tags of the items that were used to generate it
+	 */
+	public static class Sentence {
+		
+		private String text;
+		private ArrayList<String> semantics;
+		
+		Sentence(String text, ArrayList<String> semantics){
+			this.text = text;
+			this.semantics = semantics;
+		}
+		
+		/**
+		 * Returns the words of the sentence separated by single spaces
+		 */
+		public String getText(){
+			return text;
+		}
+		
+		/**
+		 * Returns the semantic tags that the grammar assigns to the sentence, in the form "ruleId: tag", where ruleId 
+		 * is a referenced rule whose whole text is a tagged item (of the rule or of the rules it references), as in 
+		 * <code>HandCraftedGrammar.obtainSemantics</code>. The list is empty if there are none.
+		 */
+		public ArrayList<String> getSemantics(){
+			return semantics;
+		}
+		
+		/**
+		 * Returns the semantic tags in the same format as <code>HandCraftedGrammar.obtainSemantics</code>, so that 
+		 * they can be compared directly with its result
+		 */
+		public String getLabel(){
+			return toLabel(semantics);
+		}
+		
+		@Override
+		public String toString(){
+			return text+" "+semantics;
+		}
+	}
+	
+	/**
+	 * Computes the number of sentences that can be generated from the grammar
+	 * @param grammar Grammar already parsed
+	 * @throws GrammarException If the grammar contains incorrect or recursive rule references
+	 */
+	public GrammarSampler(HandCraftedGrammar grammar) throws GrammarException{
+		this.grammar = grammar;
+		
+		Rule mainRule = grammar.getRule(grammar.getMainRuleId());
+		if(mainRule==null)
+			throw new GrammarException("Sampling error", "The root rule is not defined in the grammar");
+		
+		languageSize = count(mainRule, new IdentityHashMap<Rule, Boolean>());
+		mainOccurrence = solveReferences(mainRule);
+	}
+	
+	/**
+	 * Returns the number of sentences that can be generated from the grammar
+	 */
+	public BigInteger languageSize(){
+		return languageSize;
+	}
+	
+	/**
+	 * Builds the sentence in the indicated position
+	 * @param index Position of the sentence, from 0 to <code>languageSize()-1</code>
+	 * @throws IndexOutOfBoundsException If the index is not valid
+	 */
+	public Sentence getSentence(BigInteger index){
+		if(index.signum()<0 || index.compareTo(languageSize)>=0)
+			throw new IndexOutOfBoundsException("There is no sentence in position "+index+", the grammar has "+languageSize);
+		
+		StringBuilder text = new StringBuilder();
+		ArrayList<String> semantics = new ArrayList<String>();
+		Rule mainRule = grammar.getRule(grammar.getMainRuleId());
+		
+		build(mainRule, index, mainOccurrence, text, semantics);
+		
+		return new Sentence(text.toString(), semantics);
+	}
+	
+	/**
+	 * Converts a list of semantic tags in the form "ruleId: tag" into the format returned by 
+	 * <code>HandCraftedGrammar.obtainSemantics</code>: each tag followed by a space and a line break
+	 */
+	public static String toLabel(ArrayList<String> semantics){
+		StringBuilder label = new StringBuilder();
+		for(String tag: semantics)
+			label.append(tag).append(" \r\n");
+		return label.toString();
+	}
+	
+	/**
+	 * Returns all the sentences of the grammar in index order. They are generated as the iteration advances.
+	 */
+	public Iterable<Sentence> allSentences(){
+		return new Iterable<Sentence>() {
+			@Override
+			public Iterator<Sentence> iterator() {
+				return new Iterator<Sentence>() {
+					private BigInteger next = BigInteger.ZERO;
+					
+					@Override
+					public boolean hasNext() {
+						return next.compareTo(languageSize)<0;
+					}
+
+					@Override
+					public Sentence next() {
+						if(!hasNext())
+							throw new NoSuchElementException();
+						Sentence sentence = getSentence(next);
+						next = next.add(BigInteger.ONE);
+						return sentence;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+	
+	/**
+	 * Returns an endless sequence of sentences drawn uniformly at random (with replacement) from the grammar
+	 * @param random Source of randomness, it can be initialized with a seed to obtain reproducible sequences
+	 */
+	public Iterable<Sentence> randomSentences(final Random random){
+		return new Iterable<Sentence>() {
+			@Override
+			public Iterator<Sentence> iterator() {
+				return new Iterator<Sentence>() {
+					@Override
+					public boolean hasNext() {
+						return languageSize.signum()>0;
+					}
+
+					@Override
+					public Sentence next() {
+						if(!hasNext())
+							throw new NoSuchElementException();
+						return getSentence(randomIndex(random));
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+	
+	/**
+	 * Draws an index between 0 and languageSize-1 with uniform probability (rejection sampling)
+	 */
+	private BigInteger randomIndex(Random random){
+		BigInteger index;
+		do {
+			index = new BigInteger(languageSize.bitLength(), random);
+		} while(index.compareTo(languageSize)>=0);
+		return index;
+	}
+	
+	/************************************************************************************
+	 * COUNTING
+	 ************************************************************************************/
+	
+	/**
+	 * Number of sentences that the element can generate. The results are stored so that each 
+	 * element (and each referenced rule) is only counted once.
+	 * @param visiting Rules whose count is being computed, to detect recursive references
+	 */
+	private BigInteger count(GrammarElement element, IdentityHashMap<Rule, Boolean> visiting) throws GrammarException{
+		BigInteger result = counts.get(element);
+		if(result!=null)
+			return result;
+		
+		if(element instanceof Item){
+			result = BigInteger.ONE;
+		
+		} else if(element instanceof RuleReference){
+			String id = ((RuleReference) element).getRefId();
+			Rule rule = grammar.getRule(id);
+			if(rule==null)
+				throw new GrammarException("Sampling error", "There is an incorrect rule reference in the grammar: "+id);
+			result = count(rule, visiting);
+		
+		} else if(element instanceof Rule){
+			Rule rule = (Rule) element;
+			if(visiting.containsKey(rule))
+				throw new GrammarException("Sampling error", "Recursive reference to the rule "+rule.getId());
+			visiting.put(rule, Boolean.TRUE);
+			result = countSequence(rule.getElements(), visiting);
+			visiting.remove(rule);
+		
+		} else if(element instanceof Alternative){
+			result = BigInteger.ZERO;
+			for(GrammarElement alternative: ((Alternative) element).getAlternatives())
+				result = result.add(count(alternative, visiting));
+		
+		} else if(element instanceof Repeat){
+			Repeat repeat = (Repeat) element;
+			BigInteger sequence = countSequence(repeat.getElements(), visiting);
+			result = BigInteger.ZERO;
+			for(int times=repeat.getMin(); times<=repeat.getMax(); times++)
+				result = result.add(sequence.pow(times));
+		
+		} else
+			throw new GrammarException("Sampling error", "Unknown grammar element");
+		
+		counts.put(element, result);
+		return result;
+	}
+	
+	/**
+	 * Number of sentences generated by a sequence of elements (the product of their counts)
+	 */
+	private BigInteger countSequence(ArrayList<GrammarElement> elements, IdentityHashMap<Rule, Boolean> visiting) throws GrammarException{
+		BigInteger result = BigInteger.ONE;
+		for(GrammarElement el: elements)
+			result = result.multiply(count(el, visiting));
+		return result;
+	}
+	
+	/************************************************************************************
+	 * GENERATION
+	 ************************************************************************************/
+	
+	/**
+	 * Appends to <code>text</code> the sentence in position <code>index</code> among those generated by the element,
+	 * and adds to <code>semantics</code> the tags that <code>HandCraftedGrammar.obtainSemantics</code> would obtain 
+	 * for it. As in the grammar, a referenced rule produces a tag when the whole text generated by it is a tagged item
+	 * and the grammar keeps semantics for that reference (see <code>solveReferences</code>), and the tag of an outer 
+	 * reference goes before those of the references inside it.
+	 * @param occurrence Occurrence of the rule that contains the element
+	 */
+	private void build(GrammarElement element, BigInteger index, Occurrence occurrence, StringBuilder text, ArrayList<String> semantics){
+		
+		if(element instanceof Item){
+			Item item = (Item) element;
+			if(item.getText()!=null){
+				String words = item.getText().trim().replaceAll("\\s+", " ");
+				if(words.length()>0){
+					if(text.length()>0)
+						text.append(' ');
+					text.append(words);
+				}
+			}
+		
+		} else if(element instanceof RuleReference){
+			Occurrence reference = occurrence.children[referencePositions.get(element)];
+			int position = semantics.size();
+			int start = text.length();
+			build(reference.rule, index, reference, text, semantics);
+			
+			String tag = reference.tagged ? matchingTag(reference.rule, text.substring(start)) : null;
+			if(tag!=null)
+				semantics.add(position, reference.rule.getId()+": "+tag);
+		
+		} else if(element instanceof Rule){
+			buildSequence(((Rule) element).getElements(), index, occurrence, text, semantics);
+		
+		} else if(element instanceof Alternative){
+			for(GrammarElement alternative: ((Alternative) element).getAlternatives()){
+				BigInteger size = counts.get(alternative);
+				if(index.compareTo(size)<0){
+					build(alternative, index, occurrence, text, semantics);
+					break;
+				}
+				index = index.subtract(size);
+			}
+		
+		} else if(element instanceof Repeat){
+			Repeat repeat = (Repeat) element;
+			BigInteger sequence = BigInteger.ONE;
+			for(GrammarElement el: repeat.getElements())
+				sequence = sequence.multiply(counts.get(el));
+			
+			//Find the number of repetitions, and then the sentence generated by each repetition
+			for(int times=repeat.getMin(); times<=repeat.getMax(); times++){
+				BigInteger size = sequence.pow(times);
+				if(index.compareTo(size)<0){
+					for(int i=0; i<times; i++){
+						BigInteger[] division = index.divideAndRemainder(sequence);
+						buildSequence(repeat.getElements(), division[1], occurrence, text, semantics);
+						index = division[0];
+					}
+					break;
+				}
+				index = index.subtract(size);
+			}
+		}
+	}
+	
+	/**
+	 * Builds the sentence in position <code>index</code> generated by a sequence of elements. The index is 
+	 * decomposed in mixed radix, using the count of each element as its base
+	 */
+	private void buildSequence(ArrayList<GrammarElement> elements, BigInteger index, Occurrence occurrence, StringBuilder text, ArrayList<String> semantics){
+		for(GrammarElement el: elements){
+			BigInteger[] division = index.divideAndRemainder(counts.get(el));
+			build(el, division[1], occurrence, text, semantics);
+			index = division[0];
+		}
+	}
+	
+	/************************************************************************************
+	 * SEMANTICS OF THE REFERENCES
+	 ************************************************************************************/
+	
+	/**
+	 * Solves the rule references as <code>HandCraftedGrammar.solveReferences</code> does, to know for which of them the 
+	 * grammar keeps semantics. The expression of the grammar is represented by the list of its unsolved references, in 
+	 * order. The leftmost one is solved each time, replacing all the references to the same rule with the references 
+	 * inside that rule, and the grammar keeps its semantics only if it was the only reference to the rule at that moment.
+	 * @return Occurrence of the main rule
+	 */
+	private Occurrence solveReferences(Rule mainRule){
+		Occurrence main = new Occurrence(mainRule);
+		ArrayList<Occurrence> unsolved = expand(main);
+		
+		while(!unsolved.isEmpty()){
+			Rule rule = unsolved.get(0).rule;
+			ArrayList<Occurrence> next = new ArrayList<Occurrence>(unsolved.size());
+			int count = 0;
+			for(Occurrence occurrence: unsolved){
+				if(occurrence.rule==rule){
+					count++;
+					next.addAll(expand(occurrence));
+				}
+				else
+					next.add(occurrence);
+			}
+			unsolved.get(0).tagged = count==1;
+			unsolved = next;
+		}
+		return main;
+	}
+	
+	/**
+	 * Creates the occurrences of the references inside the rule of an occurrence
+	 */
+	private ArrayList<Occurrence> expand(Occurrence occurrence){
+		ArrayList<RuleReference> refs = referencesOf(occurrence.rule);
+		occurrence.children = new Occurrence[refs.size()];
+		ArrayList<Occurrence> result = new ArrayList<Occurrence>(refs.size());
+		for(int i=0; i<refs.size(); i++){
+			occurrence.children[i] = new Occurrence(grammar.getRule(refs.get(i).getRefId()));
+			result.add(occurrence.children[i]);
+		}
+		return result;
+	}
+	
+	/**
+	 * Rule references of a rule in the order of its regular expression
+	 */
+	private ArrayList<RuleReference> referencesOf(Rule rule){
+		ArrayList<RuleReference> refs = references.get(rule);
+		if(refs==null){
+			refs = new ArrayList<RuleReference>();
+			collectReferences(rule.getElements(), refs);
+			for(int i=0; i<refs.size(); i++)
+				referencePositions.put(refs.get(i), i);
+			references.put(rule, refs);
+		}
+		return refs;
+	}
+	
+	private static void collectReferences(ArrayList<GrammarElement> elements, ArrayList<RuleReference> refs){
+		for(GrammarElement el: elements){
+			if(el instanceof RuleReference)
+				refs.add((RuleReference) el);
+			else if(el instanceof Alternative)
+				collectReferences(((Alternative) el).getAlternatives(), refs);
+			else if(el instanceof Repeat)
+				collectReferences(((Repeat) el).getElements(), refs);
+			else if(el instanceof Rule)
+				collectReferences(((Rule) el).getElements(), refs);
+		}
+	}
+	
+	/**
+	 * Returns the first semantic tag of the rule (or of the rules it references) whose item text is the 
+	 * indicated text, ignoring whitespace and case as <code>SemanticParsing</code> does, or null if there is none
+	 */
+	private static String matchingTag(Rule rule, String ruleText){
+		ArrayList<String[]> tags = rule.getSemanticTags(null);	//Already computed when the grammar was compiled
+		if(tags==null)
+			return null;
+		String keyword = HandCraftedGrammar.normalize(ruleText);
+		for(String[] tag: tags){
+			if(keyword.equals(HandCraftedGrammar.normalize(tag[0])))
+				return tag[1];
+		}
+		return null;
+	}
+}
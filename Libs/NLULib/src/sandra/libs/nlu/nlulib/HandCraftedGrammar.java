@@ -23,10 +23,18 @@
 package sandra.libs.nlu.nlulib;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -36,6 +44,7 @@ import org.xmlpull.v1.XmlPullParserFactory;
 
 
 import android.annotation.SuppressLint;
+import android.content.res.AssetManager;
 import android.util.Log;
 
 /**
@@ -55,6 +64,12 @@ public class HandCraftedGrammar {
 	//The contents of the grammar are also parsed to a regular expression
 	private String grammarRegExpression; 
 	
+	//Compiled pattern used to match the phrases (without whitespace and in lower case, see obtainSemantics)
+	private Pattern grammarPattern;
+	
+	//Optional cache of the results of obtainSemantics, null if it is not used
+	private volatile SemanticsCache semanticsCache = null;
+	
 	//The semantics associated to the rules are stored into this HashMap. The keys are the positions of each rule into the regular expression of the grammar (see Chapter 6)
 	private HashMap<Integer, SemanticParsing> semantics = new HashMap<Integer, SemanticParsing>();
 	
@@ -63,6 +78,18 @@ public class HandCraftedGrammar {
 	
 	
 	private final String LOGTAG = "HANDCRAFTEDGRAMMAR";
+	
+	//Grammars with fewer rules than this are compiled sequentially, as it is not worth to distribute so little work among threads
+	private static final int PARALLEL_COMPILATION_THRESHOLD = 32;
+	
+	//Pattern of the placeholders used for rule references in the regular expressions (see RuleReference)
+	private static final Pattern REFERENCE_PATTERN = Pattern.compile("(xxREFxx)(\\w+)(xx)");
+	
+	//Pool shared by all grammars to compile their rules in parallel, with as many threads as processors. It is created the first time it is needed
+	private static ExecutorService compilationPool = null;
+	
+	//Parsers are reused for all the grammars parsed in the same thread, as creating them is costly
+	private static final ThreadLocal<XmlPullParser> parsers = new ThreadLocal<XmlPullParser>();
 
 
 	/************************************************************************************
@@ -76,8 +103,83 @@ public class HandCraftedGrammar {
 	 * @throws GrammarException If the grammar format is not correct
 	 */
 	public HandCraftedGrammar(String xmlContent) throws XmlPullParserException, GrammarException{
-		parse(xmlContent);
+		this(new StringReader(xmlContent));
+	}
+	
+	/**
+	 * Constructor: parses the grammar as it is read from <code>reader</code> (without copying it to a String first), 
+	 * and obtains the corresponding regular expression. The reader is not closed.
+	 * @param reader Reader with the xml grammar
+	 * @throws XmlPullParserException If the grammar format is not correct or it cannot be read
+	 * @throws GrammarException If the grammar format is not correct
+	 */
+	public HandCraftedGrammar(Reader reader) throws XmlPullParserException, GrammarException{
+		XmlPullParser parser = obtainParser();
+		try{
+			parser.setInput(reader);
+		}
+		catch(XmlPullParserException ex){
+			throw new GrammarException(ex.getMessage(), "Grammar not accessible");
+		}
+		initialize(parser);
+	}
+	
+	/**
+	 * Constructor: parses the grammar as it is read from <code>in</code> and obtains the corresponding regular 
+	 * expression. The stream is not closed.
+	 * @param in Stream with the xml grammar
+	 * @param encoding Encoding of the stream, if it is null it is obtained from the xml declaration
+	 * @throws XmlPullParserException If the grammar format is not correct or it cannot be read
+	 * @throws GrammarException If the grammar format is not correct
+	 */
+	public HandCraftedGrammar(InputStream in, String encoding) throws XmlPullParserException, GrammarException{
+		XmlPullParser parser = obtainParser();
+		try{
+			parser.setInput(in, encoding);
+		}
+		catch(XmlPullParserException ex){
+			throw new GrammarException(ex.getMessage(), "Grammar not accessible");
+		}
+		initialize(parser);
+	}
+	
+	/**
+	 * Creates a grammar reading it directly from the assets folder
+	 * @param assets Asset manager of the application (<code>Context.getAssets()</code>)
+	 * @param path Path of the grammar file inside the assets folder
+	 * @throws IOException If the file cannot be opened
+	 * @throws XmlPullParserException If the grammar format is not correct or it cannot be read
+	 * @throws GrammarException If the grammar format is not correct
+	 */
+	public static HandCraftedGrammar fromAsset(AssetManager assets, String path) throws IOException, XmlPullParserException, GrammarException{
+		InputStream in = assets.open(path);
+		try{
+			return new HandCraftedGrammar(in, null);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Parses the grammar from the input already set in the parser and obtains the corresponding regular expression
+	 */
+	private void initialize(XmlPullParser parser) throws XmlPullParserException, GrammarException{
+		parse(parser);
 		grammarRegExpression = computeRegularExpression();
+		grammarPattern = Pattern.compile(normalize(grammarRegExpression)); //To ignore whitespace and case
+	}
+	
+	/**
+	 * Returns the parser for the current thread, creating it the first time
+	 * @throws XmlPullParserException If the parser cannot be created
+	 */
+	private static XmlPullParser obtainParser() throws XmlPullParserException{
+		XmlPullParser parser = parsers.get();
+		if(parser==null){
+			parser = XmlPullParserFactory.newInstance().newPullParser();
+			parsers.set(parser);
+		}
+		return parser;
 	}
 	
 	/**
@@ -103,11 +205,11 @@ public class HandCraftedGrammar {
 	}
 		
 	/**
-	 * Parses the XML grammar contained in the xmlContent String to a list of phrases
+	 * Parses the XML grammar read by the parser to a list of phrases
 	 * @throws XmlPullParserException If the grammar format is not correct or it cannot be read
 	 * @throws GrammarException If the grammar format is not correct
 	 */
-	private void parse(String xmlContent) throws XmlPullParserException, GrammarException {
+	private void parse(XmlPullParser parser) throws XmlPullParserException, GrammarException {
 		
         String tagContents = null;
         int eventType;
@@ -119,18 +221,6 @@ public class HandCraftedGrammar {
         //Auxiliary variables
         RuleReference ruleref = null;
         Item item = null;
-              
-        //Parser
-        XmlPullParserFactory factory = XmlPullParserFactory.newInstance(); //May throw XmlPullParserException
-		XmlPullParser parser = factory.newPullParser();					   //May throw XmlPullParserException
-		StringReader xmlReader = new StringReader(xmlContent);
-		
-		try{
-			parser.setInput(xmlReader); //We are reading the xml from a string, but we could read it directly from the streaminput
-		}
-		catch(XmlPullParserException ex){
-			throw new GrammarException(ex.getMessage(), "Grammar not accessible");
-		}
 
 		try{
 			eventType = parser.getEventType();	//May throw a XMLPullParserException
@@ -305,8 +395,7 @@ public class HandCraftedGrammar {
 	private String computeRegularExpression() throws GrammarException{
 		String result;
 		
-		for(Rule ph: rules.values())
-			ph.setRegularExpression();				
+		compileRules();
 
 		result = solveReferences();
 		
@@ -315,6 +404,63 @@ public class HandCraftedGrammar {
 		return result;
 	}
 	
+	/**
+	 * Compiles each rule of the grammar separately (see <code>Rule.compile</code>). References are not solved
+	 * at this stage, so the rules are independent from each other and large grammars are compiled in parallel. 
+	 * The rules are then linked in <code>solveReferences</code>, which always produces the same result
+	 * regardless of the order in which the rules were compiled.
+	 * @throws GrammarException If any of the rules could not be compiled
+	 */
+	private void compileRules() throws GrammarException{
+		
+		if(rules.size() < PARALLEL_COMPILATION_THRESHOLD || Runtime.getRuntime().availableProcessors() < 2){
+			for(Rule ph: rules.values())
+				ph.compile(rules);
+			return;
+		}
+		
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>(rules.size());
+		for(final Rule ph: rules.values()){
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					ph.compile(rules);
+					return null;
+				}
+			});
+		}
+		
+		try {
+			for(Future<Void> compiled: getCompilationPool().invokeAll(tasks))
+				compiled.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new GrammarException("Compilation interrupted", "The grammar could not be compiled");
+		} catch (ExecutionException ex) {
+			throw new GrammarException(ex.getCause().toString(), "The grammar could not be compiled");
+		}
+	}
+	
+	/**
+	 * Returns the pool used to compile the rules in parallel, creating it if necessary.
+	 * Its threads are daemon so that they do not prevent the application from finishing.
+	 */
+	private static synchronized ExecutorService getCompilationPool(){
+		if(compilationPool==null){
+			compilationPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private int count = 0;
+				
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "GrammarCompilation-"+(++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return compilationPool;
+	}
+	
 	/** 
 	 * It solves the references in a regular expression corresponding to a grammar
 	 * @return Regular expression
@@ -328,7 +474,7 @@ public class HandCraftedGrammar {
 		while(regExpr.contains("xxREFxx")){ //There might be several levels of references...
 			
 			//Solve reference in current level	
-			Pattern p = Pattern.compile("(xxREFxx)(\\w+)(xx)");
+			Pattern p = REFERENCE_PATTERN;
 			Matcher m = p.matcher(regExpr);
 
 	        while(m.find())
@@ -341,8 +487,9 @@ public class HandCraftedGrammar {
 		        	int numOpenParenthesis = exprUpToCurrentRef.length() - exprUpToCurrentRef.replace("(", "").length(); //Number of parenthesis in the regular expression up to the current reference
 
 		        	if(regExpr.indexOf(m.group(0))==regExpr.lastIndexOf(m.group(0))){ //Not to consider semantics for referenced rules (just inside the referee)
-			        	if(rules.get(id).getSemanticTags(rules)!=null){
-			        		SemanticParsing sp = new SemanticParsing(id, rules.get(id).getSemanticTags(rules), numOpenParenthesis+1); //+1 because the 0 position is for the whole sentence
+		        		ArrayList<String[]> tags = rules.get(id).getSemanticTags(rules); //Already computed when the rule was compiled
+			        	if(tags!=null){
+			        		SemanticParsing sp = new SemanticParsing(id, tags, numOpenParenthesis+1); //+1 because the 0 position is for the whole sentence
 			        		semantics.put(Integer.valueOf(sp.getPosition()), sp);
 			        	}
 		        	}	
@@ -381,41 +528,116 @@ public class HandCraftedGrammar {
     	}	
 	}
 	
+	/**
+	 * Returns the regular expression of the grammar, without whitespace and in lower case, as it is used to match the phrases
+	 */
+	String getNormalizedRegularExpression(){
+		return grammarPattern.pattern();
+	}
+	
+	/**
+	 * Returns the id of the root rule of the grammar
+	 */
+	String getMainRuleId(){
+		return mainPhraseId;
+	}
+	
+	/**
+	 * Returns the rule with the indicated id, or null if there is not such rule in the grammar
+	 */
+	Rule getRule(String id){
+		return rules.get(id);
+	}
+	
 	/************************************************************************************
 	 * METHODS TO VALIDATE A PHRASE AND OBTAIN ITS SEMANTIC REPRESENTATION
 	 ************************************************************************************/
 	
 	/**
 	 * Checks whether the <code>utterance</code> is valid according to the handcrafted grammar.
-	 * If it is valid, it returns its semantic interpretation, if not it returns null
+	 * If it is valid, it returns its semantic interpretation, if not it returns null.
+	 * If the cache is enabled (see <code>enableSemanticsCache</code>), phrases already processed are not matched again
 	 * @throws GrammarException It the grammar was not initialized in advance
 	 */
-	@SuppressLint("DefaultLocale")
 	public String obtainSemantics(String utterance) throws GrammarException{
-		if(grammarRegExpression==null) //Make sure that the grammar is initialized
+		if(grammarPattern==null) //Make sure that the grammar is initialized
 			throw new GrammarException("Grammar not initialized","Attempt to use grammar without initializing it");
 		else
 		{
-			String semantic = "";
-			Pattern p = Pattern.compile(grammarRegExpression.replaceAll("\\s","").toLowerCase()); //To ignore whitespace and case
-	        Matcher m = p.matcher(utterance.replaceAll("\\s","").toLowerCase()); //To ignore whitespace and case
-	        
-	        if(m.matches()) //If the phrase matches the regular expression of the grammar...
-	        							//Beware not to use find instead of matches, matches accepts only exact match while find would accept "newyork" in "newyork areg"
-	        {	//...then it obtains its semantic representation
-	        	int numGroups = m.groupCount();
-	        	for(int i=0; i<numGroups; i++){
-	        		String sem = getMatchingSemanticTag(i, m.group(i));
-	        		if(sem != null)
-	        			semantic += sem+"\r\n";
-	        	}	        	
-	            return semantic;
-	        }
-	        else
-	        	return null;
+			String phrase = normalize(utterance); //To ignore whitespace and case
+			
+			SemanticsCache cache = semanticsCache;
+			if(cache!=null){
+				String cached = cache.get(phrase);
+				if(cached!=null)
+					return cached==SemanticsCache.NO_MATCH ? null : cached;
+			}
+			
+			String semantic = matchSemantics(phrase);
+			
+			if(cache!=null)
+				cache.put(phrase, semantic);
+			
+			return semantic;
 		}
 	}
 	
+	/**
+	 * Matches a normalized phrase with the grammar. If it is valid, it returns its semantic interpretation, if not it returns null
+	 */
+	private String matchSemantics(String phrase){
+		String semantic = "";
+        Matcher m = grammarPattern.matcher(phrase);
+        
+        if(m.matches()) //If the phrase matches the regular expression of the grammar...
+        							//Beware not to use find instead of matches, matches accepts only exact match while find would accept "newyork" in "newyork areg"
+        {	//...then it obtains its semantic representation
+        	int numGroups = m.groupCount();
+        	for(int i=0; i<numGroups; i++){
+        		String sem = getMatchingSemanticTag(i, m.group(i));
+        		if(sem != null)
+        			semantic += sem+"\r\n";
+        	}	        	
+            return semantic;
+        }
+        else
+        	return null;
+	}
+	
+	/**
+	 * Removes the whitespace and changes the text to lower case, so that phrases can be matched ignoring them
+	 */
+	@SuppressLint("DefaultLocale")
+	static String normalize(String text){
+		return text.replaceAll("\\s","").toLowerCase();
+	}
+	
+	/**
+	 * Starts caching the results of <code>obtainSemantics</code>, so that phrases that have already been 
+	 * processed (valid or not) are not matched again with the grammar. If the cache was already enabled, 
+	 * its contents are discarded.
+	 * @param maxEntries Maximum number of phrases cached, the least recently used are discarded when it is exceeded
+	 * @return The cache, which can be used to consult the hit and miss statistics
+	 */
+	public SemanticsCache enableSemanticsCache(int maxEntries){
+		semanticsCache = new SemanticsCache(maxEntries);
+		return semanticsCache;
+	}
+	
+	/**
+	 * Stops caching the results of <code>obtainSemantics</code>
+	 */
+	public void disableSemanticsCache(){
+		semanticsCache = null;
+	}
+	
+	/**
+	 * Returns the cache of semantic results, or null if it is not enabled
+	 */
+	public SemanticsCache getSemanticsCache(){
+		return semanticsCache;
+	}
+	
 	/**
 	 * Obtains the semantic tag for a recognized keyword in the phrase number <code>group</code>
 	 */
@@ -50,6 +50,10 @@ class Item extends GrammarElement{
 		return text;
 	}
 	
+	String getSemantic(){
+		return semantic;
+	}
+	
 
 	@Override
 	ArrayList<String[]> getSemanticTags() {
@@ -22,15 +22,14 @@
 
 package sandra.libs.nlu.nlulib;
 
+import java.io.IOException;
+
 import org.xmlpull.v1.XmlPullParserException;
 
 import sandra.libs.asr.asrlib.ASR;
-import sandra.libs.util.xmllib.RetrieveXMLTask;
 import sandra.libs.util.xmllib.XMLAsyncResponse;
+import sandra.libs.util.xmllib.XMLClient;
 
-import android.annotation.TargetApi;
-import android.os.AsyncTask;
-import android.os.Build;
 import android.util.Log;
 
 /**
@@ -39,12 +38,13 @@ import android.util.Log;
  * 
  * @author Zoraida Callejas
  * @author Michael McTear
- * @version 2.0, 09/20/13
+ * @version 2.1, 10/19/26
  */	
 public abstract class NLU extends ASR implements XMLAsyncResponse{
 
 	private static final String LOGTAG = "MALUBANLU";
 	private static final String KEY = "Zdu1JF28QXAYpxA1DcIpLSGeX2MnXzAq";	//Replace it with your Maluuba developer key
+	private static final String MALUUBA_URL = "http://napi.maluuba.com/v0/interpret";	//Semantic interpretation in the Maluuba API
 	private HandCraftedGrammar grammar = null;
 		
 	/*
@@ -68,6 +68,33 @@ public abstract class NLU extends ASR implements XMLAsyncResponse{
 		grammar = new HandCraftedGrammar(XMLGrammarContent);	
 	}
 	
+	/**
+	 * Parses the grammar directly from a file in the assets folder, without reading it into a String first. 
+	 * It is equivalent to <code>initializeHandCrafted(String)</code> with the contents of the file.
+	 * 
+	 * @param assetPath	Path of the handcrafted XML grammar inside the assets folder
+	 * @throws IOException When the file cannot be opened
+	 * @throws XmlPullParserException When the XML does not follow the valid format
+	 * @throws GrammarException When the grammar is not valid
+	 */
+	public void initializeHandCraftedFromAsset(String assetPath) throws IOException, XmlPullParserException, GrammarException{
+		grammar = HandCraftedGrammar.fromAsset(getAssets(), assetPath);
+	}
+	
+	/**
+	 * Caches the results of <code>getResultsHandCrafted</code>, so that the phrases that are repeated are
+	 * not parsed again. It must be invoked after <code>initializeHandCrafted</code>.
+	 * 
+	 * @param maxEntries Maximum number of phrases cached
+	 * @return The cache, which can be used to consult the hit and miss statistics
+	 * @throws GrammarException If the grammar has not been initialized
+	 */
+	public SemanticsCache enableHandCraftedCache(int maxEntries) throws GrammarException{
+		if(grammar==null)
+			throw new GrammarException("Grammar not initialized", "Attempt to use grammar without initializing it");
+		return grammar.enableSemanticsCache(maxEntries);
+	}
+	
 	/**
 	 * Validates a phrase using the handcrafted grammar. If it is valid, it returns its semantic representation
 	 * in the form a String with all the items and their semantic values. If the phrase is not valid
@@ -122,35 +149,27 @@ public abstract class NLU extends ASR implements XMLAsyncResponse{
 	public abstract void processResultsFromStatistical(String semantics);
 		
 	
+	/**
+	 * Opens the connection to the Maluuba service in the background, so that the next phrase processed with
+	 * <code>startStatistical</code> does not wait for the DNS lookup and the connection setup. It can be invoked
+	 * when the app starts and every time the recognizer is ready for speech.
+	 */
+	public void preconnectStatistical(){
+		XMLClient.getInstance().preconnect(MALUUBA_URL);
+	}
+	
 	/**
 	 * Initiates the connection to the Maluuba service for processing the phrase.
 	 * 
 	 * @param phrase String to be interpreted using the Maluuba service.
 	 */
-	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
 	private void connectToMaluuba(String phrase){
 		
 			//Url for semantic interpretation in the Maluuba API
-			String url = "http://napi.maluuba.com/v0/interpret?phrase="+ phrase + "&apikey=" + KEY;
-			
-			//Start the connection...
-			RetrieveXMLTask retrieveMaluuba = new RetrieveXMLTask();				       //AsyncTask to retrieve the output (semantics) from the URL
-			retrieveMaluuba.delegate = (XMLAsyncResponse) this;							   //It is crucial in order to retrieve the data from the asynchronous task (see XMLLib)
-			retrieveMaluuba.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, url, url);   //An Executor that can be used to execute tasks in parallel.
-		
+			String url = MALUUBA_URL + "?phrase="+ phrase + "&apikey=" + KEY;
 			
-			//Check the status of the asynchronous task and print it in the log
-			//		See reference here: http://developer.android.com/reference/android/os/AsyncTask.Status.html
-			if(retrieveMaluuba.getStatus() == (AsyncTask.Status.PENDING)) {
-		        //Indicates that the task has not been executed yet
-				Log.i(LOGTAG, "Maluuba connection: Pending");
-		    } else if(retrieveMaluuba.getStatus() == (AsyncTask.Status.RUNNING)) {
-		        //Indicates that the task is running
-		    	Log.i(LOGTAG, "Maluuba connection: Running");
-		    } else if(retrieveMaluuba.getStatus() == (AsyncTask.Status.FINISHED)) {
-		        //Indicates that AsyncTask.onPostExecute has finished
-		    	Log.i(LOGTAG, "Maluuba connection: Finished");
-		    } 
+			//Start the connection in the background, when it finishes processXMLContents is invoked
+			XMLClient.getInstance().request(url, (XMLAsyncResponse) this);
 	}
 
 	/**
@@ -40,6 +40,8 @@ class Rule extends GrammarElement{
 	private ArrayList<GrammarElement> elements = new ArrayList<GrammarElement>(3); //Elements nested in the rule
 										//Initial capacity of 3 elements, see here: http://docs.oracle.com/javase/1.5.0/docs/api/java/util/ArrayList.html	
 	private String regularExpression = "";	//Regular expression corresponding to the rule
+	private volatile ArrayList<String[]> cachedSemanticTags = null;	//Semantic tags of the rule, cached when the rule is compiled
+	private volatile boolean compiled = false;
 	
 	void setId(String id){
 		this.id = id;
@@ -53,6 +55,10 @@ class Rule extends GrammarElement{
 		elements.add(element);
 	}
 	
+	ArrayList<GrammarElement> getElements(){
+		return elements;
+	}
+	
 	/**
 	 * Obtains the semantic tags associated with all the elements of the rule
 	 * @param rules HashMap with all the grammar rules that have been already parsed. It is
@@ -64,6 +70,9 @@ class Rule extends GrammarElement{
 	 */
 	public ArrayList<String[]> getSemanticTags(HashMap<String, Rule> rules){
 		
+		if(compiled)
+			return cachedSemanticTags;
+		
 		//Semantic tags
 		ArrayList<String[]> semanticTags = new ArrayList<String[]>(elements.size());
 		
@@ -75,8 +84,11 @@ class Rule extends GrammarElement{
 			//If the element is a rule reference, then the referred rule is solved and is semantic tags are added 
 			if(el instanceof RuleReference){
 				Rule referedRule = rules.get(((RuleReference) el).getRefId());
-				if(referedRule.getSemanticTags(rules)!=null)
-					semanticTags.addAll(referedRule.getSemanticTags(rules));
+				if(referedRule!=null){	//Incorrect references are reported when they are solved (see HandCraftedGrammar)
+					ArrayList<String[]> referedTags = referedRule.getSemanticTags(rules);
+					if(referedTags!=null)
+						semanticTags.addAll(referedTags);
+				}
 			}
 		}
 		
@@ -91,9 +103,23 @@ class Rule extends GrammarElement{
 	 * expressions corresponding to its constituent elements. 
 	 */
 	void setRegularExpression(){
+		StringBuilder expression = new StringBuilder(regularExpression);
 		for(GrammarElement element: elements){
-			regularExpression += " "+element.getRegExpr();
+			expression.append(' ').append(element.getRegExpr());
 		}
+		regularExpression = expression.toString();
+	}
+	
+	/**
+	 * Computes the regular expression of the rule and caches its semantic tags, so that they are not 
+	 * obtained again each time the rule is referenced. It only reads the rest of rules, and thus 
+	 * different rules can be compiled concurrently.
+	 * @param rules HashMap with all the grammar rules, used to solve the semantic tags of referenced rules
+	 */
+	void compile(HashMap<String, Rule> rules){
+		setRegularExpression();
+		cachedSemanticTags = getSemanticTags(rules);
+		compiled = true;
 	}
 
 	/**
@@ -0,0 +1,140 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.nlu.nlulib;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the semantic interpretations obtained with a handcrafted grammar. 
+ * 
+ * Users tend to repeat the same short answers (e.g. "yes"), and so the results of matching
+ * them with the grammar are stored, with the least recently used ones being discarded when the 
+ * cache is full. Both valid phrases (with their semantics) and invalid phrases are cached. 
+ * The keys are the phrases normalized as in the grammar matching (without whitespace and in lower case). 
+ * 
+ * All methods are synchronized so that the cache can be used from several threads.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+public class SemanticsCache {
+
+	//Value stored for phrases that are not valid according to the grammar, so that they can be distinguished from phrases not cached
+	static final String NO_MATCH = new String("NO_MATCH");
+	
+	private final int maxEntries;
+	private final LinkedHashMap<String, String> entries;
+	
+	private long hits = 0;
+	private long misses = 0;
+	
+	/**
+	 * Creates an empty cache
+	 * @param maxEntries Maximum number of phrases stored
+	 */
+	SemanticsCache(int maxEntries){
+		if(maxEntries<=0)
+			throw new IllegalArgumentException("The cache must admit at least one entry");
+		
+		this.maxEntries = maxEntries;
+		
+		//Access order, so that the eldest entry is the least recently used
+		entries = new LinkedHashMap<String, String>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest){
+				return size() > SemanticsCache.this.maxEntries;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the value cached for a phrase and accounts for the hit or miss: its semantics, 
+	 * <code>NO_MATCH</code> if it was not valid according to the grammar, or null if it is not cached
+	 */
+	synchronized String get(String normalizedPhrase){
+		String semantics = entries.get(normalizedPhrase);
+		if(semantics!=null)
+			hits++;
+		else
+			misses++;
+		return semantics;
+	}
+	
+	/**
+	 * Stores the semantics of a phrase, null if it was not valid according to the grammar
+	 */
+	synchronized void put(String normalizedPhrase, String semantics){
+		entries.put(normalizedPhrase, semantics==null ? NO_MATCH : semantics);
+	}
+	
+	/**
+	 * Removes all the phrases from the cache and resets the statistics
+	 */
+	public synchronized void clear(){
+		entries.clear();
+		hits = 0;
+		misses = 0;
+	}
+	
+	/**
+	 * Number of phrases currently stored
+	 */
+	public synchronized int size(){
+		return entries.size();
+	}
+	
+	public int getMaxEntries(){
+		return maxEntries;
+	}
+	
+	/**
+	 * Number of phrases that were found in the cache
+	 */
+	public synchronized long getHits(){
+		return hits;
+	}
+	
+	/**
+	 * Number of phrases that had to be matched with the grammar
+	 */
+	public synchronized long getMisses(){
+		return misses;
+	}
+	
+	/**
+	 * Proportion of phrases found in the cache (0 if it has not been used yet)
+	 */
+	public synchronized double getHitRate(){
+		long total = hits + misses;
+		return total==0 ? 0 : (double) hits / total;
+	}
+	
+	@Override
+	public synchronized String toString(){
+		return "SemanticsCache [size="+entries.size()+"/"+maxEntries+", hits="+hits+", misses="+misses+"]";
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.nlu.nlulib;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.util.Log;
+
+/**
+ * Union of several handcrafted grammars, each of them identified with a tag (e.g. the name of the
+ * form field that it is used for). It allows to find in a single phrase the fragments that are valid according to 
+ * any of the grammars, so that a user can provide several pieces of information at once (mixed initiative),
+ * e.g. "send an urgent message to my mother".
+ * 
+ * The regular expressions of all the grammars are combined into a single one, in which each grammar is enclosed
+ * in its own group so that the grammar that matched a fragment can be known from the group that matched.
+ * The phrase is traversed from left to right, and in each position the longest fragment (in whole words) valid for 
+ * any of the grammars is taken. The fragment is extended one word at a time only while the combined expression 
+ * can still match a longer text (<code>Matcher.hitEnd</code>), so each word is examined a bounded number of times 
+ * instead of trying every possible fragment.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+public class UnionGrammar {
+
+	private static final String LOGTAG = "UNIONGRAMMAR";
+	
+	private String[] tags;						//Tags of the grammars
+	private HandCraftedGrammar[] grammars;		//Grammars, in the same order as the tags
+	private int[] groups;						//Group of the combined expression that corresponds to each grammar
+	private Pattern pattern;					//Combined expression
+	
+	/**
+	 * Fragment of a phrase that is valid according to one of the grammars
+	 */
+	public static class Slot {
+		
+		private String tag;
+		private String text;
+		private String semantics;
+		
+		Slot(String tag, String text, String semantics){
+			this.tag = tag;
+			this.text = text;
+			this.semantics = semantics;
+		}
+		
+		/**
+		 * Tag of the grammar that matched the fragment
+		 */
+		public String getTag(){
+			return tag;
+		}
+		
+		/**
+		 * Words of the phrase that matched the grammar
+		 */
+		public String getText(){
+			return text;
+		}
+		
+		/**
+		 * Semantic interpretation of the fragment according to its grammar (see <code>HandCraftedGrammar.obtainSemantics</code>)
+		 */
+		public String getSemantics(){
+			return semantics;
+		}
+		
+		@Override
+		public String toString(){
+			return tag+"="+text;
+		}
+	}
+	
+	/**
+	 * Combines the grammars in a single expression
+	 * @param taggedGrammars Grammars indexed by their tags. If the same fragment is valid for several grammars,
+	 * 			it is assigned to the first one in the iteration order of the map (use a LinkedHashMap to control it)
+	 * @throws GrammarException If there are no grammars to combine
+	 */
+	public UnionGrammar(Map<String, HandCraftedGrammar> taggedGrammars) throws GrammarException{
+		if(taggedGrammars==null || taggedGrammars.isEmpty())
+			throw new GrammarException("Union error", "There are no grammars to combine");
+		
+		int size = taggedGrammars.size();
+		tags = new String[size];
+		grammars = new HandCraftedGrammar[size];
+		groups = new int[size];
+		
+		StringBuilder expression = new StringBuilder();
+		int group = 1;
+		int i = 0;
+		for(Map.Entry<String, HandCraftedGrammar> entry: taggedGrammars.entrySet()){
+			String regExpr = entry.getValue().getNormalizedRegularExpression();
+			
+			tags[i] = entry.getKey();
+			grammars[i] = entry.getValue();
+			groups[i] = group;
+			
+			if(i>0)
+				expression.append('|');
+			expression.append('(').append(regExpr).append(')');
+			
+			//Following groups are shifted by the group that encloses the grammar and the groups inside it
+			group += 1 + Pattern.compile(regExpr).matcher("").groupCount();
+			i++;
+		}
+		
+		pattern = Pattern.compile(expression.toString());
+		Log.i(LOGTAG, "Combined "+size+" grammars");
+	}
+	
+	/**
+	 * Finds the fragments of the phrase that are valid according to any of the grammars
+	 * @param phrase Phrase to be interpreted (usually it is the recognized phrase from the user's spoken input)
+	 * @return Fragments found, in the order in which they appear in the phrase (empty if there is none)
+	 * @throws GrammarException If the semantics of a fragment cannot be obtained
+	 */
+	public ArrayList<Slot> match(String phrase) throws GrammarException{
+		ArrayList<Slot> slots = new ArrayList<Slot>();
+		if(phrase==null)
+			return slots;
+		
+		String trimmed = phrase.trim();
+		if(trimmed.length()==0)
+			return slots;
+		
+		//The expression is matched against the phrase without whitespace, but fragments must start and end at word boundaries
+		String[] words = trimmed.split("\\s+");
+		int[] boundaries = new int[words.length+1];
+		StringBuilder normalized = new StringBuilder(trimmed.length());
+		for(int w=0; w<words.length; w++){
+			normalized.append(HandCraftedGrammar.normalize(words[w]));
+			boundaries[w+1] = normalized.length();
+		}
+		
+		Matcher m = pattern.matcher(normalized);
+		int start = 0;
+		while(start<words.length){
+			int end = -1;
+			int grammar = -1;
+			
+			//Longest fragment starting in the current word: it is extended while a longer text could still match
+			for(int next=start+1; next<=words.length; next++){
+				m.region(boundaries[start], boundaries[next]);
+				if(m.matches()){
+					end = next;
+					grammar = matchedGrammar(m);
+				}
+				else if(!m.hitEnd())
+					break;		//No fragment starting here can be longer
+			}
+			
+			if(grammar!=-1){
+				String text = join(words, start, end);
+				slots.add(new Slot(tags[grammar], text, grammars[grammar].obtainSemantics(text)));
+				start = end;
+			}
+			else
+				start++;
+		}
+		
+		return slots;
+	}
+	
+	/**
+	 * Obtains the grammar whose group participated in the last match
+	 */
+	private int matchedGrammar(Matcher m){
+		for(int i=0; i<groups.length; i++){
+			if(m.start(groups[i])!=-1)
+				return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Joins the words from <code>start</code> (included) to <code>end</code> (excluded) separated by spaces
+	 */
+	private static String join(String[] words, int start, int end){
+		StringBuilder text = new StringBuilder();
+		for(int i=start; i<end; i++){
+			if(i>start)
+				text.append(' ');
+			text.append(words[i]);
+		}
+		return text.toString();
+	}
+}
@@ -22,6 +22,7 @@
 
 package sandra.libs.tts;
 
+import java.util.HashMap;
 import java.util.Locale;
 import android.content.Context;
 import android.speech.tts.TextToSpeech;
@@ -35,10 +36,14 @@ import android.util.Log;
  * the singleton design pattern: it is only possible to create a single
  * object from this class
  * 
+ * The availability of each locale requested is checked once and remembered, and the language 
+ * of the engine is only changed when it is different from the current one, so that speaking 
+ * several prompts in the same language does not query the engine each time.
+ * 
  * @author Zoraida Callejas
  * @author Michael McTear
  *  
- * @version 2.2, 07/17/13
+ * @version 2.3, 10/19/26
  * 
  * @see http://gl.wikipedia.org/wiki/Singleton
  * @see http://developer.android.com/reference/android/speech/tts/TextToSpeech.html
@@ -50,6 +55,10 @@ public class TTS implements OnInitListener{
 	
 	private static final String LOGTAG = "TTS";
 	
+	private final HashMap<String, Locale> locales = new HashMap<String, Locale>();	//Locale for each language and country code requested, null if it is not available
+	private Locale currentLocale = null;	//Language of the engine, null if it has not been set
+	private boolean initialized = false;	//The availability of the languages is only remembered once the engine is initialized
+	
 	/**
 	 * Creates the single <code>TTS</code> instance and initializes the text to speech
 	 * engine. It is private so that it cannot be invoked from outside the
@@ -85,7 +94,7 @@ public class TTS implements OnInitListener{
 	 * @param countryCode a String representing the country code for the language used, e.g. US. 
 	 * @throws Exception when the codes supplied cannot be used and the default locale is selected
 	 */
-	public void setLocale(String languageCode, String countryCode) throws Exception{
+	public synchronized void setLocale(String languageCode, String countryCode) throws Exception{
 	    if(languageCode==null)
 	    {
 	    	setLocale();
@@ -95,9 +104,10 @@ public class TTS implements OnInitListener{
 	    	if(countryCode==null)
 	    		setLocale(languageCode);
 	    	else {
-	    		Locale lang = new Locale(languageCode, countryCode);
-		    	if (myTTS.isLanguageAvailable(lang) == TextToSpeech.LANG_COUNTRY_VAR_AVAILABLE )
-		    		myTTS.setLanguage(lang);
+	    		Locale lang = resolve(languageCode, countryCode);
+		    	if (lang!=null)
+		    		useLocale(lang);
+		    	else
 		    	{
 		    		setLocale();
 		    		throw new Exception("Language or country code not supported, using default locale");
@@ -113,16 +123,16 @@ public class TTS implements OnInitListener{
 	 * @param languageCode a String representing the language code, e.g. EN
 	 * @throws Exception when the code supplied cannot be used and the default locale is selected
 	 */
-	public void setLocale(String languageCode) throws Exception{
+	public synchronized void setLocale(String languageCode) throws Exception{
 		if(languageCode==null)
 		{
 			setLocale();
 			throw new Exception("Language code was not provided, using default locale");
 		}
 		else {
-			Locale lang = new Locale(languageCode);
-			if (myTTS.isLanguageAvailable(lang) != TextToSpeech.LANG_MISSING_DATA && myTTS.isLanguageAvailable(lang) != TextToSpeech.LANG_NOT_SUPPORTED)
-				myTTS.setLanguage(lang);
+			Locale lang = resolve(languageCode, null);
+			if (lang!=null)
+				useLocale(lang);
 			else
 			{
 				setLocale();
@@ -134,8 +144,46 @@ public class TTS implements OnInitListener{
 	/**
 	 * Sets the default language of the device as locale for speech synthesis
 	 */
-	public void setLocale(){
-		myTTS.setLanguage(Locale.getDefault());
+	public synchronized void setLocale(){
+		useLocale(Locale.getDefault());
+	}
+	
+	/**
+	 * Obtains the locale for a language and country, checking its availability in the engine only the first time 
+	 * @param countryCode country code, null to consider only the language
+	 * @return the locale, or null if the engine cannot synthesize it
+	 */
+	private Locale resolve(String languageCode, String countryCode){
+		String key = countryCode==null ? languageCode : languageCode+"_"+countryCode;
+		if(locales.containsKey(key))
+			return locales.get(key);
+		
+		Locale lang = countryCode==null ? new Locale(languageCode) : new Locale(languageCode, countryCode);
+		int availability = myTTS.isLanguageAvailable(lang);
+		boolean available = countryCode==null ? availability >= TextToSpeech.LANG_AVAILABLE : availability >= TextToSpeech.LANG_COUNTRY_AVAILABLE;
+		if(!available)
+			lang = null;
+		if(initialized)
+			locales.put(key, lang);
+		return lang;
+	}
+	
+	/**
+	 * Changes the language of the engine if it is not the current one
+	 */
+	private void useLocale(Locale lang){
+		if(lang.equals(currentLocale))
+			return;
+		int result = myTTS.setLanguage(lang);
+		currentLocale = result >= TextToSpeech.LANG_AVAILABLE ? lang : null;	//If it failed, it is set again next time
+	}
+	
+	/**
+	 * Forgets the availability of the languages, e.g. after installing the data of a new language in the engine
+	 */
+	public synchronized void clearLocaleCache(){
+		locales.clear();
+		currentLocale = null;
 	}
 	
 	/**
@@ -207,6 +255,10 @@ public class TTS implements OnInitListener{
 	@Override
 	public void onInit(int status) {
 		if(status != TextToSpeech.ERROR){
+			synchronized(this){
+				initialized = true;
+				currentLocale = null;	//The language set before the initialization may not have been applied
+			}
 			setLocale();
 	    }
 		else
@@ -216,4 +268,4 @@ public class TTS implements OnInitListener{
 		
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Element of an AIML template. Templates are parsed once when the AIML file is loaded and kept as a tree of 
+ * elements, whose children are either texts (<code>String</code>) or nested elements.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.1, 10/19/26
+ *
+ */
+class AIMLElement {
+	
+	final String name;
+	final ArrayList<Object> children = new ArrayList<Object>();
+	private HashMap<String, String> attributes = null;		//Created only for the elements that have attributes
+	
+	AIMLElement(String name){
+		this.name = name;
+	}
+	
+	void setAttribute(String attribute, String value){
+		if(attributes==null)
+			attributes = new HashMap<String, String>();
+		attributes.put(attribute, value);
+	}
+	
+	/**
+	 * Value of the attribute, or null if the element does not have it
+	 */
+	String getAttribute(String attribute){
+		return attributes==null ? null : attributes.get(attribute);
+	}
+	
+	/**
+	 * All the attributes of the element, used to write brain images
+	 */
+	Map<String, String> getAttributes(){
+		if(attributes==null)
+			return Collections.emptyMap();
+		return attributes;
+	}
+	
+	/**
+	 * Nested elements with the name indicated (e.g. the <code>li</code> of a <code>random</code>)
+	 */
+	ArrayList<AIMLElement> getChildren(String childName){
+		ArrayList<AIMLElement> result = new ArrayList<AIMLElement>();
+		for(Object child: children)
+			if(child instanceof AIMLElement && ((AIMLElement) child).name.equals(childName))
+				result.add((AIMLElement) child);
+		return result;
+	}
+}
@@ -0,0 +1,550 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Local AIML interpreter, so that a bot can answer without contacting Pandorabots. The categories are stored in 
+ * a <code>Graphmaster</code> trie, with support for wildcards, <code>&lt;that&gt;</code> and <code>&lt;topic&gt;</code>.
+ * 
+ * The templates support the elements used in the Sandra bots: <code>star</code>, <code>thatstar</code>, 
+ * <code>topicstar</code>, <code>srai</code>, <code>sr</code>, <code>random</code>, <code>condition</code>, 
+ * <code>get</code>, <code>set</code>, <code>think</code>, <code>bot</code>, <code>that</code> and the case 
+ * transformations. Any other element (e.g. <code>oob</code>) is copied to the response as markup, as Pandorabots does, 
+ * so that the <code>Bot</code> can process it.
+ * 
+ * The results of <code>srai</code> are memoized when they do not depend on predicates or random choices, so that 
+ * the chains of reductions that are common in AIML are only evaluated once.
+ * 
+ * Large sets of AIML can be compiled into a brain image with <code>writeImage</code> (see the AIMLCompiler tool), 
+ * which is memory-mapped with <code>loadImage</code>. The categories of the image are read when they are needed, 
+ * so the time to open a brain does not depend on its size.
+ * 
+ * Several conversations can be held with the same bot by creating sessions with <code>newSession</code>: the sessions 
+ * share the categories, properties and memoized <code>srai</code> results, and each of them has its own predicates 
+ * and last response. Any number of sessions can respond at the same time, while loading categories excludes them.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.6, 10/19/26
+ *
+ */
+public class AIMLEngine {
+	
+	private static final int MAX_SRAI_DEPTH = 32;		//Maximum number of nested srai, to stop loops in the AIML files
+	private static final int SRAI_CACHE_SIZE = 256;		//Maximum number of srai results memoized
+	
+	private final Brain brain;		//Shared by all the sessions of the bot
+	private final HashMap<String, String> predicates = new HashMap<String, String>();
+	private final Random random = new Random();
+	private String that = "";		//Last sentence of the previous response
+	
+	/**
+	 * Categories and properties of the bot, shared by its sessions
+	 */
+	private static class Brain {
+		Graphmaster graphmaster = new Graphmaster();
+		final HashMap<String, String> properties = new HashMap<String, String>();
+		final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();	//Written when categories or properties are loaded
+		
+		@SuppressWarnings("serial")
+		final Map<String, String> sraiCache = new LinkedHashMap<String, String>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest){
+				return size() > SRAI_CACHE_SIZE;
+			}
+		};
+		
+		void clearSraiCache(){
+			synchronized(sraiCache){
+				sraiCache.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Creates an interpreter without categories
+	 */
+	public AIMLEngine(){
+		this(new Brain());
+	}
+	
+	private AIMLEngine(Brain brain){
+		this.brain = brain;
+	}
+	
+	/**
+	 * Creates a session for another conversation with the same bot. It shares the categories and properties of 
+	 * this interpreter (including those loaded later in any of them), and starts without predicates.
+	 */
+	public AIMLEngine newSession(){
+		return new AIMLEngine(brain);
+	}
+	
+	/**
+	 * State of the evaluation of a template
+	 */
+	private static class Context {
+		final Graphmaster.Match match;
+		final String[] words;		//Words of the path in their original case
+		final int depth;
+		boolean dynamic = false;	//True if the result depends on predicates or random choices
+		
+		Context(Graphmaster.Match match, String[] words, int depth){
+			this.match = match;
+			this.words = words;
+			this.depth = depth;
+		}
+	}
+	
+	/**
+	 * Loads the categories of an AIML file. Categories with the same pattern, that and topic than others already loaded
+	 * replace them. The stream is not closed.
+	 * @throws XmlPullParserException if the file is not well formed
+	 * @throws IOException if the file cannot be read
+	 */
+	public void load(InputStream in) throws XmlPullParserException, IOException {
+		brain.lock.writeLock().lock();
+		try {
+			new AIMLParser(this).parse(in);
+			brain.clearSraiCache();
+		} finally {
+			brain.lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Loads all the AIML files contained in a zip file, such as the ones in which the AIML of the Sandra bots is distributed
+	 * @throws XmlPullParserException if one of the files is not well formed
+	 * @throws IOException if the zip file cannot be read
+	 */
+	public void loadZip(InputStream in) throws XmlPullParserException, IOException {
+		brain.lock.writeLock().lock();
+		try {
+			ZipInputStream zip = new ZipInputStream(in);
+			ZipEntry entry;
+			while((entry = zip.getNextEntry()) != null){
+				if(!entry.isDirectory() && entry.getName().toLowerCase(Locale.ENGLISH).endsWith(".aiml"))
+					load(zip);
+				zip.closeEntry();
+			}
+		} finally {
+			brain.lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Replaces the categories with those of a brain image. Further AIML files can be loaded on top of the image.
+	 * @param image buffer with the image, usually memory-mapped. It must not be modified while it is used
+	 * @throws IOException if the buffer does not contain a brain image
+	 */
+	public void loadImage(ByteBuffer image) throws IOException {
+		Graphmaster graphmaster = new Graphmaster(new AIMLImage(image));
+		brain.lock.writeLock().lock();
+		try {
+			brain.graphmaster = graphmaster;
+			brain.clearSraiCache();
+		} finally {
+			brain.lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Memory-maps a brain image file and replaces the categories with those of the image
+	 * @throws IOException if the file cannot be read or it is not a brain image
+	 */
+	public void loadImage(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			loadImage(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length()));
+		} finally {
+			in.close();	//The mapping is valid after closing the file
+		}
+	}
+	
+	/**
+	 * Writes the categories loaded from AIML files as a brain image
+	 * @throws IOException if the image cannot be written
+	 * @throws IllegalStateException if the categories were loaded from an image
+	 */
+	public void writeImage(OutputStream out) throws IOException {
+		brain.lock.readLock().lock();
+		try {
+			AIMLImageWriter.write(brain.graphmaster, out);
+		} finally {
+			brain.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Adds a category while a file is loaded (with the write lock of the brain)
+	 */
+	void addCategory(String pattern, String that, String topic, AIMLElement template){
+		brain.graphmaster.add(keys(split(pattern, true)), keys(split(that, true)), keys(split(topic, true)), template);
+	}
+	
+	/**
+	 * Number of categories loaded
+	 */
+	public int getCategoryCount(){
+		brain.lock.readLock().lock();
+		try {
+			return brain.graphmaster.size();
+		} finally {
+			brain.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Sets a property of the bot, which is used in the <code>bot</code> elements (e.g. name). 
+	 * Properties used in the patterns must be set before loading the files.
+	 */
+	public void setProperty(String name, String value){
+		brain.lock.writeLock().lock();
+		try {
+			brain.properties.put(name, value);
+			brain.clearSraiCache();
+		} finally {
+			brain.lock.writeLock().unlock();
+		}
+	}
+	
+	public String getProperty(String name){
+		brain.lock.readLock().lock();
+		try {
+			return property(name);
+		} finally {
+			brain.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Value of a property, when the lock of the brain is already held
+	 */
+	private String property(String name){
+		String value = brain.properties.get(name);
+		return value==null ? "" : value;
+	}
+	
+	/**
+	 * Sets a predicate of the conversation, which is used in the <code>get</code> and <code>condition</code> 
+	 * elements. The predicate <code>topic</code> is the topic used to match the categories.
+	 */
+	public synchronized void setPredicate(String name, String value){
+		predicates.put(name, value);
+	}
+	
+	public synchronized String getPredicate(String name){
+		String value = predicates.get(name);
+		return value==null ? "" : value;
+	}
+	
+	/**
+	 * Obtains the response of the bot to the user input
+	 * @param input text of the user, punctuation is ignored
+	 * @return the response, with the oob elements as markup, or null if no category matches the input 
+	 */
+	public synchronized String respond(String input){
+		String[] words = split(input, false);
+		if(words.length==0)
+			return null;
+		
+		brain.lock.readLock().lock();
+		try {
+			String[] path = path(words);
+			Graphmaster.Match match = brain.graphmaster.match(keys(path));
+			if(match==null)
+				return null;
+			
+			StringBuilder response = new StringBuilder();
+			render(match.template, new Context(match, path, 0), response);
+			String result = clean(response);
+			that = lastSentence(result);
+			return result;
+		} finally {
+			brain.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Sets the last sentence said by the bot, which is matched with the <code>&lt;that&gt;</code> of the categories. 
+	 * It is used when the last response did not come from this interpreter (e.g. from Pandorabots or a cache).
+	 */
+	synchronized void setThat(String that){
+		this.that = that==null ? "" : that;
+	}
+	
+	/**
+	 * Checks if a category matches the user input, without responding to it (so the predicates and the last 
+	 * response do not change)
+	 * @param input text of the user, punctuation is ignored
+	 */
+	public synchronized boolean matches(String input){
+		String[] words = split(input, false);
+		if(words.length==0)
+			return false;
+		
+		brain.lock.readLock().lock();
+		try {
+			return brain.graphmaster.match(keys(path(words)))!=null;
+		} finally {
+			brain.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Path in its original case with the words of the input, the last response and the current topic
+	 */
+	private String[] path(String[] words){
+		return Graphmaster.path(words, split(that, false), split(getPredicate("topic"), false));
+	}
+	
+	private void render(AIMLElement element, Context context, StringBuilder out){
+		for(Object child: element.children){
+			if(child instanceof String)
+				out.append((String) child);
+			else
+				renderElement((AIMLElement) child, context, out);
+		}
+	}
+	
+	private String renderToString(AIMLElement element, Context context){
+		StringBuilder out = new StringBuilder();
+		render(element, context, out);
+		return clean(out);
+	}
+	
+	private void renderElement(AIMLElement element, Context context, StringBuilder out){
+		String name = element.name;
+		
+		if(name.equals("star"))
+			out.append(context.match.getStar(context.words, null, index(element)));
+		else if(name.equals("thatstar"))
+			out.append(context.match.getStar(context.words, Graphmaster.THAT, index(element)));
+		else if(name.equals("topicstar"))
+			out.append(context.match.getStar(context.words, Graphmaster.TOPIC, index(element)));
+		else if(name.equals("srai"))
+			out.append(srai(renderToString(element, context), context));
+		else if(name.equals("sr"))
+			out.append(srai(context.match.getStar(context.words, null, 1), context));
+		else if(name.equals("random")){
+			context.dynamic = true;
+			ArrayList<AIMLElement> options = element.getChildren("li");
+			if(!options.isEmpty())
+				render(options.get(random.nextInt(options.size())), context, out);
+		}
+		else if(name.equals("condition")){
+			context.dynamic = true;
+			renderCondition(element, context, out);
+		}
+		else if(name.equals("get")){
+			context.dynamic = true;
+			out.append(getPredicate(element.getAttribute("name")));
+		}
+		else if(name.equals("set")){
+			context.dynamic = true;
+			String value = renderToString(element, context);
+			predicates.put(element.getAttribute("name"), value);
+			out.append(value);
+		}
+		else if(name.equals("think")){
+			context.dynamic = true;
+			renderToString(element, context);
+		}
+		else if(name.equals("that")){
+			context.dynamic = true;
+			out.append(that);
+		}
+		else if(name.equals("bot"))
+			out.append(property(element.getAttribute("name")));
+		else if(name.equals("uppercase"))
+			out.append(renderToString(element, context).toUpperCase(Locale.ENGLISH));
+		else if(name.equals("lowercase"))
+			out.append(renderToString(element, context).toLowerCase(Locale.ENGLISH));
+		else if(name.equals("formal") || name.equals("sentence"))
+			out.append(capitalize(renderToString(element, context), name.equals("formal")));
+		else if(name.equals("li"))
+			render(element, context, out);
+		else {
+			//Unknown elements are kept as markup with their attributes, e.g. <oob><search>...</search></oob>
+			out.append('<').append(name);
+			for(Map.Entry<String, String> attribute: element.getAttributes().entrySet())
+				out.append(' ').append(attribute.getKey()).append("=\"").append(attribute.getValue().replace("&", "&amp;").replace("\"", "&quot;")).append('"');
+			out.append('>');
+			render(element, context, out);
+			out.append("</").append(name).append('>');
+		}
+	}
+	
+	/**
+	 * Evaluates a condition in any of its forms: with name and value, with name and a list of values, or with a 
+	 * list of names and values. An item without value is the default one.
+	 */
+	private void renderCondition(AIMLElement element, Context context, StringBuilder out){
+		String name = element.getAttribute("name");
+		String value = element.getAttribute("value");
+		
+		if(name!=null && value!=null){
+			if(getPredicate(name).equalsIgnoreCase(value))
+				render(element, context, out);
+			return;
+		}
+		
+		for(AIMLElement item: element.getChildren("li")){
+			String itemName = name!=null ? name : item.getAttribute("name");
+			String itemValue = item.getAttribute("value");
+			if(itemValue==null || (itemName!=null && getPredicate(itemName).equalsIgnoreCase(itemValue))){
+				render(item, context, out);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Obtains the response to an input reduced by a srai. The result is memoized if it depends only on the 
+	 * input, the last response and the topic.
+	 */
+	private String srai(String input, Context context){
+		if(context.depth >= MAX_SRAI_DEPTH)
+			return "";
+		
+		String[] words = split(input, false);
+		if(words.length==0)
+			return "";
+		
+		String[] path = path(words);
+		String key = join(path);
+		String result;
+		synchronized(brain.sraiCache){
+			result = brain.sraiCache.get(key);
+		}
+		if(result!=null)
+			return result;
+		
+		Graphmaster.Match match = brain.graphmaster.match(keys(path));
+		if(match==null)
+			return "";
+		
+		Context reduction = new Context(match, path, context.depth+1);
+		result = renderToString(match.template, reduction);
+		if(reduction.dynamic)
+			context.dynamic = true;
+		else {
+			synchronized(brain.sraiCache){
+				brain.sraiCache.put(key, result);
+			}
+		}
+		return result;
+	}
+	
+	private static int index(AIMLElement element){
+		String index = element.getAttribute("index");
+		if(index==null)
+			return 1;
+		try {
+			return Integer.parseInt(index.split(",")[0].trim());
+		} catch (NumberFormatException e) {
+			return 1;
+		}
+	}
+	
+	/**
+	 * Splits a text into words, removing the punctuation. Apostrophes are removed so that "what's" and "whats" are the same word.
+	 * @param wildcards true to keep the <code>*</code> and <code>_</code> wildcards of the patterns
+	 */
+	static String[] split(String text, boolean wildcards){
+		if(text==null)
+			return new String[0];
+		
+		StringBuilder clean = new StringBuilder(text.length());
+		for(int i=0; i<text.length(); i++){
+			char c = text.charAt(i);
+			if(Character.isLetterOrDigit(c) || (wildcards && (c=='*' || c=='_')))
+				clean.append(c);
+			else if(c!='\'')
+				clean.append(' ');
+		}
+		
+		String trimmed = clean.toString().trim();
+		return trimmed.length()==0 ? new String[0] : trimmed.split("\\s+");
+	}
+	
+	private static String[] keys(String[] words){
+		String[] keys = new String[words.length];
+		for(int i=0; i<words.length; i++)
+			keys[i] = words[i].equals(Graphmaster.THAT) || words[i].equals(Graphmaster.TOPIC) ? words[i] : words[i].toUpperCase(Locale.ENGLISH);
+		return keys;
+	}
+	
+	private static String join(String[] words){
+		StringBuilder joined = new StringBuilder();
+		for(String word: words)
+			joined.append(word).append(' ');
+		return joined.toString();
+	}
+	
+	private static String clean(CharSequence text){
+		return text.toString().replaceAll("\\s+", " ").trim();
+	}
+	
+	/**
+	 * Last sentence of a response without markup, which is the <code>that</code> for the next input
+	 */
+	static String lastSentence(String response){
+		String text = response.replaceAll("<oob>.*?</oob>", " ").replaceAll("<[^>]*>", " ");
+		String[] sentences = text.split("[.?!]");
+		for(int i=sentences.length-1; i>=0; i--)
+			if(sentences[i].trim().length()>0)
+				return sentences[i].trim();
+		return "";
+	}
+	
+	private static String capitalize(String text, boolean everyWord){
+		StringBuilder result = new StringBuilder(text.length());
+		boolean start = true;
+		for(int i=0; i<text.length(); i++){
+			char c = text.charAt(i);
+			result.append(start ? Character.toUpperCase(c) : (everyWord ? Character.toLowerCase(c) : c));
+			start = everyWord ? Character.isWhitespace(c) : start && Character.isWhitespace(c);
+		}
+		return result.toString();
+	}
+}
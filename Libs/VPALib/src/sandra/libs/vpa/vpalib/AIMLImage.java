@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Read-only view of a brain image written by <code>AIMLImageWriter</code>, usually a memory-mapped file. 
+ * Nothing is read when the image is opened apart from the header, the nodes, words and templates are read 
+ * from the buffer when they are needed.
+ * 
+ * Format (big endian integers, offsets from the start of the image):
+ * 
+ * 		header		magic "AIML", version, number of words, offset of the root node, number of categories
+ * 		words		index with the offset of each word, then each word as its length and UTF-8 bytes. The words 
+ * 					are sorted, so the id of a word is its position and they can be found with a binary search.
+ * 					They include the words of the patterns and all the texts and names of the templates.
+ * 		nodes		offset of the template, of the _ child and of the * child (-1 if none), number of children 
+ * 					and for each child the id of its word and its offset, sorted by id
+ * 		templates	elements as the id of the name, number of attributes, ids of the name and value of 
+ * 					each attribute, number of children and the children, which are 0 and the id of a text 
+ * 					or 1 and an element
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ *
+ */
+class AIMLImage {
+	
+	static final int MAGIC = 0x41494D4C;	//"AIML"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 20;
+	
+	private final ByteBuffer buffer;
+	private final int wordCount;
+	private final int root;
+	private final int categoryCount;
+	
+	/**
+	 * @throws IOException if the buffer does not contain a brain image of this version
+	 */
+	AIMLImage(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		if(this.buffer.capacity()<HEADER_SIZE || this.buffer.getInt(0)!=MAGIC)
+			throw new IOException("Not an AIML brain image");
+		if(this.buffer.getInt(4)!=VERSION)
+			throw new IOException("Unsupported version of AIML brain image: "+this.buffer.getInt(4));
+		wordCount = this.buffer.getInt(8);
+		root = this.buffer.getInt(12);
+		categoryCount = this.buffer.getInt(16);
+	}
+	
+	int getRoot(){
+		return root;
+	}
+	
+	int getCategoryCount(){
+		return categoryCount;
+	}
+	
+	int getWordCount(){
+		return wordCount;
+	}
+	
+	String getWord(int id){
+		int position = buffer.getInt(HEADER_SIZE + 4*id);
+		byte[] bytes = new byte[buffer.getInt(position)];
+		for(int i=0; i<bytes.length; i++)
+			bytes[i] = buffer.get(position+4+i);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);	//UTF-8 is always supported
+		}
+	}
+	
+	/**
+	 * Id of a word, or -1 if it is not in the image
+	 */
+	int getWordId(String word){
+		int low = 0;
+		int high = wordCount-1;
+		while(low<=high){
+			int middle = (low+high) >>> 1;
+			int comparison = getWord(middle).compareTo(word);
+			if(comparison<0)
+				low = middle+1;
+			else if(comparison>0)
+				high = middle-1;
+			else
+				return middle;
+		}
+		return -1;
+	}
+	
+	int getTemplate(int node){
+		return buffer.getInt(node);
+	}
+	
+	int getUnderscore(int node){
+		return buffer.getInt(node+4);
+	}
+	
+	int getStar(int node){
+		return buffer.getInt(node+8);
+	}
+	
+	/**
+	 * Offset of the child of a node for a word, or -1 if the node does not have it
+	 */
+	int getChild(int node, int wordId){
+		int low = 0;
+		int high = buffer.getInt(node+12)-1;
+		while(low<=high){
+			int middle = (low+high) >>> 1;
+			int id = buffer.getInt(node+16+8*middle);
+			if(id<wordId)
+				low = middle+1;
+			else if(id>wordId)
+				high = middle-1;
+			else
+				return buffer.getInt(node+20+8*middle);
+		}
+		return -1;
+	}
+	
+	AIMLElement readTemplate(int offset){
+		int[] position = {offset};
+		return readElement(position);
+	}
+	
+	private AIMLElement readElement(int[] position){
+		AIMLElement element = new AIMLElement(getWord(readInt(position)));
+		int attributes = buffer.get(position[0]++);
+		for(int i=0; i<attributes; i++)
+			element.setAttribute(getWord(readInt(position)), getWord(readInt(position)));
+		
+		int children = readInt(position);
+		for(int i=0; i<children; i++){
+			if(buffer.get(position[0]++)==0)
+				element.children.add(getWord(readInt(position)));
+			else
+				element.children.add(readElement(position));
+		}
+		return element;
+	}
+	
+	private int readInt(int[] position){
+		int value = buffer.getInt(position[0]);
+		position[0] += 4;
+		return value;
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Writes the categories of a <code>Graphmaster</code> as a brain image, which can be memory-mapped and read 
+ * with <code>AIMLImage</code> (see the format there). The words are interned, so each word is stored once 
+ * however many patterns and templates contain it. The nodes are written after their children, so that each 
+ * node can refer to the offsets of its children.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ *
+ */
+class AIMLImageWriter {
+	
+	private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+	private DataOutputStream nodes;
+	private int nodesStart;
+	
+	/**
+	 * Writes the image of a trie built from AIML files
+	 * @throws IllegalStateException if the trie was opened on an image
+	 */
+	static void write(Graphmaster graphmaster, OutputStream out) throws IOException {
+		if(graphmaster.isMapped())
+			throw new IllegalStateException("The brain was loaded from an image, it must be loaded from AIML files to write it");
+		new AIMLImageWriter().writeImage(graphmaster, out);
+	}
+	
+	private void writeImage(Graphmaster graphmaster, OutputStream out) throws IOException {
+		//Words, sorted so that they can be found with a binary search
+		TreeSet<String> words = new TreeSet<String>();
+		collectWords(graphmaster.getRoot(), words);
+		
+		ByteArrayOutputStream wordBytes = new ByteArrayOutputStream();
+		DataOutputStream wordData = new DataOutputStream(wordBytes);
+		int[] wordOffsets = new int[words.size()];
+		int wordsStart = AIMLImage.HEADER_SIZE + 4*words.size();
+		int id = 0;
+		for(String word: words){
+			byte[] bytes = word.getBytes("UTF-8");
+			wordOffsets[id] = wordsStart + wordData.size();
+			wordData.writeInt(bytes.length);
+			wordData.write(bytes);
+			ids.put(word, id++);
+		}
+		
+		//Nodes and templates
+		ByteArrayOutputStream nodeBytes = new ByteArrayOutputStream();
+		nodes = new DataOutputStream(nodeBytes);
+		nodesStart = wordsStart + wordData.size();
+		int root = writeNode(graphmaster.getRoot());
+		
+		DataOutputStream image = new DataOutputStream(out);
+		image.writeInt(AIMLImage.MAGIC);
+		image.writeInt(AIMLImage.VERSION);
+		image.writeInt(words.size());
+		image.writeInt(root);
+		image.writeInt(graphmaster.size());
+		for(int offset: wordOffsets)
+			image.writeInt(offset);
+		wordBytes.writeTo(image);
+		nodeBytes.writeTo(image);
+		image.flush();
+	}
+	
+	private void collectWords(Graphmaster.Node node, TreeSet<String> words){
+		if(node.template!=null)
+			collectWords(node.template, words);
+		if(node.underscore!=null)
+			collectWords(node.underscore, words);
+		if(node.star!=null)
+			collectWords(node.star, words);
+		if(node.children!=null){
+			for(Map.Entry<String, Graphmaster.Node> child: node.children.entrySet()){
+				words.add(child.getKey());
+				collectWords(child.getValue(), words);
+			}
+		}
+	}
+	
+	private void collectWords(AIMLElement element, TreeSet<String> words){
+		words.add(element.name);
+		for(Map.Entry<String, String> attribute: element.getAttributes().entrySet()){
+			words.add(attribute.getKey());
+			words.add(attribute.getValue());
+		}
+		for(Object child: element.children){
+			if(child instanceof String)
+				words.add((String) child);
+			else
+				collectWords((AIMLElement) child, words);
+		}
+	}
+	
+	/**
+	 * Writes the children of a node, its template and then the node
+	 * @return offset of the node in the image
+	 */
+	private int writeNode(Graphmaster.Node node) throws IOException {
+		int underscore = node.underscore==null ? -1 : writeNode(node.underscore);
+		int star = node.star==null ? -1 : writeNode(node.star);
+		
+		TreeMap<Integer, Integer> children = new TreeMap<Integer, Integer>();
+		if(node.children!=null)
+			for(Map.Entry<String, Graphmaster.Node> child: node.children.entrySet())
+				children.put(ids.get(child.getKey()), writeNode(child.getValue()));
+		
+		int template = -1;
+		if(node.template!=null){
+			template = offset();
+			writeElement(node.template);
+		}
+		
+		int offset = offset();
+		nodes.writeInt(template);
+		nodes.writeInt(underscore);
+		nodes.writeInt(star);
+		nodes.writeInt(children.size());
+		for(Map.Entry<Integer, Integer> child: children.entrySet()){
+			nodes.writeInt(child.getKey());
+			nodes.writeInt(child.getValue());
+		}
+		return offset;
+	}
+	
+	private void writeElement(AIMLElement element) throws IOException {
+		nodes.writeInt(ids.get(element.name));
+		Map<String, String> attributes = element.getAttributes();
+		nodes.writeByte(attributes.size());
+		for(Map.Entry<String, String> attribute: attributes.entrySet()){
+			nodes.writeInt(ids.get(attribute.getKey()));
+			nodes.writeInt(ids.get(attribute.getValue()));
+		}
+		
+		nodes.writeInt(element.children.size());
+		for(Object child: element.children){
+			if(child instanceof String){
+				nodes.writeByte(0);
+				nodes.writeInt(ids.get((String) child));
+			}
+			else {
+				nodes.writeByte(1);
+				writeElement((AIMLElement) child);
+			}
+		}
+	}
+	
+	private int offset(){
+		return nodesStart + nodes.size();
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+/**
+ * Reads the categories of an AIML file with a pull parser and adds them to the engine. The patterns and thats 
+ * are read as plain text, while the templates are kept as trees of <code>AIMLElement</code>.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ *
+ */
+class AIMLParser {
+	
+	private static XmlPullParserFactory factory = null;
+	
+	private final AIMLEngine engine;
+	
+	AIMLParser(AIMLEngine engine){
+		this.engine = engine;
+	}
+	
+	private static synchronized XmlPullParser newParser() throws XmlPullParserException{
+		if(factory==null)
+			factory = XmlPullParserFactory.newInstance();
+		return factory.newPullParser();
+	}
+	
+	/**
+	 * Parses an AIML file. The stream is not closed, so that it can be an entry of a zip file
+	 */
+	void parse(InputStream in) throws XmlPullParserException, IOException {
+		XmlPullParser parser = newParser();
+		parser.setInput(in, null);
+		
+		String topic = null;
+		int event = parser.getEventType();
+		while(event != XmlPullParser.END_DOCUMENT){
+			if(event == XmlPullParser.START_TAG){
+				if(parser.getName().equals("topic"))
+					topic = parser.getAttributeValue(null, "name");
+				else if(parser.getName().equals("category"))
+					parseCategory(parser, topic);
+			}
+			else if(event == XmlPullParser.END_TAG && parser.getName().equals("topic"))
+				topic = null;
+			event = parser.next();
+		}
+	}
+	
+	private void parseCategory(XmlPullParser parser, String topic) throws XmlPullParserException, IOException {
+		String pattern = null;
+		String that = null;
+		AIMLElement template = null;
+		
+		int event = parser.next();
+		while(!(event == XmlPullParser.END_TAG && parser.getName().equals("category"))){
+			if(event == XmlPullParser.START_TAG){
+				String name = parser.getName();
+				if(name.equals("pattern"))
+					pattern = readText(parser);
+				else if(name.equals("that"))
+					that = readText(parser);
+				else if(name.equals("topic"))
+					topic = readText(parser);
+				else if(name.equals("template"))
+					template = readElement(parser);
+				else
+					readElement(parser);
+			}
+			else if(event == XmlPullParser.END_DOCUMENT)
+				throw new XmlPullParserException("Unexpected end of file in category", parser, null);
+			event = parser.next();
+		}
+		
+		if(pattern!=null && template!=null)
+			engine.addCategory(pattern, that, topic, template);
+	}
+	
+	/**
+	 * Text of a pattern, that or topic. The <code>bot</code> elements are replaced by the value of the property
+	 */
+	private String readText(XmlPullParser parser) throws XmlPullParserException, IOException {
+		StringBuilder text = new StringBuilder();
+		String element = parser.getName();
+		int event = parser.next();
+		while(!(event == XmlPullParser.END_TAG && parser.getName().equals(element))){
+			if(event == XmlPullParser.TEXT)
+				text.append(parser.getText());
+			else if(event == XmlPullParser.START_TAG && parser.getName().equals("bot"))
+				text.append(' ').append(engine.getProperty(parser.getAttributeValue(null, "name"))).append(' ');
+			else if(event == XmlPullParser.END_DOCUMENT)
+				throw new XmlPullParserException("Unexpected end of file in "+element, parser, null);
+			event = parser.next();
+		}
+		return text.toString();
+	}
+	
+	private AIMLElement readElement(XmlPullParser parser) throws XmlPullParserException, IOException {
+		AIMLElement element = new AIMLElement(parser.getName());
+		for(int i=0; i<parser.getAttributeCount(); i++)
+			element.setAttribute(parser.getAttributeName(i), parser.getAttributeValue(i));
+		
+		int event = parser.next();
+		while(event != XmlPullParser.END_TAG){
+			if(event == XmlPullParser.TEXT)
+				element.children.add(parser.getText());
+			else if(event == XmlPullParser.START_TAG)
+				element.children.add(readElement(parser));
+			else if(event == XmlPullParser.END_DOCUMENT)
+				throw new XmlPullParserException("Unexpected end of file in "+element.name, parser, null);
+			event = parser.next();
+		}
+		return element;
+	}
+}
@@ -22,51 +22,77 @@
 
 package sandra.libs.vpa.vpalib;
 
-import java.io.StringReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathFactory;
-
-import org.w3c.dom.Document;
-import org.xml.sax.InputSource;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 import sandra.libs.tts.TTS;
-import sandra.libs.util.xmllib.RetrieveXMLTask;
-import sandra.libs.util.xmllib.XMLAsyncResponse;
+import sandra.libs.util.xmllib.XMLClient;
+import sandra.libs.util.xmllib.XMLRequest;
+import sandra.libs.util.xmllib.XMLStreamHandler;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Intent;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
 import android.content.pm.PackageManager;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.util.Log;
 
 /**
 * Chatbot/VPA that uses the technology of Pandorabots to understand the user queries and provide information
-* in a specialized or general topic
+* in a specialized or general topic. When the AIML of the bot is loaded locally (from AIML files or a compiled brain image), 
+* the queries are answered on the device and Pandorabots is only used for the queries that do not match any category.
+* 
+* The queries to Pandorabots can be sent speculatively with the stable partial results of the recognizer 
+* (<code>speculateQuery</code>): if the final result is the same, its response is used instead of sending the 
+* query again, so the user does not wait for the round trip after the end of speech.
+* 
+* The commands in the oob of the output are carried out by the handlers registered in its <code>OOBDispatcher</code>. 
+* The bot registers the handlers of <code>&lt;search&gt;</code>, <code>&lt;url&gt;</code>, <code>&lt;launch&gt;</code> 
+* and <code>&lt;phone&gt;</code>, and the apps can register others.
+* 
+* The state of the conversation (the last sentence of the bot, the topic and the last search) is kept in a 
+* <code>BotSession</code>. To hold many conversations with the same bot without the user interface (e.g. in 
+* a server), use <code>BotSessionManager</code>.
 *
 * @author Michael McTear
 * @author Zoraida Callejas
-* @version 2.0, 09/10/13
+* @version 2.11, 10/19/26
 *
 */
 
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
-public class Bot implements XMLAsyncResponse{
+public class Bot {
 	
 	private static final String LOGTAG = "BOTSPEECH";
 	
+	//Services used by the bot
+	static final String PANDORABOTS_URL = "http://www.pandorabots.com/pandora/talk-xml";
+	private static final long KNOWLEDGE_DEADLINE = 3000;	//Time that each knowledge source has to answer a search, in milliseconds
+	
 	String id = "a80ce25abe344199";	//Id of the agent in Pandorabots
-	String specializedTopic=null;	//Whether the bot can hold a generic or specialized conversation
-	String queryText=null;			//Query to be performed
 	Exception exception=null;		//If there is an exception when obtaining the results from Pandorabots, it is saved here. 
 										//This way it is the class that uses the bot who has the responsibility to manage the exception (e.g. show a message to the user)
 	
+	final BotSession session;		//State of the conversation, and its local AIML interpreter
+	BotCache cache=null;			//Cache of the answers from Pandorabots and DBpedia, if it is null they are not cached
+	KnowledgeRace knowledge = defaultKnowledge();	//Sources queried in parallel for the searches
+	KnowledgeRace.Race search=null;	//Search in progress
+	ResponseHandler speculation=null;	//Query sent to Pandorabots with a partial recognition result
+	OOBDispatcher oob = defaultOOB();	//Handlers of the commands in the oob of the output
+	
 	Class<Activity> viewerActivity;
 	Activity ctx;
 	TTS myTts;
@@ -82,7 +108,7 @@ public class Bot implements XMLAsyncResponse{
 		this.ctx=ctx;
 		this.id=id;
 		this.myTts=myTts;
-		this.specializedTopic = specializedTopic;
+		this.session = new BotSession(id, null, specializedTopic);
 	}
 	
 	/**
@@ -92,21 +118,254 @@ public class Bot implements XMLAsyncResponse{
 	 * @param myTts	TTS engine already initialized
 	 */
 	public Bot(Activity ctx, String id, TTS myTts){
-		this.ctx=ctx;
-		this.id=id;
-		this.myTts=myTts;
+		this(ctx, id, myTts, null);
+	}
+	
+	/**
+	 * Opens the connections to Pandorabots and DBpedia in the background, so that the next query does not wait
+	 * for the DNS lookup and the connection setup. It can be invoked when the app starts and every time the 
+	 * recognizer is ready for speech, hosts with an open connection are skipped.
+	 */
+	public void preconnect(){
+		XMLClient.getInstance().preconnect(PANDORABOTS_URL, DBpediaSource.DBPEDIA_URL, DuckDuckGoSource.DUCKDUCKGO_URL);
+	}
+	
+	/**
+	 * Sources used by default for the searches: DBpedia and the instant answers of DuckDuckGo
+	 */
+	private static KnowledgeRace defaultKnowledge(){
+		KnowledgeRace race = new KnowledgeRace();
+		race.addSource(new DBpediaSource(), KNOWLEDGE_DEADLINE);
+		race.addSource(new DuckDuckGoSource(), KNOWLEDGE_DEADLINE);
+		return race;
+	}
+	
+	/**
+	 * Handlers of the commands that the bot carries out by default, all of them in the main thread as they start activities
+	 */
+	private OOBDispatcher defaultOOB(){
+		OOBDispatcher dispatcher = new OOBDispatcher();
+		
+		// perform a web search, or launch a web site named in input
+		dispatcher.register("url", new OOBHandler() {
+			@Override
+			public void handle(OOBCommand command) {
+				OOBCommand search = command.getChild("search");
+				if(search!=null)
+					search(search.getText());
+				else
+					launchUrl(command.getText());
+			}
+		}, true);
+		dispatcher.register("search", new OOBHandler() {
+			@Override
+			public void handle(OOBCommand command) {
+				search(command.getText());
+			}
+		}, true);
+		
+		// request to launch an app
+		dispatcher.register("launch", new OOBHandler() {
+			@Override
+			public void handle(OOBCommand command) throws Exception {
+				launchApp(command.getText());
+			}
+		}, true);
+		
+		// request to launch phone
+		dispatcher.register("phone", new OOBHandler() {
+			@Override
+			public void handle(OOBCommand command) {
+				Intent intent = new Intent(Intent.ACTION_DIAL);
+				ctx.startActivity(intent);
+			}
+		}, true);
+		
+		return dispatcher;
+	}
+	
+	/**
+	 * Dispatcher of the commands in the oob of the output, where the apps can register the handlers of new commands
+	 */
+	public OOBDispatcher getOOBDispatcher(){
+		return oob;
+	}
+	
+	/**
+	 * Sets the knowledge sources that are queried in parallel when the bot has to search for something (a 
+	 * <code>&lt;search&gt;</code> in the oob of its output). If none of them answers, the search is carried out in Google.
+	 */
+	public void setKnowledge(KnowledgeRace knowledge){
+		this.knowledge = knowledge;
+	}
+	
+	public KnowledgeRace getKnowledge(){
+		return knowledge;
+	}
+	
+	/**
+	 * Loads the AIML files of the bot from the assets of the app, so that the queries can be answered locally.
+	 * Zip files are read as archives of AIML files, and folders are read with all the files they contain.
+	 * @param assetPaths paths of the files or folders in the assets (e.g. "aiml")
+	 * @throws IOException if a file cannot be read
+	 * @throws XmlPullParserException if a file is not well formed AIML
+	 */
+	public void loadAIML(String... assetPaths) throws IOException, XmlPullParserException{
+		AssetManager assets = ctx.getAssets();
+		AIMLEngine engine = session.engine!=null ? session.engine : new AIMLEngine();
+		
+		for(String path: assetPaths){
+			String[] files = assets.list(path);
+			if(files!=null && files.length>0){
+				for(String file: files)
+					loadAIMLAsset(assets, engine, path+"/"+file);
+			}
+			else
+				loadAIMLAsset(assets, engine, path);
+		}
+		
+		Log.i(LOGTAG, engine.getCategoryCount()+" AIML categories loaded");
+		session.setEngine(engine);
+	}
+	
+	private void loadAIMLAsset(AssetManager assets, AIMLEngine engine, String path) throws IOException, XmlPullParserException{
+		InputStream in = assets.open(path);
+		try {
+			if(path.endsWith(".zip"))
+				engine.loadZip(in);
+			else
+				engine.load(in);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Loads the brain of the bot from a brain image in the assets of the app, compiled from its AIML with the 
+	 * AIMLCompiler tool. The image is memory-mapped and its categories are read when they are needed, so 
+	 * it is faster than <code>loadAIML</code> and its time does not depend on the size of the brain.
+	 * @param assetPath path of the image in the assets (e.g. "derek.brain")
+	 * @throws IOException if the image cannot be read
+	 */
+	public void loadBrain(String assetPath) throws IOException{
+		AIMLEngine engine = new AIMLEngine();
+		engine.loadImage(mapAsset(assetPath));
+		
+		Log.i(LOGTAG, engine.getCategoryCount()+" AIML categories in the brain "+assetPath);
+		session.setEngine(engine);
+	}
+	
+	/**
+	 * Loads an index of entities from the assets of the app, built with the KnowledgeIndexer tool (e.g. from 
+	 * the abstracts of DBpedia), and adds it as the first knowledge source of the bot. As the index answers in a 
+	 * few milliseconds, the searches about the entities it contains are answered offline.
+	 * @param assetPath path of the index in the assets (e.g. "diabetes.index")
+	 * @throws IOException if the index cannot be read
+	 */
+	public void loadKnowledgeIndex(String assetPath) throws IOException{
+		LocalKnowledgeSource index = new LocalKnowledgeSource(assetPath, mapAsset(assetPath));
+		
+		knowledge.addSource(0, index, KNOWLEDGE_DEADLINE);
+		
+		Log.i(LOGTAG, index.getDocumentCount()+" entities in the knowledge index "+assetPath);
+	}
+	
+	/**
+	 * Maps a file of the assets into memory
+	 */
+	private ByteBuffer mapAsset(String assetPath) throws IOException{
+		AssetManager assets = ctx.getAssets();
+		FileInputStream in;
+		long start, length;
+		
+		try {
+			//Assets stored without compression are mapped directly from the apk 
+			AssetFileDescriptor descriptor = assets.openFd(assetPath);
+			in = descriptor.createInputStream();
+			start = descriptor.getStartOffset();
+			length = descriptor.getLength();
+		} catch (FileNotFoundException e) {
+			//Compressed assets cannot be mapped, they are copied to the files of the app when it is installed or updated
+			File copy = copyAsset(assets, assetPath);
+			in = new FileInputStream(copy);
+			start = 0;
+			length = copy.length();
+		}
+		
+		try {
+			return in.getChannel().map(FileChannel.MapMode.READ_ONLY, start, length);
+		} finally {
+			in.close();
+		}
+	}
+	
+	private File copyAsset(AssetManager assets, String assetPath) throws IOException{
+		File copy = new File(ctx.getFilesDir(), assetPath.replace('/', '_'));
+		File apk = new File(ctx.getApplicationInfo().sourceDir);
+		if(copy.exists() && copy.lastModified() >= apk.lastModified())
+			return copy;
+		
+		File partial = new File(copy.getPath()+".tmp");	//Renamed when it is complete
+		InputStream in = assets.open(assetPath);
+		try {
+			OutputStream out = new FileOutputStream(partial);
+			try {
+				byte[] buffer = new byte[8192];
+				int read;
+				while((read = in.read(buffer)) != -1)
+					out.write(buffer, 0, read);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		if(!partial.renameTo(copy))
+			throw new IOException("The asset could not be copied to "+copy);
+		return copy;
+	}
+	
+	/**
+	 * Sets the local AIML interpreter used to answer the queries, null to send all the queries to Pandorabots
+	 */
+	public void setBrain(AIMLEngine brain){
+		session.setEngine(brain);
+	}
+	
+	public AIMLEngine getBrain(){
+		return session.engine;
+	}
+	
+	/**
+	 * State of the conversation with the bot
+	 */
+	public BotSession getSession(){
+		return session;
+	}
+	
+	/**
+	 * Sets the cache of the answers from Pandorabots and DBpedia, null to always query the services. 
+	 * The same cache can be shared by several bots, as the answers are keyed by the id of the bot.
+	 */
+	public void setCache(BotCache cache){
+		this.cache = cache;
+	}
+	
+	public BotCache getCache(){
+		return cache;
 	}
 	
 	/**
-	 * Sends a text corresponding to the user input to the bot on the Pandorabots site. 
+	 * Sends a text corresponding to the user input to the bot. If the local AIML interpreter has a category that 
+	 * matches the input it answers directly, otherwise the query is sent to the bot on the Pandorabots site. 
 	 * @param query user input
 	 */
 	public void initiateQuery(String query){
 		
-		RetrieveXMLTask retrieveXML = new RetrieveXMLTask();	//AsyncTask to retrieve the contents of the XML file fro mthe URL
-		retrieveXML.delegate = this;	//It is crucial in order to retrieve the data from the asyncrhonous task (see the AsyncResponse and RetrieveXMLTask classes)
-
 		String fullQuery;
+		ResponseHandler handler;
+		ResponseHandler speculative = speculation;
+		speculation = null;
 		
 		//Check if it is a DBPedia query
 		if(query.contains("dbpedia")) {
@@ -114,77 +373,251 @@ public class Bot implements XMLAsyncResponse{
 			query = query.replaceAll(" ", "%20");
 			fullQuery = query;
 			Log.i(LOGTAG, "Query to DBPedia: "+fullQuery);
+			handler = new ResponseHandler(BotCache.Source.KNOWLEDGE, session.lastSearch, null, false);
 		}
-		// It not, it is a general query to Pandorabots
+		// It not, it is a general query to the bot
 		else {
+			// Use the response to the speculative query if it was sent with the same input and context
+			// (it is only sent when the query cannot be answered locally or from the cache)
+			String input = query.replaceAll("%20", " ");
+			if(speculative!=null){
+				if(speculative.isSpeculationFor(input, session.that) && speculative.confirm()){
+					Log.i(LOGTAG, "Query answered by the speculative query");
+					return;
+				}
+				speculative.discard();
+				speculative = null;
+			}
+			
+			// Answer locally if a category matches the query
+			if(session.engine!=null){
+				String response = session.engine.respond(input);
+				if(response!=null){
+					Log.i(LOGTAG, "Query answered by the local AIML interpreter");
+					try {
+						processOutput(response);
+					} catch(Exception e){
+						exception = e;
+					}
+					return;
+				}
+			}
+			
+			// Answer from the cache if the same question was asked in the same context
+			if(cache!=null){
+				String output = cache.get(BotCache.Source.PANDORABOTS, id, input, session.that, session.topic);
+				if(output!=null){
+					Log.i(LOGTAG, "Query answered from the cache");
+					try {
+						processOutput(output);
+					} catch(Exception e){
+						exception = e;
+					}
+					return;
+				}
+			}
+			
 			// insert %20 for spaces in query
 			query = query.replaceAll(" ", "%20");
 			
 			//Uses AIML files from A.L.I.C.E
-			fullQuery = "http://www.pandorabots.com/pandora/talk-xml?input="+ query + "&botid=" + id;
+			fullQuery = PANDORABOTS_URL + "?input="+ query + "&botid=" + id;
+			handler = new ResponseHandler(BotCache.Source.PANDORABOTS, input, session.that, false);
 		}
 		
+		if(speculative!=null)
+			speculative.discard();
+		
 		/*
-		 * Start a background asynchronous query to Pandorabots, 
-		 * When this process is finished, the "processXMLContents" method is invoked (see below).
+		 * Start a background asynchronous query to Pandorabots, the response is parsed while it is received
+		 * by the handler (see below).
 		 */
-		retrieveXML.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, fullQuery, fullQuery); //An Executor that can be used to execute tasks in parallel.
+		XMLClient.getInstance().stream(fullQuery, handler);
+	}
+	
+	/**
+	 * Sends a partial recognition result to Pandorabots before the final result arrives (e.g. a stable partial 
+	 * result of the recognizer). Its response is kept until <code>initiateQuery</code> is invoked: if the final 
+	 * query is the same, the response is processed (when it arrives, if it has not arrived yet), otherwise it is 
+	 * discarded. The queries are not sent with a conversation id, so a discarded query does not change the 
+	 * state of the conversation in Pandorabots.
+	 * 
+	 * Nothing is sent if the query can be answered locally or from the cache, as the answer is immediate then.
+	 * @param query partial user input
+	 */
+	public void speculateQuery(String query){
+		String input = query.replaceAll("%20", " ");
+		if(speculation!=null){
+			if(speculation.isSpeculationFor(input, session.that))
+				return;
+			speculation.discard();
+			speculation = null;
+		}
 		
+		if(query.contains("dbpedia") || (session.engine!=null && session.engine.matches(input)))
+			return;
+		if(cache!=null && cache.get(BotCache.Source.PANDORABOTS, id, input, session.that, session.topic)!=null)
+			return;
 		
-		if(retrieveXML.getStatus() == (AsyncTask.Status.PENDING)) {
-            //Indicates that the task has not been executed yet
-			Log.i(LOGTAG, "Connecting to Pandorabots: Pending");
-        } else if(retrieveXML.getStatus() == (AsyncTask.Status.RUNNING)) {
-            //Indicates that the task is running
-        	Log.i(LOGTAG, "Connecting to Pandorabots: Running");
-        } else if(retrieveXML.getStatus() == (AsyncTask.Status.FINISHED)) {
-            //Indicates that AsyncTask.onPostExecute has finished
-        	Log.i(LOGTAG, "Connecting to Pandorabots: Finished");
-        } 
+		Log.d(LOGTAG, "Speculative query: "+input);
+		String fullQuery = PANDORABOTS_URL + "?input="+ input.replaceAll(" ", "%20") + "&botid=" + id;
+		speculation = new ResponseHandler(BotCache.Source.PANDORABOTS, input, session.that, true);
+		speculation.request = XMLClient.getInstance().stream(fullQuery, speculation);
 	}
 	
 	/**
-	 * Processes the results from Pandorabots in response to the query in the method <code>initiateQuery</code>
+	 * Discards the speculative query, e.g. when the recognition fails
 	 */
-	@Override
-	public void processXMLContents(String result) {
-		
-		try {
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-			InputSource s = new InputSource(new StringReader(result));
-			Document doc = dBuilder.parse(s);
+	public void cancelSpeculation(){
+		if(speculation!=null){
+			speculation.discard();
+			speculation = null;
+		}
+	}
 	
-			doc.getDocumentElement().normalize();
-			XPathFactory factory = XPathFactory.newInstance();
-			XPath xpath = factory.newXPath();
+	/**
+	 * Receives the response to a query. The answer is extracted in a background thread and stored in the cache 
+	 * with the input and context of the query, and it is processed in the main thread. The response to a 
+	 * speculative query is kept until the query is confirmed or discarded.
+	 */
+	private class ResponseHandler implements XMLStreamHandler {
+		
+		private final BotCache.Source source;
+		private final String input;
+		private final String that;
+		private final String topic;
+		XMLRequest request = null;		//Only for the speculative queries, to cancel them
+		
+		private boolean speculative;	//The response is not processed until the query is confirmed
+		private boolean discarded = false;
+		private boolean failed = false;
+		private BotResponseParser.Response response = null;	//Response received before the query was confirmed
+		
+		ResponseHandler(BotCache.Source source, String input, String that, boolean speculative){
+			this.source = source;
+			this.input = input;
+			this.that = that;
+			this.topic = session.topic;
+			this.speculative = speculative;
+		}
+		
+		/**
+		 * Checks if the speculative query was sent with the same input and context as a final query
+		 */
+		boolean isSpeculationFor(String input, String that){
+			return BotCache.normalize(this.input).equals(BotCache.normalize(input)) && equal(this.that, that) && equal(topic, session.topic);
+		}
+		
+		private boolean equal(String a, String b){
+			return a==null ? b==null : a.equals(b);
+		}
+		
+		/**
+		 * Processes the response of the speculative query, now or when it arrives. It is invoked in the main thread
+		 * @return false if the query failed, so it must be sent again
+		 */
+		boolean confirm(){
+			BotResponseParser.Response received;
+			synchronized(this){
+				if(failed)
+					return false;
+				speculative = false;
+				received = response;
+				response = null;
+			}
+			if(received!=null)
+				processResponse(received);
+			return true;
+		}
+		
+		/**
+		 * Cancels the speculative query and ignores its response
+		 */
+		void discard(){
+			synchronized(this){
+				discarded = true;
+				response = null;
+			}
+			if(request!=null)
+				request.cancel();
+		}
+		
+		@Override
+		public void processXMLStream(XmlPullParser parser) throws XmlPullParserException, IOException {
+			final BotResponseParser.Response response = BotResponseParser.parse(parser);
+			
+			if(cache!=null && input!=null){
+				if(source==BotCache.Source.KNOWLEDGE)
+					cache.put(source, null, input, null, null, response.text!=null ? response.text : "");	//Also when there is no description
+				else if(response.text!=null)
+					cache.put(source, id, input, that, topic, response.text);
+			}
+			
+			synchronized(this){
+				if(discarded)
+					return;
+				if(speculative){
+					this.response = response;	//Kept until the final query confirms it
+					return;
+				}
+			}
+			
+			ctx.runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					processResponse(response);
+				}
+			});
+		}
+		
+		/**
+		 * Saves the error when the response from Pandorabots or DBpedia could not be retrieved or parsed
+		 */
+		@Override
+		public void processXMLStreamError(String error) {
+			synchronized(this){
+				if(discarded)
+					return;
+				if(speculative){
+					failed = true;		//The final query is sent again
+					return;
+				}
+			}
+			Log.e(LOGTAG, "Error retrieving the response: "+error);
+			exception = new Exception(error);
+		}
+	}
 	
+	private void processResponse(BotResponseParser.Response response){
+		try {
 			// Result is from query to Bot on Pandorabots
-			if(result.contains("<that>"))
-			{
-	            String output = (String) xpath.evaluate("//that", doc,XPathConstants.STRING);
-	            output = output.replaceAll("<br> ", " ");
-	            processOutput(output);
+			if(!response.dbpedia){
+				if(response.output==null)
+					throw new Exception("Invalid result from the bot");
+				process(response.output);
 			}
-			// Result is from query to DBPedia
+			// Result is from query to DBPedia, check if there is a description text
+			else
+				processKnowledge(response.text);
+		}catch(Exception e){
+			exception = e;
+		}
+	}
+	
+	/**
+	 * Synthesizes the answer to a search, or carries out the search in Google if there is no answer
+	 */
+	private void processKnowledge(String answer){
+		try {
+			if(answer!=null)
+				myTts.speak(answer, "EN");
 			else {
-				if(result.contains("dbpedia")){
-	            
-	                // check if there is a description text
-					if(result.contains("<Description>"))
-					{
-						String description = (String) xpath.evaluate("//Description", doc, XPathConstants.STRING);
-						description = description.replaceAll("<br> ", " ");
-						myTts.speak(description, "EN");
-					} else {
-					// if there is no description text the query is sent to Google search
-					// specializedTopic is set to null as this value is not required for this search	
-			            Log.i(LOGTAG,"No result from dbpedia");
-						specializedTopic=null;
-						myTts.speak("Looking up Google", "EN");
-						googleQuery(queryText, specializedTopic);
-					}		
-				}
+				// if there is no answer the query is sent to Google search
+				// the topic is set to null as this value is not required for this search	
+				Log.i(LOGTAG,"No result from the knowledge sources");
+				session.topic=null;
+				myTts.speak("Looking up Google", "EN");
+				googleQuery(session.lastSearch, session.topic);
 			}
 		}catch(Exception e){
 			exception = e;
@@ -197,91 +630,69 @@ public class Bot implements XMLAsyncResponse{
 	 * @throws Exception when the bot is not able to synthesize a message or the result cannot be parsed
 	 */
 	public void processOutput(String output) throws Exception {
-		
 		if(output!=null)
-		{
-			/*
-			 * When <oob> tags are present, we assume that they have been marked up in the AIML 
-			 * file with one of the tags: <search>, <launch>, <url>, and <dial>. 
-			 */
-			if (output.contains("<oob>")){
-		        String[] parts = output.split("</oob>");
-		        String oob = parts[0];
-		        String textToSpeak = parts[1];
-		        
-		        String oobContent = oob.split("<oob>")[1].split("</oob>")[0];
-		
-		        Log.d(LOGTAG,"OOB: "+oobContent);
-		        Log.d(LOGTAG,"Text: "+textToSpeak);
-		
-		        process_oobContent(oobContent,textToSpeak);
-		        
-			/*
-			 * If it does not, the only task for the bot is to parse and synthesize the response. 
-			 * For this, it must extract the message contained within the <that> tag. 
-			 */    
-	        } else
-				myTts.speak(output, "EN");
-		}
+			process(BotOutput.parse(output));
 		else
 			throw new Exception("Invalid result from the bot");
 	} 
 
 	/**
-	 * Processes the contents of the oob tag and carries out the corresponding action: synthesizing a message, carrying
-	 * out a web search, launching a web site, launching an app or dialing the phone
-	 * @param oobContent
-	 * @param textToSpeak
-	 * @throws Exception 
+	 * Synthesizes the text of the output and carries out the commands in its oob with the handlers registered 
+	 * in the dispatcher (by default <code>&lt;search&gt;</code>, <code>&lt;launch&gt;</code>, <code>&lt;url&gt;</code> 
+	 * and <code>&lt;phone&gt;</code>). 
+	 * @throws Exception when the bot is not able to synthesize the message or a command cannot be carried out
 	 */
-	private void process_oobContent(String oobContent, String textToSpeak) throws Exception 
+	private void process(BotOutput output) throws Exception 
 	{
-		myTts.speak(textToSpeak, "EN");
-		
-		String query;
-
-		if (oobContent.contains("<url>"))
-			// perform a web search
-			if (oobContent.contains("<search>"))
-			{					 
-					queryText = oobContent.split("<search>")[1].split("</search>")[0];
-					Log.d(LOGTAG,"queryText= "+queryText);
-					doSearch(queryText);
-			}
-			
-			// request to launch a web site named in input
-			else
-			{
-				query = oobContent.split("<url>")[1].split("</url>")[0];
-				launchUrl(query);
-			}
-					
-		// request to launch an app
-		if (oobContent.contains("<launch>"))
-		{ String app;
-			 app = oobContent.split("<launch>")[1].split("</launch>")[0];
-
-			 launchApp(app);
-		}
-		
-		// request to launch phone
-		if (oobContent.contains("<phone>"))
-		{ 
-			Intent intent = new Intent(Intent.ACTION_DIAL);
-			ctx.startActivity(intent);	
-		}
+		session.setThat(AIMLEngine.lastSentence(output.text));
+		myTts.speak(output.text, "EN");
+		oob.dispatch(output.commands);
 	}
 	
 	/**
-	 * Carries out a web search in dbpedia
+	 * Searches a text in the knowledge sources
+	 */
+	private void search(String searchText){
+		session.lastSearch = searchText;
+		Log.d(LOGTAG,"queryText= "+searchText);
+		doSearch(searchText);
+	}
+	
+	/**
+	 * Looks for an answer to a search in all the knowledge sources at the same time, and synthesizes the 
+	 * first answer. The sources that have not answered are cancelled, and if none answers before its 
+	 * deadline the search is carried out in Google.
 	 * @param searchText
 	 */
-	private void doSearch(String searchText) {
-		searchText = searchText.replaceAll(" ", "+");
-		String searchEngine = "http://lookup.dbpedia.org/api/search.asmx/KeywordSearch";
-		String dbpediaQuery = searchEngine + "?QueryString="+searchText + "&MaxHits=1";
-		Log.d(LOGTAG,"Query to DBPedia: "+dbpediaQuery);
-		initiateQuery(dbpediaQuery);
+	private void doSearch(final String searchText) {
+		// Answer from the cache if the same text was searched before
+		if(cache!=null){
+			String answer = cache.get(BotCache.Source.KNOWLEDGE, null, searchText, null, null);
+			if(answer!=null){
+				Log.i(LOGTAG, "Search answered from the cache");
+				processKnowledge(answer.length()>0 ? answer : null);
+				return;
+			}
+		}
+		
+		if(search!=null)
+			search.cancel();	//The user asked something else
+		
+		Log.d(LOGTAG,"Search in the knowledge sources: "+searchText);
+		search = knowledge.start(searchText, new KnowledgeRace.Listener() {
+			@Override
+			public void processAnswer(String source, String answer) {
+				Log.i(LOGTAG, "Answer from "+source);
+				if(cache!=null)
+					cache.put(BotCache.Source.KNOWLEDGE, null, searchText, null, null, answer);
+				processKnowledge(answer);
+			}
+			
+			@Override
+			public void processNoAnswer() {
+				processKnowledge(null);		//Not cached, the sources may have missed their deadlines
+			}
+		});
 	}
 	
 	/**
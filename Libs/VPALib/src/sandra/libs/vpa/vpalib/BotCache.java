@@ -0,0 +1,374 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.util.Log;
+
+/**
+ * Cache of the answers of the remote services used by <code>Bot</code>: the outputs of the bots in Pandorabots 
+ * and the answers found in the knowledge sources (e.g. DBpedia). The answers are keyed by the id of the bot, the input normalized (in 
+ * upper case and without punctuation) and the context of the conversation (the last sentence said by the bot 
+ * and the topic), so that common questions are answered without accessing the network.
+ * 
+ * Each source has its own time to live, and the least recently used answers are removed when the maximum 
+ * number of entries is exceeded. The cache can be saved to a file so that it is kept when the app is restarted.
+ * Reading and writing the file can be slow, so apps should use <code>loadInBackground</code> and 
+ * <code>saveInBackground</code> from the main thread.
+ * 
+ * All methods are thread-safe.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.2, 10/19/26
+ *
+ */
+public class BotCache {
+	
+	/**
+	 * Services whose answers are cached
+	 */
+	public enum Source { PANDORABOTS, KNOWLEDGE }
+	
+	public static final long DEFAULT_PANDORABOTS_TTL = 24 * 60 * 60 * 1000L;		//One day
+	public static final long DEFAULT_KNOWLEDGE_TTL = 7 * 24 * 60 * 60 * 1000L;		//One week
+	
+	private static final int FILE_FORMAT_VERSION = 1;
+	private static final int MAX_SAVED_LENGTH = 20000;	//Longer answers are not saved, as writeUTF is limited to 64 KB
+	private static final String LOGTAG = "BOTCACHE";
+	
+	private static Executor fileExecutor = null;	//Background thread shared by all the caches to load and save their files
+	
+	private final int maxEntries;
+	private final LinkedHashMap<String, Entry> entries;
+	private final EnumMap<Source, Long> timesToLive = new EnumMap<Source, Long>(Source.class);
+	private final File file;		//null if the cache is only kept in memory
+	private final Object fileLock = new Object();
+	
+	private long hits = 0;
+	private long misses = 0;
+	
+	private static class Entry {
+		final String answer;
+		final long expires;
+		
+		Entry(String answer, long expires){
+			this.answer = answer;
+			this.expires = expires;
+		}
+	}
+	
+	/**
+	 * Creates a cache that is only kept in memory
+	 * @param maxEntries Maximum number of answers kept
+	 */
+	public BotCache(int maxEntries){
+		this(maxEntries, null);
+	}
+	
+	/**
+	 * Creates a cache that is saved to a file with <code>save</code>. The file is not read until <code>load</code> 
+	 * or <code>loadInBackground</code> are invoked.
+	 * @param maxEntries Maximum number of answers kept
+	 * @param file File in which the cache is saved (e.g. <code>new File(context.getCacheDir(), "bot.cache")</code>)
+	 */
+	public BotCache(int maxEntries, File file){
+		if(maxEntries<=0)
+			throw new IllegalArgumentException("The cache must admit at least one entry");
+		
+		this.maxEntries = maxEntries;
+		this.file = file;
+		timesToLive.put(Source.PANDORABOTS, DEFAULT_PANDORABOTS_TTL);
+		timesToLive.put(Source.KNOWLEDGE, DEFAULT_KNOWLEDGE_TTL);
+		
+		//Access order, so that the eldest entry is the least recently used
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, BotCache.Entry> eldest){
+				return size() > BotCache.this.maxEntries;
+			}
+		};
+	}
+	
+	/**
+	 * Time during which the answers from a source are used, it only applies to the answers stored afterwards
+	 */
+	public synchronized void setTimeToLive(Source source, long millis){
+		timesToLive.put(source, millis);
+	}
+	
+	public synchronized long getTimeToLive(Source source){
+		return timesToLive.get(source);
+	}
+	
+	/**
+	 * Returns the answer cached for an input in a context, or null if there is none or it has expired
+	 * @param source Service that gave the answer
+	 * @param botId Id of the bot in Pandorabots, null for the knowledge sources
+	 * @param input Input of the user or text searched
+	 * @param that Last sentence said by the bot, null if none
+	 * @param topic Topic of the conversation, null if none
+	 */
+	public synchronized String get(Source source, String botId, String input, String that, String topic){
+		String key = key(source, botId, input, that, topic);
+		Entry entry = entries.get(key);
+		if(entry!=null && entry.expires <= System.currentTimeMillis()){
+			entries.remove(key);
+			entry = null;
+		}
+		
+		if(entry==null){
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.answer;
+	}
+	
+	/**
+	 * Stores the answer of a service for an input in a context (see <code>get</code>)
+	 */
+	public synchronized void put(Source source, String botId, String input, String that, String topic, String answer){
+		long timeToLive = timesToLive.get(source);
+		if(timeToLive>0)
+			entries.put(key(source, botId, input, that, topic), new Entry(answer, System.currentTimeMillis()+timeToLive));
+	}
+	
+	/**
+	 * The key is made of the source, the id of the bot and the normalized texts, so that differences in case, 
+	 * punctuation or spacing do not create different entries
+	 */
+	private static String key(Source source, String botId, String input, String that, String topic){
+		StringBuilder key = new StringBuilder(source.name()).append('\n');
+		if(botId!=null)
+			key.append(botId);
+		key.append('\n').append(normalize(input)).append('\n').append(normalize(that)).append('\n').append(normalize(topic));
+		return key.toString();
+	}
+	
+	static String normalize(String text){
+		StringBuilder normalized = new StringBuilder();
+		for(String word: AIMLEngine.split(text, false)){
+			if(normalized.length()>0)
+				normalized.append(' ');
+			normalized.append(word.toUpperCase(Locale.ENGLISH));
+		}
+		return normalized.toString();
+	}
+	
+	/**
+	 * Removes all the answers and resets the statistics
+	 */
+	public synchronized void clear(){
+		entries.clear();
+		hits = 0;
+		misses = 0;
+	}
+	
+	/**
+	 * Number of answers currently cached
+	 */
+	public synchronized int size(){
+		return entries.size();
+	}
+	
+	/**
+	 * Number of queries answered from the cache
+	 */
+	public synchronized long getHits(){
+		return hits;
+	}
+	
+	/**
+	 * Number of queries that were not cached
+	 */
+	public synchronized long getMisses(){
+		return misses;
+	}
+	
+	@Override
+	public synchronized String toString(){
+		return "BotCache [size="+entries.size()+"/"+maxEntries+", hits="+hits+", misses="+misses+"]";
+	}
+	
+	/*
+	 * File storage. The file contains the answers that have not expired, from the least to the most recently used,
+	 * so that the order of the LRU is kept when they are loaded.
+	 */
+	
+	/**
+	 * Saves the answers that have not expired to the file of the cache, e.g. when the app is paused. The answers are 
+	 * written to a temporary file that then replaces the previous one, so the file is never left half written.
+	 * It must not be invoked from the main thread (see <code>saveInBackground</code>).
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save() throws IOException {
+		if(file==null)
+			return;
+		
+		//The answers are copied so that the cache can be used while they are written
+		LinkedHashMap<String, Entry> snapshot;
+		synchronized(this){
+			snapshot = new LinkedHashMap<String, Entry>(entries);
+		}
+		
+		synchronized(fileLock){
+			long now = System.currentTimeMillis();
+			File temporary = new File(file.getPath()+".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			try {
+				out.writeInt(FILE_FORMAT_VERSION);
+				for(Map.Entry<String, Entry> entry: snapshot.entrySet()){
+					if(entry.getValue().expires > now && entry.getValue().answer.length() <= MAX_SAVED_LENGTH){
+						out.writeBoolean(true);
+						out.writeUTF(entry.getKey());
+						out.writeUTF(entry.getValue().answer);
+						out.writeLong(entry.getValue().expires);
+					}
+				}
+				out.writeBoolean(false);
+			} finally {
+				out.close();
+			}
+			
+			if(!temporary.renameTo(file)){
+				temporary.delete();
+				throw new IOException("The cache could not be written to "+file);
+			}
+		}
+	}
+	
+	/**
+	 * Saves the file of the cache in a background thread (see <code>save</code>), e.g. from <code>onPause</code>
+	 */
+	public void saveInBackground(){
+		if(file==null)
+			return;
+		getFileExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					save();
+				} catch(IOException ex){
+					Log.e(LOGTAG, "The cache of answers could not be saved: "+ex.getMessage());
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Reads the answers in the file of the cache that have not expired. The answers already in the cache are 
+	 * kept, as they are more recent. It must not be invoked from the main thread (see <code>loadInBackground</code>).
+	 */
+	public void load(){
+		if(file==null)
+			return;
+		
+		LinkedHashMap<String, Entry> loaded = new LinkedHashMap<String, Entry>();
+		synchronized(fileLock){
+			if(file.isFile())
+				read(loaded);
+		}
+		
+		synchronized(this){
+			//The loaded answers go before the current ones, which have been used more recently
+			LinkedHashMap<String, Entry> current = new LinkedHashMap<String, Entry>(entries);
+			entries.clear();
+			entries.putAll(loaded);
+			entries.putAll(current);
+		}
+	}
+	
+	/**
+	 * Reads the file of the cache in a background thread (see <code>load</code>), e.g. from <code>onCreate</code>.
+	 * The cache can be used in the meantime, and it is saved by <code>saveInBackground</code> after it has been read.
+	 */
+	public void loadInBackground(){
+		if(file==null)
+			return;
+		getFileExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				load();
+			}
+		});
+	}
+	
+	private static synchronized Executor getFileExecutor(){
+		if(fileExecutor==null){
+			fileExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "BotCache");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return fileExecutor;
+	}
+	
+	private void read(LinkedHashMap<String, Entry> loaded){
+		long now = System.currentTimeMillis();
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if(in.readInt()!=FILE_FORMAT_VERSION)
+				return;
+			while(in.readBoolean()){
+				String key = in.readUTF();
+				String answer = in.readUTF();
+				long expires = in.readLong();
+				if(expires > now)
+					loaded.put(key, new Entry(answer, expires));
+			}
+		} catch(IOException ex){
+			//The answers read until the error are kept, the file is written again when the cache is saved
+		} finally {
+			if(in!=null){
+				try {
+					in.close();
+				} catch(IOException ex){
+					//Nothing else can be done
+				}
+			}
+		}
+	}
+}
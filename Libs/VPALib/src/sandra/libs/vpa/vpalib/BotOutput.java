@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Output of the bot, separated into the text to be synthesized and the commands marked up in its 
+ * <code>&lt;oob&gt;</code> elements (e.g. <code>&lt;url&gt;</code>, <code>&lt;launch&gt;</code> or <code>&lt;phone&gt;</code>), 
+ * which are carried out by the <code>OOBDispatcher</code> of the bot. The output is scanned once.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.1, 10/19/26
+ *
+ */
+final class BotOutput {
+	
+	private static final String OOB_START = "<oob>";
+	private static final String OOB_END = "</oob>";
+	
+	final String text;					//Text to be synthesized, without the oob
+	final List<OOBCommand> commands;	//Commands in the oob, in order
+	
+	private BotOutput(String text, List<OOBCommand> commands){
+		this.text = text;
+		this.commands = commands;
+	}
+	
+	/**
+	 * Separates the oob from the text of the output of Pandorabots or the local AIML interpreter
+	 */
+	static BotOutput parse(String output){
+		int start = output.indexOf(OOB_START);
+		if(start<0)
+			return new BotOutput(output.trim(), Collections.<OOBCommand>emptyList());
+		
+		StringBuilder text = new StringBuilder();
+		ArrayList<OOBCommand> commands = new ArrayList<OOBCommand>();
+		int position = 0;
+		while(start>=0){
+			int end = output.indexOf(OOB_END, start);
+			if(end<0)
+				end = output.length();
+			text.append(output, position, start);
+			OOBCommand.parse(output, start+OOB_START.length(), end, commands);
+			position = Math.min(output.length(), end+OOB_END.length());
+			start = output.indexOf(OOB_START, position);
+		}
+		text.append(output, position, output.length());
+		
+		return new BotOutput(text.toString().trim(), Collections.unmodifiableList(commands));
+	}
+}
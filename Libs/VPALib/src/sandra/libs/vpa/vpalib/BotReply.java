@@ -0,0 +1,61 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.util.List;
+
+/**
+ * Reply of a bot to a query in a <code>BotSession</code>: the text to be shown or synthesized, and the commands of 
+ * its <code>&lt;oob&gt;</code> (e.g. a search or a web page to open), which are carried out by the client.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ *
+ */
+public final class BotReply {
+	
+	private final String text;
+	private final List<OOBCommand> commands;
+	
+	BotReply(BotOutput output){
+		this.text = output.text;
+		this.commands = output.commands;
+	}
+	
+	public String getText(){
+		return text;
+	}
+	
+	/**
+	 * Commands in the oob of the reply, in order
+	 */
+	public List<OOBCommand> getCommands(){
+		return commands;
+	}
+	
+	@Override
+	public String toString(){
+		return commands.isEmpty() ? text : text+" "+commands;
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.io.IOException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Extracts the answer from the responses of Pandorabots (<code>&lt;that&gt;</code>) and DBpedia 
+ * (first <code>&lt;Description&gt;</code>) while they are being received. It stops reading as soon as the 
+ * answer is found, so the rest of the response is not downloaded, and it does not build any document.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.2, 10/19/26
+ *
+ */
+class BotResponseParser {
+	
+	private static final String DBPEDIA_ROOT = "ArrayOfResult";
+	
+	/**
+	 * Answer extracted from a response
+	 */
+	static class Response {
+		final boolean dbpedia;		//True if it is a response from DBpedia
+		final String text;			//Output of the bot or description from DBpedia, null if there is none
+		final BotOutput output;		//Output of the bot separated from its oob, null for DBpedia
+		
+		Response(boolean dbpedia, String text){
+			this.dbpedia = dbpedia;
+			this.text = text;
+			this.output = dbpedia || text==null ? null : BotOutput.parse(text);
+		}
+	}
+	
+	/**
+	 * Reads the response until the answer is found
+	 * @param parser parser positioned at the start of the response
+	 * @return the answer, whose text is null if the response has no <code>that</code> or no description
+	 * @throws XmlPullParserException if the response is not well formed
+	 * @throws IOException if the connection fails while reading
+	 */
+	static Response parse(XmlPullParser parser) throws XmlPullParserException, IOException {
+		boolean dbpedia = false;
+		
+		int event = parser.getEventType();
+		while(event != XmlPullParser.END_DOCUMENT){
+			if(event == XmlPullParser.START_TAG){
+				String name = parser.getName();
+				if(parser.getDepth()==1)
+					dbpedia = name.equals(DBPEDIA_ROOT);
+				else if(!dbpedia && name.equals("that"))
+					return new Response(false, text(parser).replace("<br> ", " "));
+				else if(dbpedia && name.equals("Description")){
+					String description = text(parser).replace("<br> ", " ").trim();
+					return new Response(true, description.length()>0 ? description : null);
+				}
+			}
+			event = parser.next();
+		}
+		return new Response(dbpedia, null);
+	}
+	
+	/**
+	 * Text of the current element including the text of the nested elements, as its string value in XPath
+	 */
+	static String text(XmlPullParser parser) throws XmlPullParserException, IOException {
+		int depth = parser.getDepth();
+		String text = null;
+		StringBuilder texts = null;		//Only needed if there are several texts
+		
+		int event = parser.next();
+		while(!(event == XmlPullParser.END_TAG && parser.getDepth() == depth)){
+			if(event == XmlPullParser.TEXT){
+				if(text==null)
+					text = parser.getText();
+				else {
+					if(texts==null)
+						texts = new StringBuilder(text);
+					texts.append(parser.getText());
+				}
+			}
+			else if(event == XmlPullParser.END_DOCUMENT)
+				throw new XmlPullParserException("Unexpected end of the response", parser, null);
+			event = parser.next();
+		}
+		
+		if(texts!=null)
+			return texts.toString();
+		return text==null ? "" : text;
+	}
+}
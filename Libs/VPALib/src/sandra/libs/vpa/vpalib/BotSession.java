@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * State of a conversation with a bot: the last sentence said by the bot, the topic of the conversation, the last 
+ * search and the predicates of its local AIML interpreter. The definition of the bot (its id, brain and cache) 
+ * is shared by all the conversations, so the same bot can hold any number of them (see <code>BotSessionManager</code>).
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.1, 10/19/26
+ *
+ */
+public class BotSession {
+	
+	private final String id;
+	AIMLEngine engine;		//Session of the local AIML interpreter, null if all the queries are sent to Pandorabots
+	String topic;			//Specialized topic of the conversation, null for a generic conversation
+	String that = null;		//Last sentence said by the bot, it is part of the context of the answers in the cache
+	String lastSearch = null;	//Last text searched in the knowledge sources
+	private volatile long lastAccess = System.currentTimeMillis();
+	private final AtomicInteger queries = new AtomicInteger(0);	//Queries in progress, -1 once the session has been evicted
+	
+	/**
+	 * Creates a conversation
+	 * @param id id of the conversation (e.g. the id of the user)
+	 * @param engine session of the local AIML interpreter, null for none
+	 * @param topic specialized topic of the conversation, null for a generic conversation
+	 */
+	public BotSession(String id, AIMLEngine engine, String topic){
+		this.id = id;
+		this.engine = engine;
+		this.topic = topic;
+	}
+	
+	public String getId(){
+		return id;
+	}
+	
+	public synchronized String getTopic(){
+		return topic;
+	}
+	
+	public synchronized void setTopic(String topic){
+		this.topic = topic;
+	}
+	
+	/**
+	 * Last sentence said by the bot, null if it has not said anything
+	 */
+	public synchronized String getThat(){
+		return that;
+	}
+	
+	public synchronized String getLastSearch(){
+		return lastSearch;
+	}
+	
+	public synchronized AIMLEngine getEngine(){
+		return engine;
+	}
+	
+	/**
+	 * Time of the last query in the conversation, in milliseconds
+	 */
+	public long getLastAccess(){
+		return lastAccess;
+	}
+	
+	/**
+	 * Sets the last sentence said by the bot, also in the local AIML interpreter, so that its <code>&lt;that&gt;</code> 
+	 * categories match the context of the conversation whoever answered (the interpreter, the cache or Pandorabots)
+	 */
+	synchronized void setThat(String that){
+		this.that = that;
+		if(engine!=null)
+			engine.setThat(that);
+	}
+	
+	/**
+	 * Sets the local AIML interpreter of the conversation, which continues from the last sentence said by the bot
+	 */
+	synchronized void setEngine(AIMLEngine engine){
+		this.engine = engine;
+		if(engine!=null && that!=null)
+			engine.setThat(that);
+	}
+	
+	void touch(){
+		lastAccess = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Registers a query in progress, so that the session is not evicted while it is answered
+	 * @return false if the session has already been evicted, then a new one must be used
+	 */
+	boolean startQuery(){
+		while(true){
+			int current = queries.get();
+			if(current<0)
+				return false;
+			if(queries.compareAndSet(current, current+1)){
+				touch();
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Ends a query started with <code>startQuery</code>. The time of last access is updated, as the query may have taken long
+	 */
+	void endQuery(){
+		touch();
+		queries.decrementAndGet();
+	}
+	
+	/**
+	 * Marks the session as evicted if it has not been accessed since <code>limit</code> and it has no query in progress.
+	 * Once evicted, no query can be started in it.
+	 * @return true if the session has been evicted
+	 */
+	boolean evictIfIdle(long limit){
+		return lastAccess < limit && queries.compareAndSet(0, -1);
+	}
+	
+	/**
+	 * Answers a query with the local AIML interpreter or with the cache of the answers of Pandorabots, 
+	 * without contacting Pandorabots
+	 * @return the output of the bot, or null if the query cannot be answered locally
+	 */
+	synchronized String answerLocally(String botId, BotCache cache, String input){
+		if(engine!=null){
+			String output = engine.respond(input);
+			if(output!=null)
+				return output;
+		}
+		if(cache!=null)
+			return cache.get(BotCache.Source.PANDORABOTS, botId, input, that, topic);
+		return null;
+	}
+}
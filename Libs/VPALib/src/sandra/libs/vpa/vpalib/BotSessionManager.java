@@ -0,0 +1,250 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import sandra.libs.util.xmllib.XMLClient;
+
+/**
+ * Holds many concurrent conversations with the same bot, e.g. in a server that answers the users of a chat. 
+ * The definition of the bot (its id in Pandorabots, its brain and the cache of answers) is shared, and the 
+ * state of each conversation is kept in a <code>BotSession</code>, so the sessions only cost their predicates and 
+ * context. It does not use the Android user interface: the replies are returned with the commands of their oob, 
+ * which are carried out by the client.
+ * 
+ * The queries are answered by the local AIML interpreter, the cache or Pandorabots, as in <code>Bot</code>, in a 
+ * bounded pool of threads: when all the threads are busy and the queue is full, new queries are rejected instead 
+ * of piling up. The queries of a session are answered one at a time, and the sessions that have been idle for 
+ * longer than the idle timeout are evicted.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ *
+ */
+public class BotSessionManager {
+	
+	private final String botId;
+	private final AIMLEngine brain;
+	private final String topic;
+	private final long idleTimeout;
+	private volatile BotCache cache = null;
+	
+	private final ConcurrentHashMap<String, BotSession> sessions = new ConcurrentHashMap<String, BotSession>();
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService evictor;
+	
+	/**
+	 * Creates the manager and starts evicting the idle sessions
+	 * @param botId id of the bot in Pandorabots
+	 * @param brain local AIML interpreter of the bot, shared by the sessions, null to send all the queries to Pandorabots
+	 * @param topic specialized topic of the conversations, null for generic conversations
+	 * @param threads number of queries answered at the same time
+	 * @param queueCapacity number of queries that can wait for a thread
+	 * @param idleTimeoutMillis time after which a session without queries is evicted
+	 */
+	public BotSessionManager(String botId, AIMLEngine brain, String topic, int threads, int queueCapacity, long idleTimeoutMillis){
+		this.botId = botId;
+		this.brain = brain;
+		this.topic = topic;
+		this.idleTimeout = idleTimeoutMillis;
+		
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), 
+				threadFactory("BotSessionManager-query"), new ThreadPoolExecutor.AbortPolicy());
+		evictor = Executors.newSingleThreadScheduledExecutor(threadFactory("BotSessionManager-evictor"));
+		long period = Math.max(1000, idleTimeoutMillis/2);
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				evictIdleSessions();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+	
+	private static ThreadFactory threadFactory(final String name){
+		return new ThreadFactory() {
+			private int count = 0;
+			
+			@Override
+			public synchronized Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name+"-"+(++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+	
+	/**
+	 * Sets the cache of the answers from Pandorabots, shared by all the sessions, null to not cache them
+	 */
+	public void setCache(BotCache cache){
+		this.cache = cache;
+	}
+	
+	public BotCache getCache(){
+		return cache;
+	}
+	
+	/**
+	 * Session with an id, which is created if it does not exist
+	 */
+	public BotSession getSession(String sessionId){
+		BotSession session = sessions.get(sessionId);
+		if(session==null){
+			BotSession created = new BotSession(sessionId, brain==null ? null : brain.newSession(), topic);
+			session = sessions.putIfAbsent(sessionId, created);
+			if(session==null)
+				session = created;
+		}
+		return session;
+	}
+	
+	/**
+	 * Ends a session, the next query with its id starts a new conversation
+	 */
+	public void closeSession(String sessionId){
+		sessions.remove(sessionId);
+	}
+	
+	public int getSessionCount(){
+		return sessions.size();
+	}
+	
+	/**
+	 * Removes the sessions that have been idle for longer than the idle timeout. The sessions with a query in 
+	 * progress are never removed, even if the query takes longer than the timeout. It is invoked periodically.
+	 * @return number of sessions removed
+	 */
+	public int evictIdleSessions(){
+		long limit = System.currentTimeMillis() - idleTimeout;
+		int evicted = 0;
+		for(Map.Entry<String, BotSession> entry: sessions.entrySet()){
+			BotSession session = entry.getValue();
+			if(session.evictIfIdle(limit) && sessions.remove(entry.getKey(), session))
+				evicted++;
+		}
+		return evicted;
+	}
+	
+	/**
+	 * Answers a query in the pool of threads
+	 * @param sessionId id of the session, which is created if it does not exist
+	 * @param input user input
+	 * @return the future reply, whose <code>get</code> throws an <code>ExecutionException</code> if the query fails
+	 * @throws RejectedExecutionException if the queue of queries is full, or the manager has been shut down
+	 */
+	public Future<BotReply> query(final String sessionId, final String input){
+		return executor.submit(new Callable<BotReply>() {
+			@Override
+			public BotReply call() throws Exception {
+				return respond(sessionId, input);
+			}
+		});
+	}
+	
+	/**
+	 * Answers a query in the calling thread
+	 * @param sessionId id of the session, which is created if it does not exist
+	 * @param input user input
+	 * @throws IOException if the query must be sent to Pandorabots and its response cannot be retrieved or parsed
+	 */
+	public BotReply respond(String sessionId, String input) throws IOException {
+		BotSession session = getSession(sessionId);
+		while(!session.startQuery()){
+			//Evicted between getSession and startQuery, the query starts a new conversation
+			sessions.remove(sessionId, session);
+			session = getSession(sessionId);
+		}
+		
+		try {
+			return respond(session, input);
+		} finally {
+			session.endQuery();
+		}
+	}
+	
+	private BotReply respond(BotSession session, String input) throws IOException {
+		synchronized(session){
+			String output = session.answerLocally(botId, cache, input);
+			if(output==null){
+				output = askPandorabots(input);
+				BotCache currentCache = cache;
+				if(currentCache!=null)
+					currentCache.put(BotCache.Source.PANDORABOTS, botId, input, session.that, session.topic, output);
+			}
+			
+			BotOutput parsed = BotOutput.parse(output);
+			session.setThat(AIMLEngine.lastSentence(parsed.text));
+			for(OOBCommand command: parsed.commands){
+				OOBCommand search = command.getName().equals("search") ? command : command.getChild("search");
+				if(search!=null)
+					session.lastSearch = search.getText();
+			}
+			return new BotReply(parsed);
+		}
+	}
+	
+	/**
+	 * Sends a query to the bot in Pandorabots, in the calling thread
+	 * @return the output of the bot
+	 */
+	private String askPandorabots(String input) throws IOException {
+		String url = Bot.PANDORABOTS_URL + "?input=" + DBpediaSource.encode(input) + "&botid=" + botId;
+		String xml = XMLClient.getInstance().retrieve(url, null);
+		try {
+			XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+			parser.setInput(new StringReader(xml));
+			BotResponseParser.Response response = BotResponseParser.parse(parser);
+			if(response.text==null)
+				throw new IOException("Invalid result from the bot");
+			return response.text;
+		} catch (XmlPullParserException e) {
+			throw new IOException("Invalid result from the bot: "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Stops accepting queries and evicting sessions. The queries already accepted are answered.
+	 */
+	public void shutdown(){
+		executor.shutdown();
+		evictor.shutdownNow();
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import sandra.libs.util.xmllib.XMLClient;
+import sandra.libs.util.xmllib.XMLRequest;
+import sandra.libs.util.xmllib.XMLStreamHandler;
+
+/**
+ * Looks for the description of the first result of a keyword search in DBpedia
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ *
+ */
+public class DBpediaSource implements KnowledgeSource {
+	
+	static final String DBPEDIA_URL = "http://lookup.dbpedia.org/api/search.asmx/KeywordSearch";
+	
+	@Override
+	public String getName() {
+		return "DBpedia";
+	}
+	
+	@Override
+	public Lookup lookup(String query, final Callback callback) {
+		final XMLRequest request = XMLClient.getInstance().stream(DBPEDIA_URL + "?QueryString=" + encode(query) + "&MaxHits=1", 
+				new XMLStreamHandler() {
+			@Override
+			public void processXMLStream(XmlPullParser parser) throws XmlPullParserException, IOException {
+				callback.processAnswer(BotResponseParser.parse(parser).text);
+			}
+			
+			@Override
+			public void processXMLStreamError(String error) {
+				callback.processAnswer(null);
+			}
+		});
+		
+		return new Lookup() {
+			@Override
+			public void cancel() {
+				request.cancel();
+			}
+		};
+	}
+	
+	static String encode(String query){
+		try {
+			return URLEncoder.encode(query, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);	//UTF-8 is always supported
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.io.IOException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import sandra.libs.util.xmllib.XMLClient;
+import sandra.libs.util.xmllib.XMLRequest;
+import sandra.libs.util.xmllib.XMLStreamHandler;
+
+/**
+ * Looks for an answer with the Instant Answer API of the DuckDuckGo web search engine, which returns the 
+ * abstract of the main topic of a query (mostly from Wikipedia), a direct answer or a definition.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ *
+ */
+public class DuckDuckGoSource implements KnowledgeSource {
+	
+	static final String DUCKDUCKGO_URL = "https://api.duckduckgo.com/";
+	
+	@Override
+	public String getName() {
+		return "DuckDuckGo";
+	}
+	
+	@Override
+	public Lookup lookup(String query, final Callback callback) {
+		final XMLRequest request = XMLClient.getInstance().stream(DUCKDUCKGO_URL + "?q=" + DBpediaSource.encode(query) + 
+				"&format=xml&no_html=1&skip_disambig=1", new XMLStreamHandler() {
+			@Override
+			public void processXMLStream(XmlPullParser parser) throws XmlPullParserException, IOException {
+				callback.processAnswer(parse(parser));
+			}
+			
+			@Override
+			public void processXMLStreamError(String error) {
+				callback.processAnswer(null);
+			}
+		});
+		
+		return new Lookup() {
+			@Override
+			public void cancel() {
+				request.cancel();
+			}
+		};
+	}
+	
+	/**
+	 * Reads the abstract, the answer and the definition, and returns the first that is not empty in that order
+	 */
+	private static String parse(XmlPullParser parser) throws XmlPullParserException, IOException {
+		String abstractText = null;
+		String answer = null;
+		String definition = null;
+		
+		int event = parser.getEventType();
+		while(event != XmlPullParser.END_DOCUMENT){
+			if(event == XmlPullParser.START_TAG && parser.getDepth()==2){
+				String name = parser.getName();
+				if(name.equals("AbstractText"))
+					abstractText = BotResponseParser.text(parser).trim();
+				else if(name.equals("Answer"))
+					answer = BotResponseParser.text(parser).trim();
+				else if(name.equals("Definition"))
+					definition = BotResponseParser.text(parser).trim();
+			}
+			event = parser.next();
+		}
+		
+		if(abstractText!=null && abstractText.length()>0)
+			return abstractText;
+		if(answer!=null && answer.length()>0)
+			return answer;
+		return definition!=null && definition.length()>0 ? definition : null;
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Trie in which the AIML categories are stored. The path of a category is made of the words of its pattern, 
+ * the <code>&lt;THAT&gt;</code> marker followed by the words of its that, and the <code>&lt;TOPIC&gt;</code> 
+ * marker followed by the words of its topic. The template is kept in the node in which the path ends.
+ * 
+ * The matching follows the priorities of AIML: in each node the <code>_</code> wildcard is tried first, then the 
+ * exact word and finally the <code>*</code> wildcard. Wildcards match one or more words and never cross a marker, 
+ * and the search backtracks when a branch does not lead to a template.
+ * 
+ * The trie can be built by adding the categories of AIML files, or opened on a brain image compiled with 
+ * <code>AIMLImageWriter</code>. In that case the nodes are read from the image the first time that a match 
+ * goes through them, so opening a brain does not depend on its size. Several threads can match at the same time 
+ * (the nodes are read from the image with the lock of the node), but not while categories are added.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.2, 10/19/26
+ *
+ */
+class Graphmaster {
+	
+	static final String THAT = "<THAT>";
+	static final String TOPIC = "<TOPIC>";
+	static final String STAR = "*";
+	static final String UNDERSCORE = "_";
+	
+	private final AIMLImage image;		//Null if the trie is built only from AIML files
+	private final Node root;
+	private int size = 0;
+	
+	/**
+	 * Node of the trie. The children are created only when needed, as most nodes in a brain have a single child
+	 */
+	static class Node {
+		HashMap<String, Node> children = null;
+		Node underscore = null;
+		Node star = null;
+		AIMLElement template = null;
+		int offset = -1;			//Position of the node in the brain image, -1 if it was added from an AIML file
+		boolean expanded = true;	//False until the wildcards of a node of the image are read
+	}
+	
+	/**
+	 * Result of a match: the template of the category and the positions of the words captured by each wildcard
+	 */
+	static class Match {
+		final AIMLElement template;
+		final String[] path;
+		final ArrayList<int[]> stars;
+		
+		Match(AIMLElement template, String[] path, ArrayList<int[]> stars){
+			this.template = template;
+			this.path = path;
+			this.stars = stars;
+		}
+		
+		/**
+		 * Words captured by a wildcard
+		 * @param words words of the path in their original case, aligned with the path used in the match
+		 * @param section <code>null</code> for the pattern, <code>THAT</code> or <code>TOPIC</code>
+		 * @param index position of the wildcard in the section, starting in 1
+		 * @return the words separated by blanks, or an empty string if there is no such wildcard
+		 */
+		String getStar(String[] words, String section, int index){
+			int count = 0;
+			for(int[] span: stars){
+				if(section(span[0]) == section && ++count == index){
+					StringBuilder star = new StringBuilder();
+					for(int i=span[0]; i<span[1]; i++){
+						if(i>span[0])
+							star.append(' ');
+						star.append(words[i]);
+					}
+					return star.toString();
+				}
+			}
+			return "";
+		}
+		
+		private String section(int position){
+			String section = null;
+			for(int i=0; i<position; i++)
+				if(path[i].equals(THAT) || path[i].equals(TOPIC))
+					section = path[i];
+			return section;
+		}
+	}
+	
+	/**
+	 * Empty trie, to which the categories of AIML files are added
+	 */
+	Graphmaster(){
+		this.image = null;
+		this.root = new Node();
+	}
+	
+	/**
+	 * Trie on a brain image. Categories added afterwards are kept in memory and replace those of the image.
+	 */
+	Graphmaster(AIMLImage image){
+		this.image = image;
+		this.root = imageNode(image.getRoot());
+		this.size = image.getCategoryCount();
+	}
+	
+	private static Node imageNode(int offset){
+		Node node = new Node();
+		node.offset = offset;
+		node.expanded = false;
+		return node;
+	}
+	
+	/**
+	 * Reads the wildcards of a node of the image
+	 */
+	private void expand(Node node){
+		synchronized(node){
+			if(!node.expanded){
+				int underscore = image.getUnderscore(node.offset);
+				if(underscore>=0 && node.underscore==null)
+					node.underscore = imageNode(underscore);
+				int star = image.getStar(node.offset);
+				if(star>=0 && node.star==null)
+					node.star = imageNode(star);
+				node.expanded = true;
+			}
+		}
+	}
+	
+	private AIMLElement getTemplate(Node node){
+		synchronized(node){
+			if(node.template==null && node.offset>=0){
+				int template = image.getTemplate(node.offset);
+				if(template>=0)
+					node.template = image.readTemplate(template);
+			}
+			return node.template;
+		}
+	}
+	
+	/**
+	 * Child for a word, reading it from the image if it has not been read yet. Wildcards are not children
+	 */
+	private Node getChild(Node node, String word){
+		synchronized(node){
+			Node child = node.children==null ? null : node.children.get(word);
+			if(child==null && node.offset>=0){
+				int id = image.getWordId(word);
+				int offset = id<0 ? -1 : image.getChild(node.offset, id);
+				if(offset>=0){
+					child = imageNode(offset);
+					putChild(node, word, child);
+				}
+			}
+			return child;
+		}
+	}
+	
+	private static void putChild(Node node, String word, Node child){
+		if(node.children==null)
+			node.children = new HashMap<String, Node>(4);
+		node.children.put(word, child);
+	}
+	
+	private Node addChild(Node node, String word){
+		expand(node);
+		Node child;
+		if(word.equals(UNDERSCORE))
+			child = node.underscore;
+		else if(word.equals(STAR))
+			child = node.star;
+		else
+			child = getChild(node, word);
+		
+		if(child==null){
+			child = new Node();
+			if(word.equals(UNDERSCORE))
+				node.underscore = child;
+			else if(word.equals(STAR))
+				node.star = child;
+			else
+				putChild(node, word, child);
+		}
+		return child;
+	}
+	
+	/**
+	 * Adds a category. If there was already a category with the same pattern, that and topic, it is replaced.
+	 * @param pattern words of the pattern in upper case
+	 * @param that words of the that in upper case, an empty array is the same as <code>*</code>
+	 * @param topic words of the topic in upper case, an empty array is the same as <code>*</code>
+	 * @param template template of the category
+	 */
+	void add(String[] pattern, String[] that, String[] topic, AIMLElement template){
+		Node node = root;
+		for(String word: path(pattern, that, topic))
+			node = addChild(node, word);
+		if(getTemplate(node)==null)
+			size++;
+		node.template = template;
+	}
+	
+	/**
+	 * Looks for the category that best matches the path
+	 * @param path words of the input, that and topic in upper case, built with <code>path</code>
+	 * @return the match, or null if no category matches
+	 */
+	Match match(String[] path){
+		ArrayList<int[]> stars = new ArrayList<int[]>();
+		Node node = match(root, path, 0, stars);
+		return node==null ? null : new Match(getTemplate(node), path, stars);
+	}
+	
+	private Node match(Node node, String[] path, int position, ArrayList<int[]> stars){
+		if(position==path.length)
+			return getTemplate(node)==null ? null : node;
+		
+		expand(node);
+		Node result = null;
+		if(node.underscore!=null)
+			result = matchWildcard(node.underscore, path, position, stars);
+		if(result==null){
+			Node child = getChild(node, path[position]);
+			if(child!=null)
+				result = match(child, path, position+1, stars);
+		}
+		if(result==null && node.star!=null)
+			result = matchWildcard(node.star, path, position, stars);
+		return result;
+	}
+	private Node matchWildcard(Node next, String[] path, int position, ArrayList<int[]> stars){
+		if(isMarker(path[position]))
+			return null;
+		for(int end=position+1; end<=path.length; end++){
+			stars.add(new int[]{position, end});
+			Node result = match(next, path, end, stars);
+			if(result!=null)
+				return result;
+			stars.remove(stars.size()-1);
+			if(end<path.length && isMarker(path[end]))
+				break;
+		}
+		return null;
+	}
+	
+	private static boolean isMarker(String word){
+		return word.equals(THAT) || word.equals(TOPIC);
+	}
+	
+	/**
+	 * Builds the path with the markers between the input, that and topic. Empty sections are replaced by <code>*</code>
+	 */
+	static String[] path(String[] input, String[] that, String[] topic){
+		ArrayList<String> path = new ArrayList<String>();
+		addSection(path, input);
+		path.add(THAT);
+		addSection(path, that);
+		path.add(TOPIC);
+		addSection(path, topic);
+		return path.toArray(new String[path.size()]);
+	}
+	
+	private static void addSection(ArrayList<String> path, String[] words){
+		if(words==null || words.length==0)
+			path.add(STAR);
+		else
+			for(String word: words)
+				path.add(word);
+	}
+	
+	/**
+	 * Number of categories stored
+	 */
+	int size(){
+		return size;
+	}
+	
+	/**
+	 * Root of the trie, used to write brain images
+	 */
+	Node getRoot(){
+		return root;
+	}
+	
+	/**
+	 * True if the trie was opened on a brain image
+	 */
+	boolean isMapped(){
+		return image!=null;
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds the inverted index searched by <code>LocalKnowledgeSource</code> from a set of entities, each with a 
+ * label (e.g. "Granada") and a description (e.g. the abstract of the entity in DBpedia). It is used at build 
+ * time by the KnowledgeIndexer tool, which reads DBpedia dumps and other entity files.
+ * 
+ * The words of the labels count <code>LABEL_BOOST</code> times, so that entities are found by their names as 
+ * in the keyword search of DBpedia. The index is kept in memory until it is written, and it cannot exceed 2 GB.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ *
+ */
+public class KnowledgeIndexWriter {
+	
+	static final int MAGIC = 0x4B494458;	//"KIDX"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+	static final int LABEL_BOOST = 3;
+	
+	private final ArrayList<String> labels = new ArrayList<String>();
+	private final ArrayList<String> descriptions = new ArrayList<String>();
+	private final ArrayList<Integer> lengths = new ArrayList<Integer>();
+	private final HashMap<String, Postings> postings = new HashMap<String, Postings>();
+	private long totalLength = 0;
+	
+	/**
+	 * Documents that contain a term, with the frequency of the term in each of them
+	 */
+	private static class Postings {
+		int[] documents = new int[2];
+		int[] frequencies = new int[2];
+		int size = 0;
+		
+		void add(int document, int frequency){
+			if(size==documents.length){
+				documents = grow(documents);
+				frequencies = grow(frequencies);
+			}
+			documents[size] = document;
+			frequencies[size] = frequency;
+			size++;
+		}
+		
+		private static int[] grow(int[] array){
+			int[] grown = new int[array.length*2];
+			System.arraycopy(array, 0, grown, 0, array.length);
+			return grown;
+		}
+	}
+	
+	/**
+	 * Adds an entity to the index. Entities without words in their label or description are ignored
+	 * @param label name of the entity
+	 * @param description text that is returned as the answer when the entity is found
+	 */
+	public void add(String label, String description){
+		HashMap<String, Integer> frequencies = new HashMap<String, Integer>();
+		count(LocalKnowledgeSource.tokenize(label), LABEL_BOOST, frequencies);
+		count(LocalKnowledgeSource.tokenize(description), 1, frequencies);
+		if(frequencies.isEmpty())
+			return;
+		
+		int document = labels.size();
+		int length = 0;
+		for(Map.Entry<String, Integer> term: frequencies.entrySet()){
+			Postings termPostings = postings.get(term.getKey());
+			if(termPostings==null){
+				termPostings = new Postings();
+				postings.put(term.getKey(), termPostings);
+			}
+			termPostings.add(document, term.getValue());
+			length += term.getValue();
+		}
+		
+		labels.add(label);
+		descriptions.add(description);
+		lengths.add(length);
+		totalLength += length;
+	}
+	
+	private static void count(ArrayList<String> terms, int weight, HashMap<String, Integer> frequencies){
+		for(String term: terms){
+			Integer frequency = frequencies.get(term);
+			frequencies.put(term, frequency==null ? weight : frequency+weight);
+		}
+	}
+	
+	/**
+	 * Number of entities added
+	 */
+	public int size(){
+		return labels.size();
+	}
+	
+	/**
+	 * Writes the index. Format (big endian integers, offsets from the start of the index):
+	 * 
+	 * 		header			magic "KIDX", version, number of documents, number of terms, average length of the 
+	 * 						documents (float), offset of the term index, offset of the document index
+	 * 		term index		offset of the term, offset of its postings and number of documents that contain it, 
+	 * 						sorted by term so that terms can be found with a binary search
+	 * 		document index	offset of each document
+	 * 		terms			length and UTF-8 bytes of each term
+	 * 		postings		document and frequency of the term in it, sorted by document
+	 * 		documents		length in terms, and length and UTF-8 bytes of the label and the description
+	 * 
+	 * @throws IOException if the index cannot be written
+	 */
+	public void write(OutputStream out) throws IOException {
+		TreeMap<String, Postings> terms = new TreeMap<String, Postings>(postings);
+		int termIndexStart = HEADER_SIZE;
+		int documentIndexStart = termIndexStart + 12*terms.size();
+		int termsStart = documentIndexStart + 4*labels.size();
+		
+		ByteArrayOutputStream termBytes = new ByteArrayOutputStream();
+		DataOutputStream termData = new DataOutputStream(termBytes);
+		ByteArrayOutputStream postingBytes = new ByteArrayOutputStream();
+		DataOutputStream postingData = new DataOutputStream(postingBytes);
+		int[] termOffsets = new int[terms.size()];
+		int[] postingOffsets = new int[terms.size()];
+		
+		int i = 0;
+		for(Map.Entry<String, Postings> term: terms.entrySet()){
+			termOffsets[i] = termData.size();
+			writeString(termData, term.getKey());
+			postingOffsets[i] = postingData.size();
+			Postings termPostings = term.getValue();
+			for(int j=0; j<termPostings.size; j++){
+				postingData.writeInt(termPostings.documents[j]);
+				postingData.writeInt(termPostings.frequencies[j]);
+			}
+			i++;
+		}
+		int postingsStart = termsStart + termData.size();
+		
+		ByteArrayOutputStream documentBytes = new ByteArrayOutputStream();
+		DataOutputStream documentData = new DataOutputStream(documentBytes);
+		int[] documentOffsets = new int[labels.size()];
+		int documentsStart = postingsStart + postingData.size();
+		for(int document=0; document<labels.size(); document++){
+			documentOffsets[document] = documentsStart + documentData.size();
+			documentData.writeInt(lengths.get(document));
+			writeString(documentData, labels.get(document));
+			writeString(documentData, descriptions.get(document));
+		}
+		if((long) documentsStart + documentData.size() > Integer.MAX_VALUE)
+			throw new IOException("The index exceeds 2 GB");
+		
+		DataOutputStream index = new DataOutputStream(out);
+		index.writeInt(MAGIC);
+		index.writeInt(VERSION);
+		index.writeInt(labels.size());
+		index.writeInt(terms.size());
+		index.writeFloat(labels.isEmpty() ? 0 : (float) totalLength / labels.size());
+		index.writeInt(termIndexStart);
+		index.writeInt(documentIndexStart);
+		index.writeInt(0);	//Reserved
+		
+		i = 0;
+		for(Postings termPostings: terms.values()){
+			index.writeInt(termsStart + termOffsets[i]);
+			index.writeInt(postingsStart + postingOffsets[i]);
+			index.writeInt(termPostings.size);
+			i++;
+		}
+		for(int offset: documentOffsets)
+			index.writeInt(offset);
+		termBytes.writeTo(index);
+		postingBytes.writeTo(index);
+		documentBytes.writeTo(index);
+		index.flush();
+	}
+	
+	private static void writeString(DataOutputStream out, String text) throws IOException {
+		byte[] bytes = text.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
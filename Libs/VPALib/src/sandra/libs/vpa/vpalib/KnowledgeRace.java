@@ -0,0 +1,295 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Queries several knowledge sources in parallel and keeps the first adequate (not empty) answer, so that the 
+ * user does not wait for the sources one after the other. Each source has a deadline: if it has not answered 
+ * by then, its lookup is cancelled and the race goes on with the rest. When a source wins, the lookups of the 
+ * others are cancelled. If no source answers in time, the listener is told that there is no answer (e.g. to 
+ * fall back to a web search in the browser).
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.1, 10/19/26
+ *
+ */
+public class KnowledgeRace {
+	
+	private static final String LOGTAG = "KNOWLEDGERACE";
+	
+	/**
+	 * Receives the result of a race, in the main thread unless another executor is set
+	 */
+	public interface Listener {
+		void processAnswer(String source, String answer);
+		void processNoAnswer();
+	}
+	
+	private static ScheduledExecutorService timer = null;	//Shared by all the races to expire the deadlines
+	
+	private final ArrayList<KnowledgeSource> sources = new ArrayList<KnowledgeSource>();
+	private final ArrayList<Long> deadlines = new ArrayList<Long>();
+	private Executor callbackExecutor = null;
+	
+	/**
+	 * Adds a source to the race
+	 * @param deadlineMillis time that the source has to answer since the race starts
+	 */
+	public synchronized void addSource(KnowledgeSource source, long deadlineMillis){
+		sources.add(source);
+		deadlines.add(deadlineMillis);
+	}
+	
+	/**
+	 * Adds a source to the race in a position of the list of sources. The sources are queried in the order of 
+	 * the list, so a source that answers immediately (e.g. a local index) should be the first one: if it wins, 
+	 * the rest are not queried.
+	 * @param position position of the source, 0 for the first one
+	 * @param deadlineMillis time that the source has to answer since the race starts
+	 */
+	public synchronized void addSource(int position, KnowledgeSource source, long deadlineMillis){
+		sources.add(position, source);
+		deadlines.add(position, deadlineMillis);
+	}
+	
+	public synchronized int getSourceCount(){
+		return sources.size();
+	}
+	
+	/**
+	 * Sets the executor in which the listeners are invoked. By default they are invoked in the main (UI) thread,
+	 * but this can be changed, e.g. to use the race outside Android.
+	 */
+	public synchronized void setCallbackExecutor(Executor executor){
+		callbackExecutor = executor;
+	}
+	
+	private synchronized Executor getCallbackExecutor(){
+		if(callbackExecutor==null){
+			final Handler handler = new Handler(Looper.getMainLooper());
+			callbackExecutor = new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					handler.post(command);
+				}
+			};
+		}
+		return callbackExecutor;
+	}
+	
+	private static synchronized ScheduledExecutorService getTimer(){
+		if(timer==null){
+			timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "KnowledgeRace-timer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return timer;
+	}
+	
+	/**
+	 * Starts looking for an answer in all the sources
+	 * @param query text searched
+	 * @param listener object that receives the first adequate answer, or is told that there is none
+	 * @return the race, so that it can be cancelled
+	 */
+	public Race start(String query, Listener listener){
+		KnowledgeSource[] raceSources;
+		long[] raceDeadlines;
+		synchronized(this){
+			raceSources = sources.toArray(new KnowledgeSource[sources.size()]);
+			raceDeadlines = new long[deadlines.size()];
+			for(int i=0; i<raceDeadlines.length; i++)
+				raceDeadlines[i] = deadlines.get(i);
+		}
+		
+		Race race = new Race(raceSources, listener, getCallbackExecutor());
+		race.start(query, raceDeadlines);
+		return race;
+	}
+	
+	/**
+	 * Race in progress
+	 */
+	public static class Race {
+		
+		private final KnowledgeSource[] sources;
+		private final KnowledgeSource.Lookup[] lookups;
+		private final ScheduledFuture<?>[] timeouts;
+		private final boolean[] done;
+		private final Listener listener;
+		private final Executor executor;
+		private final long startTime = System.currentTimeMillis();
+		private int pending;
+		private boolean finished = false;
+		private boolean cancelled = false;
+		
+		private Race(KnowledgeSource[] sources, Listener listener, Executor executor){
+			this.sources = sources;
+			this.lookups = new KnowledgeSource.Lookup[sources.length];
+			this.timeouts = new ScheduledFuture<?>[sources.length];
+			this.done = new boolean[sources.length];
+			this.listener = listener;
+			this.executor = executor;
+			this.pending = sources.length;
+		}
+		
+		private void start(String query, long[] deadlines){
+			if(sources.length==0){
+				finish(-1, null);
+				return;
+			}
+			
+			for(int i=0; i<sources.length; i++){
+				final int index = i;
+				synchronized(this){
+					if(finished)	//A source answered while it was started, the rest are not queried
+						return;
+					timeouts[i] = getTimer().schedule(new Runnable() {
+						@Override
+						public void run() {
+							expired(index);
+						}
+					}, deadlines[i], TimeUnit.MILLISECONDS);
+				}
+				
+				KnowledgeSource.Lookup lookup = sources[i].lookup(query, new KnowledgeSource.Callback() {
+					@Override
+					public void processAnswer(String answer) {
+						answered(index, answer);
+					}
+				});
+				
+				synchronized(this){
+					lookups[i] = lookup;
+					if(finished)	//The race finished while the lookup started, cancelling a finished lookup has no effect
+						lookup.cancel();
+				}
+			}
+		}
+		
+		private void answered(int index, String answer){
+			synchronized(this){
+				if(finished || done[index])
+					return;
+				done[index] = true;
+				timeouts[index].cancel(false);
+				
+				if(answer==null || answer.trim().length()==0){
+					Log.d(LOGTAG, sources[index].getName()+" has no answer after "+(System.currentTimeMillis()-startTime)+" ms");
+					if(--pending > 0)
+						return;
+					index = -1;
+					answer = null;
+				}
+				else
+					Log.d(LOGTAG, sources[index].getName()+" answered first after "+(System.currentTimeMillis()-startTime)+" ms");
+			}
+			finish(index, answer);
+		}
+		
+		private void expired(int index){
+			synchronized(this){
+				if(finished || done[index])
+					return;
+				done[index] = true;
+				if(lookups[index]!=null)
+					lookups[index].cancel();
+				Log.d(LOGTAG, sources[index].getName()+" missed its deadline");
+				if(--pending > 0)
+					return;
+			}
+			finish(-1, null);
+		}
+		
+		/**
+		 * Cancels the lookups that are still running and sends the result to the listener
+		 * @param winner index of the source that answered, -1 if there is no answer
+		 */
+		private void finish(final int winner, final String answer){
+			synchronized(this){
+				if(finished)
+					return;
+				finished = true;
+				cancelPending();
+			}
+			
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					synchronized(Race.this){
+						if(cancelled)	//Cancelled after the result was sent to the executor
+							return;
+					}
+					if(winner>=0)
+						listener.processAnswer(sources[winner].getName(), answer);
+					else
+						listener.processNoAnswer();
+				}
+			});
+		}
+		
+		private void cancelPending(){
+			for(int i=0; i<sources.length; i++){
+				if(!done[i]){
+					done[i] = true;
+					if(lookups[i]!=null)
+						lookups[i].cancel();
+					if(timeouts[i]!=null)
+						timeouts[i].cancel(false);
+				}
+			}
+		}
+		
+		/**
+		 * Stops the race, the listener is not invoked (even if the race had already finished, as long as the listener 
+		 * has not started yet, e.g. when both are invoked in the main thread)
+		 */
+		public synchronized void cancel(){
+			cancelled = true;
+			finished = true;
+			cancelPending();
+		}
+		
+		public synchronized boolean isFinished(){
+			return finished;
+		}
+	}
+}
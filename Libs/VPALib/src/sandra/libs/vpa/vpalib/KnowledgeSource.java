@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+/**
+ * Source of answers for the searches of the bots (e.g. DBpedia), which <code>KnowledgeRace</code> can query 
+ * in parallel with other sources.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ *
+ */
+public interface KnowledgeSource {
+	
+	/**
+	 * Receives the answer of a lookup
+	 */
+	interface Callback {
+		/**
+		 * It can be invoked in any thread
+		 * @param answer text of the answer, or null if the source found nothing or failed
+		 */
+		void processAnswer(String answer);
+	}
+	
+	/**
+	 * Lookup in progress
+	 */
+	interface Lookup {
+		/**
+		 * Stops the lookup if it has not finished, the callback is not invoked afterwards
+		 */
+		void cancel();
+	}
+	
+	/**
+	 * Name of the source, used in the log
+	 */
+	String getName();
+	
+	/**
+	 * Starts looking for an answer in the background
+	 * @param query text searched (e.g. "type 2 diabetes")
+	 * @param callback object that receives the answer
+	 * @return the lookup, so that it can be cancelled
+	 */
+	Lookup lookup(String query, Callback callback);
+}
@@ -0,0 +1,348 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Knowledge source that answers the searches of the bots offline, with an inverted index of entities built
+ * with the KnowledgeIndexer tool (e.g. from a dump of the abstracts of DBpedia). The entities are ranked with 
+ * BM25, as in the keyword search of DBpedia, and the description of the best one is the answer.
+ * 
+ * The index is read from a (memory-mapped) buffer without loading it, so it can be used with large indexes,
+ * and a search only reads the postings of the terms of the query, which takes a few milliseconds. The postings of 
+ * the terms that are in many documents (e.g. "city") are not read completely: only the documents found with 
+ * the rarer terms of the query are looked up in them.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ *
+ */
+public class LocalKnowledgeSource implements KnowledgeSource {
+	
+	private static final float K1 = 1.2f;	//Saturation of the frequency of the terms in BM25
+	private static final float B = 0.75f;	//Normalization of the length of the documents in BM25
+	private static final int COMMON_TERM_RATIO = 16;	//A term is common in a search if it is in more documents than this times the documents found
+	
+	private static final HashSet<String> STOPWORDS = new HashSet<String>(Arrays.asList(
+			"a", "an", "and", "are", "as", "at", "by", "for", "from", "in", "is", "of", "on", "or", "the", "to", "was", "were", "with"));
+	
+	private final ByteBuffer index;
+	private final String name;
+	private final int documentCount;
+	private final int termCount;
+	private final float averageLength;
+	private final int termIndex;
+	private final int documentIndex;
+	
+	/**
+	 * Entity found in a search
+	 */
+	public static class Hit {
+		private final String label;
+		private final String description;
+		private final float score;
+		
+		Hit(String label, String description, float score){
+			this.label = label;
+			this.description = description;
+			this.score = score;
+		}
+		
+		public String getLabel(){
+			return label;
+		}
+		
+		public String getDescription(){
+			return description;
+		}
+		
+		public float getScore(){
+			return score;
+		}
+	}
+	
+	/**
+	 * Opens an index
+	 * @param name name of the source, used in the log
+	 * @param index contents of the index file, usually memory-mapped
+	 * @throws IOException if the buffer is not an index or its version is not supported
+	 */
+	public LocalKnowledgeSource(String name, ByteBuffer index) throws IOException {
+		this.name = name;
+		this.index = index;
+		if(index.capacity() < KnowledgeIndexWriter.HEADER_SIZE || index.getInt(0) != KnowledgeIndexWriter.MAGIC)
+			throw new IOException("Not a knowledge index");
+		if(index.getInt(4) != KnowledgeIndexWriter.VERSION)
+			throw new IOException("Unsupported version of the knowledge index: "+index.getInt(4));
+		documentCount = index.getInt(8);
+		termCount = index.getInt(12);
+		averageLength = index.getFloat(16);
+		termIndex = index.getInt(20);
+		documentIndex = index.getInt(24);
+	}
+	
+	/**
+	 * Opens an index file, which is memory-mapped
+	 * @throws IOException if the file cannot be read or it is not an index
+	 */
+	public LocalKnowledgeSource(File file) throws IOException {
+		this(file.getName(), map(file));
+	}
+	
+	private static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			return in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+		} finally {
+			in.close();
+		}
+	}
+	
+	@Override
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Number of entities in the index
+	 */
+	public int getDocumentCount(){
+		return documentCount;
+	}
+	
+	/**
+	 * The search is carried out in the thread that invokes the lookup, as it only takes a few milliseconds.
+	 * The answer is the description of the best entity, or null if it does not contain at least half of the 
+	 * words of the query, in which case the query is probably about something that is not in the index.
+	 */
+	@Override
+	public Lookup lookup(String query, Callback callback) {
+		String answer = null;
+		Hit[] hits = search(query, 1);
+		if(hits.length>0)
+			answer = hits[0].getDescription();
+		callback.processAnswer(answer);
+		
+		return new Lookup() {
+			@Override
+			public void cancel() {
+				//The lookup has already finished
+			}
+		};
+	}
+	
+	/**
+	 * Looks for the entities that best match a query
+	 * @param query keywords searched (e.g. "type 2 diabetes")
+	 * @param maxHits maximum number of entities returned
+	 * @return the entities that contain at least half of the terms of the query, from best to worst
+	 */
+	public Hit[] search(String query, int maxHits){
+		ArrayList<String> terms = new ArrayList<String>(new HashSet<String>(tokenize(query)));
+		HashMap<Integer, float[]> scores = new HashMap<Integer, float[]>();	//Score and number of terms found of each document
+		
+		//The rarest terms are read first, the postings of the common terms are only searched for the documents already found
+		ArrayList<Integer> entries = new ArrayList<Integer>();
+		for(String term: terms){
+			int entry = findTerm(term);
+			if(entry>=0)
+				entries.add(entry);
+		}
+		Collections.sort(entries, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return index.getInt(a+8) - index.getInt(b+8);
+			}
+		});
+		
+		for(int entry: entries){
+			int postings = index.getInt(entry+4);
+			int frequency = index.getInt(entry+8);
+			float idf = (float) Math.log(1 + (documentCount - frequency + 0.5) / (frequency + 0.5));
+			
+			if(!scores.isEmpty() && frequency > COMMON_TERM_RATIO*scores.size()){
+				for(Map.Entry<Integer, float[]> documentScore: scores.entrySet()){
+					int posting = findPosting(postings, frequency, documentScore.getKey());
+					if(posting>=0)
+						addScore(documentScore.getValue(), documentScore.getKey(), index.getInt(posting+4), idf);
+				}
+			}
+			else {
+				for(int i=0; i<frequency; i++){
+					int document = index.getInt(postings + 8*i);
+					float[] documentScore = scores.get(document);
+					if(documentScore==null){
+						documentScore = new float[2];
+						scores.put(document, documentScore);
+					}
+					addScore(documentScore, document, index.getInt(postings + 8*i + 4), idf);
+				}
+			}
+		}
+		
+		ArrayList<Map.Entry<Integer, float[]>> ranking = new ArrayList<Map.Entry<Integer, float[]>>();
+		for(Map.Entry<Integer, float[]> documentScore: scores.entrySet())
+			if(documentScore.getValue()[1]*2 >= terms.size())
+				ranking.add(documentScore);
+		Collections.sort(ranking, new Comparator<Map.Entry<Integer, float[]>>() {
+			@Override
+			public int compare(Map.Entry<Integer, float[]> a, Map.Entry<Integer, float[]> b) {
+				return Float.compare(b.getValue()[0], a.getValue()[0]);
+			}
+		});
+		
+		Hit[] hits = new Hit[Math.min(maxHits, ranking.size())];
+		for(int i=0; i<hits.length; i++)
+			hits[i] = readHit(ranking.get(i).getKey(), ranking.get(i).getValue()[0]);
+		return hits;
+	}
+	
+	/**
+	 * Adds the BM25 score of a term to the score of a document
+	 * @param documentScore score of the document and number of terms of the query found in it
+	 */
+	private void addScore(float[] documentScore, int document, int termFrequency, float idf){
+		int length = index.getInt(index.getInt(documentIndex + 4*document));
+		documentScore[0] += idf * termFrequency * (K1+1) / (termFrequency + K1 * (1 - B + B * length / averageLength));
+		documentScore[1]++;
+	}
+	
+	/**
+	 * Binary search of a document in the postings of a term, which are sorted by document
+	 * @return offset of the posting, or -1 if the term is not in the document
+	 */
+	private int findPosting(int postings, int frequency, int document){
+		int low = 0;
+		int high = frequency-1;
+		while(low<=high){
+			int middle = (low+high) >>> 1;
+			int current = index.getInt(postings + 8*middle);
+			if(current<document)
+				low = middle+1;
+			else if(current>document)
+				high = middle-1;
+			else
+				return postings + 8*middle;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Binary search of a term in the term index
+	 * @return offset of the entry of the term, or -1 if it is not in the index
+	 */
+	private int findTerm(String term){
+		byte[] key;
+		try {
+			key = term.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return -1;
+		}
+		
+		int low = 0;
+		int high = termCount-1;
+		while(low<=high){
+			int middle = (low+high) >>> 1;
+			int entry = termIndex + 12*middle;
+			int comparison = compare(index.getInt(entry), key);
+			if(comparison<0)
+				low = middle+1;
+			else if(comparison>0)
+				high = middle-1;
+			else
+				return entry;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Compares the UTF-8 bytes of a term in the index with a key. The order of the bytes as unsigned numbers 
+	 * is the order of the strings (TreeMap) for the characters of the Basic Multilingual Plane.
+	 */
+	private int compare(int offset, byte[] key){
+		int length = index.getInt(offset);
+		for(int i=0; i<length && i<key.length; i++){
+			int difference = (index.get(offset+4+i) & 0xFF) - (key[i] & 0xFF);
+			if(difference!=0)
+				return difference;
+		}
+		return length - key.length;
+	}
+	
+	private Hit readHit(int document, float score){
+		int offset = index.getInt(documentIndex + 4*document) + 4;
+		String label = readString(offset);
+		String description = readString(offset + 4 + index.getInt(offset));
+		return new Hit(label, description, score);
+	}
+	
+	private String readString(int offset){
+		byte[] bytes = new byte[index.getInt(offset)];
+		for(int i=0; i<bytes.length; i++)
+			bytes[i] = index.get(offset+4+i);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return "";
+		}
+	}
+	
+	/**
+	 * Splits a text into the terms that are indexed: lowercase words and numbers, without stopwords
+	 */
+	static ArrayList<String> tokenize(String text){
+		ArrayList<String> terms = new ArrayList<String>();
+		if(text==null)
+			return terms;
+		
+		String lowercase = text.toLowerCase(Locale.ENGLISH);
+		int start = -1;
+		for(int i=0; i<=lowercase.length(); i++){
+			boolean inWord = i<lowercase.length() && Character.isLetterOrDigit(lowercase.charAt(i));
+			if(inWord && start<0)
+				start = i;
+			else if(!inWord && start>=0){
+				String term = lowercase.substring(start, i);
+				if(!STOPWORDS.contains(term))
+					terms.add(term);
+				start = -1;
+			}
+		}
+		return terms;
+	}
+}
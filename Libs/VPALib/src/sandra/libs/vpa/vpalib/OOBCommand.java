@@ -0,0 +1,200 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command in the <code>&lt;oob&gt;</code> element of the output of a bot (e.g. <code>&lt;launch&gt;com.android.chrome&lt;/launch&gt;</code>),
+ * with its attributes, its text and the commands nested in it (e.g. <code>&lt;url&gt;&lt;search&gt;...&lt;/search&gt;&lt;/url&gt;</code>).
+ * The commands are carried out by the handlers registered in the <code>OOBDispatcher</code> of the bot.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ *
+ */
+public final class OOBCommand {
+	
+	private final String name;
+	private HashMap<String, String> attributes = null;		//Created only for the commands that have attributes
+	private final StringBuilder text = new StringBuilder();
+	private final ArrayList<OOBCommand> children = new ArrayList<OOBCommand>();
+	
+	private OOBCommand(String name){
+		this.name = name;
+	}
+	
+	/**
+	 * Name of the tag of the command, in lowercase
+	 */
+	public String getName(){
+		return name;
+	}
+	
+	/**
+	 * Value of an attribute, or null if the command does not have it
+	 */
+	public String getAttribute(String attribute){
+		return attributes==null ? null : attributes.get(attribute);
+	}
+	
+	/**
+	 * Text of the command, without the text of the nested commands
+	 */
+	public String getText(){
+		return text.toString().trim();
+	}
+	
+	/**
+	 * First nested command with the name indicated, or null if there is none
+	 */
+	public OOBCommand getChild(String childName){
+		for(OOBCommand child: children)
+			if(child.name.equals(childName))
+				return child;
+		return null;
+	}
+	
+	public List<OOBCommand> getChildren(){
+		return Collections.unmodifiableList(children);
+	}
+	
+	@Override
+	public String toString(){
+		StringBuilder markup = new StringBuilder("<").append(name).append('>').append(getText());
+		for(OOBCommand child: children)
+			markup.append(child);
+		return markup.append("</").append(name).append('>').toString();
+	}
+	
+	/**
+	 * Reads the commands between two positions of an output (the contents of an oob element) in a single pass. 
+	 * The markup does not need to be well formed: unclosed tags are closed at the end, and closing tags without 
+	 * an opening tag are ignored.
+	 * @param commands list where the commands at the top level are added
+	 */
+	static void parse(String output, int from, int to, List<OOBCommand> commands){
+		ArrayList<OOBCommand> open = new ArrayList<OOBCommand>();
+		int position = from;
+		
+		while(position<to){
+			int tagStart = output.indexOf('<', position);
+			if(tagStart<0 || tagStart>=to)
+				tagStart = to;
+			if(tagStart>position && !open.isEmpty())
+				open.get(open.size()-1).text.append(decode(output.substring(position, tagStart)));
+			if(tagStart==to)
+				break;
+			
+			int tagEnd = output.indexOf('>', tagStart);
+			if(tagEnd<0 || tagEnd>=to)
+				break;
+			String tag = output.substring(tagStart+1, tagEnd).trim();
+			position = tagEnd+1;
+			
+			if(tag.startsWith("/")){
+				//Closes the command and any unclosed command nested in it
+				String closed = tag.substring(1).trim().toLowerCase(Locale.ENGLISH);
+				for(int i=open.size()-1; i>=0; i--){
+					if(open.get(i).name.equals(closed)){
+						while(open.size()>i)
+							open.remove(open.size()-1);
+						break;
+					}
+				}
+			}
+			else if(tag.length()>0 && !tag.startsWith("!") && !tag.startsWith("?")){
+				boolean empty = tag.endsWith("/");
+				OOBCommand command = tag(empty ? tag.substring(0, tag.length()-1) : tag);
+				if(open.isEmpty())
+					commands.add(command);
+				else
+					open.get(open.size()-1).children.add(command);
+				if(!empty)
+					open.add(command);
+			}
+		}
+	}
+	
+	/**
+	 * Creates a command from the contents of its tag: the name and the attributes
+	 */
+	private static OOBCommand tag(String tag){
+		int nameEnd = 0;
+		while(nameEnd<tag.length() && !Character.isWhitespace(tag.charAt(nameEnd)))
+			nameEnd++;
+		OOBCommand command = new OOBCommand(tag.substring(0, nameEnd).toLowerCase(Locale.ENGLISH));
+		
+		int position = nameEnd;
+		while(position<tag.length()){
+			int equals = tag.indexOf('=', position);
+			if(equals<0)
+				break;
+			String attribute = tag.substring(position, equals).trim();
+			int valueStart = equals+1;
+			while(valueStart<tag.length() && Character.isWhitespace(tag.charAt(valueStart)))
+				valueStart++;
+			if(valueStart==tag.length())
+				break;
+			
+			char quote = tag.charAt(valueStart);
+			int valueEnd;
+			String value;
+			if(quote=='"' || quote=='\''){
+				valueEnd = tag.indexOf(quote, valueStart+1);
+				if(valueEnd<0)
+					valueEnd = tag.length();
+				value = tag.substring(valueStart+1, valueEnd);
+				valueEnd++;
+			}
+			else {
+				valueEnd = valueStart;
+				while(valueEnd<tag.length() && !Character.isWhitespace(tag.charAt(valueEnd)))
+					valueEnd++;
+				value = tag.substring(valueStart, valueEnd);
+			}
+			
+			if(attribute.length()>0){
+				if(command.attributes==null)
+					command.attributes = new HashMap<String, String>();
+				command.attributes.put(attribute, decode(value));
+			}
+			position = valueEnd;
+		}
+		return command;
+	}
+	
+	/**
+	 * Replaces the predefined XML entities
+	 */
+	private static String decode(String text){
+		if(text.indexOf('&')<0)
+			return text;
+		return text.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'").replace("&amp;", "&");
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.vpa.vpalib;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.util.Log;
+
+/**
+ * Registry of the handlers of the commands in the <code>&lt;oob&gt;</code> element of the output of a bot, keyed 
+ * by the name of their tags. New device actions (e.g. <code>&lt;alarm&gt;</code>, <code>&lt;sms&gt;</code> or 
+ * <code>&lt;calendar&gt;</code>) are added by registering a handler for them, without changing the bot.
+ * 
+ * Handlers that use the user interface (e.g. start an activity) are registered for the main thread, and they 
+ * are invoked in the thread that dispatches the commands. The rest are invoked in a background thread, 
+ * in the order of the commands, so that they do not delay the user interface.
+ *
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ *
+ */
+public class OOBDispatcher {
+	
+	private static final String LOGTAG = "OOBDISPATCHER";
+	
+	private static Executor sharedExecutor = null;	//Background thread shared by all the dispatchers
+	
+	private final HashMap<String, Registration> handlers = new HashMap<String, Registration>();
+	private Executor backgroundExecutor = null;
+	
+	private static class Registration {
+		final OOBHandler handler;
+		final boolean mainThread;
+		
+		Registration(OOBHandler handler, boolean mainThread){
+			this.handler = handler;
+			this.mainThread = mainThread;
+		}
+	}
+	
+	/**
+	 * Registers the handler of a command, replacing the previous one if there was any
+	 * @param tag name of the tag of the command (e.g. "alarm"), case is ignored
+	 * @param handler object that carries out the command
+	 * @param mainThread true if the handler must be invoked in the main thread (e.g. to start an activity)
+	 */
+	public synchronized void register(String tag, OOBHandler handler, boolean mainThread){
+		handlers.put(tag.toLowerCase(Locale.ENGLISH), new Registration(handler, mainThread));
+	}
+	
+	public synchronized void unregister(String tag){
+		handlers.remove(tag.toLowerCase(Locale.ENGLISH));
+	}
+	
+	public synchronized boolean isRegistered(String tag){
+		return handlers.containsKey(tag.toLowerCase(Locale.ENGLISH));
+	}
+	
+	/**
+	 * Sets the executor in which the background handlers are invoked. By default they are invoked in a single 
+	 * background thread shared by all the dispatchers.
+	 */
+	public synchronized void setBackgroundExecutor(Executor executor){
+		backgroundExecutor = executor;
+	}
+	
+	private synchronized Executor getBackgroundExecutor(){
+		if(backgroundExecutor==null)
+			backgroundExecutor = getSharedExecutor();
+		return backgroundExecutor;
+	}
+	
+	private static synchronized Executor getSharedExecutor(){
+		if(sharedExecutor==null){
+			sharedExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "OOBDispatcher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return sharedExecutor;
+	}
+	
+	/**
+	 * Carries out the commands with their handlers. The handlers registered for the main thread are invoked in 
+	 * the calling thread, which should be the main thread, and the rest are queued in the background. Commands 
+	 * without a handler are ignored.
+	 * @throws Exception the first exception thrown by a handler invoked in the calling thread, after all the commands have been dispatched
+	 */
+	public void dispatch(List<OOBCommand> commands) throws Exception {
+		Exception error = null;
+		
+		for(final OOBCommand command: commands){
+			final Registration registration;
+			synchronized(this){
+				registration = handlers.get(command.getName());
+			}
+			if(registration==null){
+				Log.w(LOGTAG, "No handler for the command "+command.getName());
+				continue;
+			}
+			
+			if(registration.mainThread){
+				try {
+					registration.handler.handle(command);
+				} catch (Exception e) {
+					if(error==null)
+						error = e;
+				}
+			}
+			else {
+				getBackgroundExecutor().execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							registration.handler.handle(command);
+						} catch (Exception e) {
+							Log.e(LOGTAG, "The command "+command.getName()+" could not be carried out: "+e.getMessage());
+						}
+					}
+				});
+			}
+		}
+		
+		if(error!=null)
+			throw error;
+	}
+}
@@ -22,13 +22,6 @@
 
 package sandra.libs.util.xmllib;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-
 import android.os.AsyncTask;
 
 /**
@@ -38,9 +31,12 @@ import android.os.AsyncTask;
  * 		- It does not produce any type of progress values (void)
  * 		- It produces a String as a result of the background computation
  * 
+ * The file is retrieved with the shared <code>XMLClient</code>, which should be used directly in new code 
+ * as it provides timeouts, connection reuse and cancellation.
+ * 
  * @author Zoraida Callejas
  * @author Michael McTear
- * @version 1.3, 08/18/13
+ * @version 1.4, 10/19/26
  */	
 
 public class RetrieveXMLTask extends AsyncTask<String, Void, String> {
@@ -56,78 +52,6 @@ public class RetrieveXMLTask extends AsyncTask<String, Void, String> {
 	public Exception exception = null;		
 
 
-	/**
-	 * Writes a string with the contents of the file in the specified URL
-	 * Modified from the method with the same name in http://www.edumobile.org/android/android-programming-tutorials/data-fetching/ 
-	 * 
-	 * @note Pay attention to include the Internet permission in your manifest: (<uses-permission android:name="android.permission.INTERNET" /> )
-	 * 
-	 * @note We use HttpURLConnection (from Android), though it is also possible to use DefaultHttpClient (from Apache). For new apps it is recommended to use HttpURLconnection better
-	 * (the android documentation redirects to this blog: http://android-developers.blogspot.com/2011/09/androids-http-clients.html) 
-	 */
-	private String saveXmlInString(String urlString)
-	{
-	    InputStream in = null;
-	    int response = -1;
-	    String result=null;
-	                
-	    URL url=null;
-	    HttpURLConnection connection=null;
-	    
-	    try { 
-	    	 url = new URL(urlString);
-	    	 connection = (HttpURLConnection) url.openConnection();
-	    	 connection.setAllowUserInteraction(false);
-	    	 connection.setInstanceFollowRedirects(true);
-	    	 connection.setRequestMethod("GET");
-	    	 connection.connect();
-	     	 response = connection.getResponseCode();
-	     	
-	     	 if (response == HttpURLConnection.HTTP_OK) {
-	        	in = connection.getInputStream();                                
-	     	 }
-	        
-	     	 result = readStreamToString(in);
-
-	     	 /*
-	 	     * http://developer.android.com/reference/java/net/HttpURLConnection.html
-	 	     * Once the response body has been read, the HttpURLConnection should be closed by calling disconnect(). 
-	 	     * Disconnecting releases the resources held by a connection so they may be closed or reused. 
-	 	     */
-	 	     connection.disconnect(); 
-	    }
-	    catch (Exception ex)
-	    {
-	    	exception = ex; 		
-	    }
-	    
-	    return result;    
-	}
-	
-	
-	/**
-	 * Creates a string with the contents read from an input stream
-	 * Follows the method suggested here: http://stackoverflow.com/questions/2492076/android-reading-from-an-input-stream-efficiently
-	 * @throws Exception When the inputstream is null or there is an error while reading it
-	 */
-	private String readStreamToString(InputStream in) throws IOException {
-		
-		if(in==null){
-			throw new IOException("InputStream could not be read (in==null)");
-		}
-				
-		BufferedReader bufRead = new BufferedReader(new InputStreamReader(in));
-		StringBuilder text = new StringBuilder();
-		String line;
-		
-		while ((line = bufRead.readLine()) != null) 
-		    text.append(line); //May throw an IOException
-	
-		return text.toString();
-		
-	} 
-	
-
 	/**
 	 * Sends the results back to the invoking activity using the AsyncResponse instance "delegate" (see the AsyncResponse class).
 	 * 
@@ -149,11 +73,12 @@ public class RetrieveXMLTask extends AsyncTask<String, Void, String> {
 	@Override
 	public String doInBackground(String... urls) {
 
-		String xml_contents;
-		xml_contents = saveXmlInString(urls[0]);
-		
-		if(exception!=null)
-			xml_contents = saveXmlInString(urls[1]);
+		String xml_contents = null;
+		try {
+			xml_contents = XMLClient.getInstance().retrieve(urls[0], urls.length>1 ? urls[1] : null);
+		} catch (Exception ex) {
+			exception = ex;
+		}
 		
 		return xml_contents;
 	}
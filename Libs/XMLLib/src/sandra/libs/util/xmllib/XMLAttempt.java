@@ -0,0 +1,171 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.util.xmllib;
+
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+
+import sandra.libs.util.xmllib.XMLRequestMetrics.Phase;
+import sandra.libs.util.xmllib.XMLRequestMetrics.Source;
+
+/**
+ * Attempt to retrieve a file from one URL. A request may make several attempts at the same time
+ * (e.g. when it is hedged with the fallback URL), and the ones that are no longer needed are cancelled
+ * by closing their connection. 
+ * 
+ * The attempt also keeps the measurements of its network phases, which are reported in the 
+ * <code>XMLRequestMetrics</code> of the requests if it provides the response.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+class XMLAttempt {
+
+	private HttpURLConnection connection = null;	//Connection currently open
+	private boolean cancelled = false;
+	private boolean finished = false;
+	
+	private final XMLFlight flight;		//Flight that the attempt belongs to, or null
+	
+	//Measurements, written only by the thread that runs the attempt
+	private final long[] durations = new long[Phase.values().length];
+	private int status = -1;
+	private int retries = 0;
+	private long bytesReceived = -1;
+	private long bodyBytes = -1;
+	private Source source = Source.NETWORK;
+	
+	/**
+	 * Attempt that does not belong to any request (e.g. background revalidations)
+	 */
+	XMLAttempt(){
+		this(null);
+	}
+	
+	XMLAttempt(XMLFlight flight){
+		this.flight = flight;
+		Arrays.fill(durations, -1);
+	}
+	
+	/**
+	 * Sets the connection currently used by the attempt. If the attempt has been cancelled, it is closed immediately.
+	 */
+	void setConnection(HttpURLConnection connection){
+		boolean close;
+		synchronized(this){
+			this.connection = connection;
+			close = cancelled;
+		}
+		if(close)
+			connection.disconnect();
+	}
+	
+	/**
+	 * Indicates that the file has been read, so that cancelling the attempt does not close the connection (it can be reused)
+	 */
+	synchronized void finish(){
+		finished = true;
+	}
+	
+	/**
+	 * Cancels the attempt if it has not finished, closing its connection
+	 */
+	void cancel(){
+		HttpURLConnection current;
+		synchronized(this){
+			if(finished || cancelled)
+				return;
+			cancelled = true;
+			current = connection;
+		}
+		if(current!=null)
+			current.disconnect();
+	}
+	
+	synchronized boolean isCancelled(){
+		return cancelled;
+	}
+	
+	/**
+	 * Indicates that the attempt has obtained the file. The first attempt of a flight that succeeds provides its metrics.
+	 */
+	void succeeded(){
+		if(flight!=null)
+			flight.setWinner(this);
+	}
+	
+	void setDuration(Phase phase, long millis){
+		durations[phase.ordinal()] = millis;
+	}
+	
+	void setStatus(int status){
+		this.status = status;
+	}
+	
+	void setRetries(int retries){
+		this.retries = retries;
+	}
+	
+	void setSource(Source source){
+		this.source = source;
+	}
+	
+	/**
+	 * Adds bytes read from the network (before decompressing them)
+	 */
+	void countReceived(long bytes){
+		bytesReceived = Math.max(0, bytesReceived) + bytes;
+	}
+	
+	/**
+	 * Adds bytes of the body (once decompressed)
+	 */
+	void countBody(long bytes){
+		bodyBytes = Math.max(0, bodyBytes) + bytes;
+	}
+	
+	long[] getDurations(){
+		return durations.clone();
+	}
+	
+	int getStatus(){
+		return status;
+	}
+	
+	int getRetries(){
+		return retries;
+	}
+	
+	long getBytesReceived(){
+		return bytesReceived;
+	}
+	
+	long getBodyBytes(){
+		return bodyBytes;
+	}
+	
+	Source getSource(){
+		return source;
+	}
+}
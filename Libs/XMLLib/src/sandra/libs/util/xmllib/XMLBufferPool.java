@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.util.xmllib;
+
+import java.util.ArrayList;
+
+/**
+ * Pool of byte arrays reused to read the responses, so that each response does not allocate
+ * (and leave to the garbage collector) its own buffers. Arrays larger than a maximum size are 
+ * not kept, so that a single large response does not retain memory.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+class XMLBufferPool {
+
+	static final int CHUNK_SIZE = 8 * 1024;
+	private static final int MAX_POOLED_SIZE = 256 * 1024;
+	private static final int MAX_POOLED_BUFFERS = 16;
+	
+	private static final ArrayList<byte[]> pool = new ArrayList<byte[]>();
+	
+	private XMLBufferPool(){}
+	
+	/**
+	 * Returns a buffer of at least the size indicated, from the pool if possible
+	 */
+	static byte[] acquire(int minSize){
+		synchronized(pool){
+			for(int i=pool.size()-1; i>=0; i--)
+				if(pool.get(i).length >= minSize)
+					return pool.remove(i);
+		}
+		return new byte[Math.max(minSize, CHUNK_SIZE)];
+	}
+	
+	/**
+	 * Returns a buffer to the pool. It must not be used afterwards.
+	 */
+	static void release(byte[] buffer){
+		if(buffer==null || buffer.length > MAX_POOLED_SIZE)
+			return;
+		synchronized(pool){
+			if(pool.size() < MAX_POOLED_BUFFERS)
+				pool.add(buffer);
+		}
+	}
+}
@@ -0,0 +1,1076 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.util.xmllib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import sandra.libs.util.xmllib.XMLRequestMetrics.Phase;
+import sandra.libs.util.xmllib.XMLRequestMetrics.Source;
+
+/**
+ * Client shared by all the libraries and apps to retrieve XML files from URLs. 
+ * 
+ * Unlike <code>RetrieveXMLTask</code>, which creates a new AsyncTask for each file, all requests are 
+ * executed in a dedicated pool with a bounded number of threads, connections have connect and read
+ * timeouts, and they are kept alive so that later requests to the same host reuse them. Responses are requested
+ * compressed (gzip or deflate) and decoded with the charset of their headers or XML declaration. Each request 
+ * returns an <code>XMLRequest</code> that can be used to cancel it or to wait for its result, and
+ * the result is also sent to an <code>XMLAsyncResponse</code> delegate in the main thread.
+ * 
+ * Large files can also be parsed while they are being received (<code>stream</code>), using an 
+ * <code>XMLStreamHandler</code> that can stop reading at any point.
+ * 
+ * Optionally, an <code>XMLResponseCache</code> can be set so that the files that have not changed are not downloaded again.
+ * 
+ * Slow and failing servers are handled according to an <code>XMLRequestPolicy</code>: requests are hedged with 
+ * their fallback URLs, failed attempts are retried with backoff, and each host has a circuit breaker.
+ * 
+ * Concurrent requests for the same URL share a single network call, and the result is sent to all their delegates.
+ * 
+ * Connections to the services that an app will use can be opened in advance with <code>preconnect</code>.
+ * 
+ * Each request has an <code>XMLPriority</code>: interactive requests (the default) are started before prefetches and
+ * background work, and one thread is always kept for them, so they are never delayed by lower priority requests.
+ * 
+ * The duration of the phases of each request, the sizes of the responses, the cache hits and the errors are sent to the 
+ * <code>XMLRequestListener</code>s of the client (e.g. an <code>XMLMetrics</code> that keeps rolling histograms).
+ * 
+ * @note Pay attention to include the Internet permission in your manifest: (<uses-permission android:name="android.permission.INTERNET" /> )
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+public class XMLClient {
+
+	public static final int DEFAULT_CONNECT_TIMEOUT = 10000;	//Milliseconds
+	public static final int DEFAULT_READ_TIMEOUT = 15000;		//Milliseconds
+	public static final int DEFAULT_THREADS = 4;				//Maximum number of simultaneous requests
+	
+	//Time after a response during which the connection to a host is expected to be still open (the keep-alive timeout of many servers)
+	public static final long WARM_CONNECTION_TIME = 5000;		//Milliseconds
+	
+	private static XMLClient singleton = null;
+	
+	private final XMLScheduler scheduler;			//Runs the requests in order of priority
+	private final ThreadPoolExecutor hedgeExecutor;	//Runs the attempts of hedged requests
+	private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+	
+	//Executor in which the delegates are invoked. If it is null, they are invoked in the main thread
+	private volatile Executor callbackExecutor = null;
+	
+	//Cache of the files retrieved, null if they are always downloaded
+	private volatile XMLResponseCache responseCache = null;
+	
+	//URLs whose cached files are being revalidated in the background
+	private final HashSet<String> revalidating = new HashSet<String>();
+	
+	//Hosts to which connections are being opened in advance
+	private final HashSet<String> preconnecting = new HashSet<String>();
+	
+	//Requests in progress, by the canonical form of their URLs, so that concurrent requests for the same file share the network call
+	private final HashMap<String, XMLFlight> flights = new HashMap<String, XMLFlight>();
+	
+	//Hedging, retries and circuit breaker
+	private volatile XMLRequestPolicy policy = new XMLRequestPolicy();
+	private final HashMap<String, XMLHostMonitor> hosts = new HashMap<String, XMLHostMonitor>();
+	private final Random random = new Random();
+	
+	//Listeners that receive the metrics of the requests
+	private final CopyOnWriteArrayList<XMLRequestListener> listeners = new CopyOnWriteArrayList<XMLRequestListener>();
+	
+	/**
+	 * Returns the client shared by the whole application, creating it the first time
+	 */
+	public static synchronized XMLClient getInstance(){
+		if(singleton==null)
+			singleton = new XMLClient(DEFAULT_THREADS);
+		return singleton;
+	}
+	
+	/**
+	 * Creates a client with its own pool of threads. Usually the shared client (<code>getInstance</code>) should be used instead.
+	 * @param threads Maximum number of requests executed at the same time, the rest wait in a queue (half of them are reserved for interactive requests)
+	 */
+	public XMLClient(int threads){
+		scheduler = new XMLScheduler(threads, daemonThreads("XMLClient"));
+		
+		//Each request can run two attempts at the same time. If there are more (e.g. synchronous requests from other threads), 
+		//the attempts that do not get a thread are rejected and those requests are not hedged
+		hedgeExecutor = new ThreadPoolExecutor(0, 2*threads, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), daemonThreads("XMLClient-attempt"), 
+				new ThreadPoolExecutor.AbortPolicy());
+	}
+	
+	private static ThreadFactory daemonThreads(final String name){
+		return new ThreadFactory() {
+			private int count = 0;
+			
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name+"-"+(++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+	
+	/**
+	 * Sets the timeouts for the following requests
+	 * @param connectMillis Maximum time to establish the connection, in milliseconds (0 for no timeout)
+	 * @param readMillis Maximum time waiting for data once connected, in milliseconds (0 for no timeout)
+	 */
+	public void setTimeouts(int connectMillis, int readMillis){
+		connectTimeout = connectMillis;
+		readTimeout = readMillis;
+	}
+	
+	/**
+	 * Sets the maximum number of requests of a priority class that are executed at the same time. By default, 
+	 * interactive requests can use all the threads, prefetches half of them and background work only one. 
+	 * Prefetches and background work together never use the threads reserved for interactive requests.
+	 */
+	public void setConcurrencyLimit(XMLPriority priority, int limit){
+		scheduler.setLimit(priority, limit);
+	}
+	
+	public int getConcurrencyLimit(XMLPriority priority){
+		return scheduler.getLimit(priority);
+	}
+	
+	/**
+	 * Sets the number of threads that only interactive requests can use (by default half of them), so that that number 
+	 * of interactive requests can run at the same time even when there are many prefetches. At least one thread is 
+	 * left for the rest of the requests.
+	 */
+	public void setInteractiveReserve(int threads){
+		scheduler.setInteractiveReserve(threads);
+	}
+	
+	public int getInteractiveReserve(){
+		return scheduler.getInteractiveReserve();
+	}
+	
+	/**
+	 * Sets the executor in which the delegates are invoked. By default they are invoked in the main (UI) thread,
+	 * but this can be changed, e.g. to use the client outside Android.
+	 */
+	public void setCallbackExecutor(Executor executor){
+		callbackExecutor = executor;
+	}
+	
+	/**
+	 * Sets the cache used for the following requests, null to disable it
+	 */
+	public void setResponseCache(XMLResponseCache cache){
+		responseCache = cache;
+	}
+	
+	/**
+	 * Cache used by the client, null if there is none
+	 */
+	public XMLResponseCache getResponseCache(){
+		return responseCache;
+	}
+	
+	/**
+	 * Sets the policy for slow and failing servers (hedging, retries and circuit breaker)
+	 */
+	public void setRequestPolicy(XMLRequestPolicy policy){
+		if(policy==null)
+			throw new IllegalArgumentException("The policy cannot be null");
+		this.policy = policy;
+	}
+	
+	public XMLRequestPolicy getRequestPolicy(){
+		return policy;
+	}
+	
+	/**
+	 * True if the requests to the host of the URL are currently rejected by its circuit breaker
+	 */
+	public boolean isCircuitOpen(String url){
+		return getHostMonitor(url).isOpen();
+	}
+	
+	/**
+	 * Adds a listener that receives the metrics of each request when it finishes. It is invoked in the thread that 
+	 * finishes the request (the callback executor if the request has a delegate), so it must be fast and thread-safe.
+	 */
+	public void addListener(XMLRequestListener listener){
+		listeners.addIfAbsent(listener);
+	}
+	
+	public void removeListener(XMLRequestListener listener){
+		listeners.remove(listener);
+	}
+	
+	private Executor getCallbackExecutor(){
+		if(callbackExecutor==null)
+			callbackExecutor = new MainThreadExecutor();
+		return callbackExecutor;
+	}
+	
+	/**
+	 * Starts retrieving the file in the specified URL in the background. When it finishes, the delegate 
+	 * receives its contents, or "NetworkException - " followed by the error message if it could not be retrieved.
+	 * @param url URL of the XML file
+	 * @param delegate Object to send the results back to, it can be null if the result is obtained with <code>XMLRequest.get</code>
+	 * @return Handle of the request
+	 */
+	public XMLRequest request(String url, XMLAsyncResponse delegate){
+		return request(url, null, delegate);
+	}
+	
+	/**
+	 * Starts retrieving the file in the specified URL in the background. If it is not available, the fallback URL is used.
+	 * When it finishes, the delegate receives its contents, or "NetworkException - " followed by the error message 
+	 * if it could not be retrieved.
+	 * @param url URL of the XML file
+	 * @param fallbackUrl URL used in case the first one is not available, null for none
+	 * @param delegate Object to send the results back to, it can be null if the result is obtained with <code>XMLRequest.get</code>
+	 * @return Handle of the request
+	 */
+	public XMLRequest request(String url, String fallbackUrl, XMLAsyncResponse delegate){
+		return request(url, fallbackUrl, delegate, XMLPriority.INTERACTIVE);
+	}
+	
+	/**
+	 * Starts retrieving the file in the specified URL in the background with the indicated priority. 
+	 * If it is not available, the fallback URL is used. When it finishes, the delegate receives its contents, 
+	 * or "NetworkException - " followed by the error message if it could not be retrieved.
+	 * @param url URL of the XML file
+	 * @param fallbackUrl URL used in case the first one is not available, null for none
+	 * @param delegate Object to send the results back to, it can be null if the result is obtained with <code>XMLRequest.get</code>
+	 * @param priority Priority class of the request
+	 * @return Handle of the request
+	 */
+	public XMLRequest request(String url, String fallbackUrl, XMLAsyncResponse delegate, XMLPriority priority){
+		XMLRequest request = new XMLRequest(this, url, delegate, null, priority);
+		XMLFlight flight = attach(request, url, fallbackUrl, priority);
+		if(flight!=null)
+			scheduler.execute(flight.getTask(), priority);
+		return request;
+	}
+	
+	/**
+	 * Retrieves the file in the specified URL in the background with prefetch priority, so that it is in the cache 
+	 * (if there is one) when it is needed. If it is requested while the prefetch is in progress, the request 
+	 * shares its network call, and the prefetch is promoted to the priority of the request if it had not started.
+	 * @param url URL of the XML file
+	 * @return Handle of the request
+	 */
+	public XMLRequest prefetch(String url){
+		return request(url, null, null, XMLPriority.PREFETCH);
+	}
+	
+	/**
+	 * Starts retrieving the file in the specified URL in the background, and sends a parser bound to the response
+	 * to the handler, so that it is parsed while it is being received. 
+	 * @param url URL of the XML file
+	 * @param handler Object that parses the file (in a background thread)
+	 * @return Handle of the request
+	 */
+	public XMLRequest stream(String url, XMLStreamHandler handler){
+		return stream(url, null, handler);
+	}
+	
+	/**
+	 * Starts retrieving the file in the specified URL in the background, and sends a parser bound to the response
+	 * to the handler, so that it is parsed while it is being received. If the URL is not available, the fallback URL is used.
+	 * @param url URL of the XML file
+	 * @param fallbackUrl URL used in case the first one is not available, null for none
+	 * @param handler Object that parses the file (in a background thread)
+	 * @return Handle of the request
+	 */
+	public XMLRequest stream(String url, String fallbackUrl, XMLStreamHandler handler){
+		return stream(url, fallbackUrl, handler, XMLPriority.INTERACTIVE);
+	}
+	
+	/**
+	 * Starts retrieving the file in the specified URL in the background with the indicated priority, and sends a parser 
+	 * bound to the response to the handler, so that it is parsed while it is being received. If the URL is not available, 
+	 * the fallback URL is used.
+	 * @param url URL of the XML file
+	 * @param fallbackUrl URL used in case the first one is not available, null for none
+	 * @param handler Object that parses the file (in a background thread)
+	 * @param priority Priority class of the request
+	 * @return Handle of the request
+	 */
+	public XMLRequest stream(String url, String fallbackUrl, XMLStreamHandler handler, XMLPriority priority){
+		//Streamed requests are not shared, as each handler needs its own parser
+		XMLRequest request = new XMLRequest(this, url, null, handler, priority);
+		XMLFlight flight = new XMLFlight(this, null, url, fallbackUrl, handler);
+		request.attach(flight);
+		scheduler.execute(flight.getTask(), priority);
+		return request;
+	}
+	
+	/**
+	 * Opens connections in advance to the hosts of the URLs, so that the following requests to them do not wait for
+	 * the DNS lookup and the TCP and TLS handshakes. A HEAD request is sent to the root of each host, leaving the 
+	 * connection open to be reused (keep-alive). It is useful when the app starts, and when the recognizer is ready 
+	 * for speech, so that the connection is ready when the user finishes speaking.
+	 * 
+	 * The hosts that have responded recently, that are already being preconnected or whose circuit breaker is open are
+	 * skipped, so it can be invoked often. The connections are opened in the background with prefetch priority.
+	 * @param urls URLs of the services that will be used (only their scheme and host are considered)
+	 */
+	public void preconnect(String... urls){
+		for(String url: urls){
+			final String root;
+			try{
+				URL parsed = new URL(url);
+				root = parsed.getProtocol()+"://"+parsed.getAuthority()+"/";
+			} catch(MalformedURLException ex){
+				continue;
+			}
+			
+			final XMLHostMonitor host = getHostMonitor(root);
+			if(host.isOpen() || host.respondedWithin(WARM_CONNECTION_TIME))
+				continue;
+			synchronized(preconnecting){
+				if(!preconnecting.add(root))
+					continue;
+			}
+			
+			scheduler.execute(new Runnable() {
+				@Override
+				public void run() {
+					try{
+						openConnection(root);
+						host.recordResponse();
+					} catch(IOException ex){
+						//The connection will be opened by the next request
+					} finally {
+						synchronized(preconnecting){
+							preconnecting.remove(root);
+						}
+					}
+				}
+			}, XMLPriority.PREFETCH);
+		}
+	}
+	
+	/**
+	 * Sends a HEAD request to the host of the URL, reading the whole response so that the connection is kept alive
+	 */
+	private void openConnection(String root) throws IOException{
+		URL url = new URL(root);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+		connection.setAllowUserInteraction(false);
+		connection.setInstanceFollowRedirects(false);	//Redirections may lead to other hosts
+		connection.setRequestMethod("HEAD");
+		try{
+			int response = connection.getResponseCode();
+			discard(response >= HttpURLConnection.HTTP_BAD_REQUEST ? connection.getErrorStream() : connection.getInputStream());
+		} catch(IOException ex){
+			connection.disconnect();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Retrieves the file in the specified URL in the calling thread (it must not be invoked from the main thread).
+	 * @param url URL of the XML file
+	 * @param fallbackUrl URL used in case the first one is not available, null for none
+	 * @return Contents of the file
+	 * @throws IOException If neither of the URLs could be read
+	 */
+	public String retrieve(String url, String fallbackUrl) throws IOException{
+		XMLRequest request = new XMLRequest(this, url, null, null, XMLPriority.INTERACTIVE);
+		XMLFlight flight = attach(request, url, fallbackUrl, XMLPriority.INTERACTIVE);
+		if(flight!=null)
+			flight.getTask().run();		//The network call is made in the calling thread
+		
+		try{
+			return request.get();
+		} catch(ExecutionException ex){
+			throw toIOException(ex.getCause());
+		} catch(InterruptedException ex){
+			request.cancel();
+			throw new InterruptedIOException("Interrupted while retrieving "+url);
+		}
+	}
+	
+	/**
+	 * Attaches the request to the flight in progress for the same URLs, or to a new flight if there is none. If the
+	 * flight in progress is waiting to start with a lower priority, it is promoted to the priority of the request.
+	 * @return The new flight, which must be executed, or null if the request was attached to a flight in progress
+	 */
+	private XMLFlight attach(XMLRequest request, String url, String fallbackUrl, XMLPriority priority){
+		String key = canonicalUrl(url)+" "+(fallbackUrl==null ? "" : canonicalUrl(fallbackUrl));
+		synchronized(flights){
+			XMLFlight flight = flights.get(key);
+			if(flight!=null && request.attach(flight)){
+				request.setShared();
+				scheduler.promote(flight.getTask(), priority);
+				return null;
+			}
+			
+			flight = new XMLFlight(this, key, url, fallbackUrl);
+			flights.put(key, flight);
+			request.attach(flight);
+			return flight;
+		}
+	}
+	
+	/**
+	 * Removes a flight that has finished or been cancelled, so that new requests do not join it
+	 */
+	void removeFlight(XMLFlight flight){
+		if(flight.getKey()==null)
+			return;
+		synchronized(flights){
+			if(flights.get(flight.getKey())==flight)
+				flights.remove(flight.getKey());
+		}
+	}
+	
+	/**
+	 * Canonical form of a URL used to detect requests for the same file: the scheme and host in lower case, 
+	 * without the default port, the fragment and redundant path segments
+	 */
+	static String canonicalUrl(String url){
+		try{
+			URI uri = new URI(url.trim()).normalize();
+			if(uri.getScheme()==null || uri.getRawAuthority()==null)
+				return url;
+			
+			String scheme = uri.getScheme().toLowerCase(Locale.US);
+			StringBuilder canonical = new StringBuilder(scheme).append("://");
+			if(uri.getRawUserInfo()!=null)
+				canonical.append(uri.getRawUserInfo()).append('@');
+			canonical.append(uri.getHost()!=null ? uri.getHost().toLowerCase(Locale.US) : uri.getRawAuthority());
+			
+			int port = uri.getPort();
+			if(port!=-1 && !(port==80 && scheme.equals("http")) && !(port==443 && scheme.equals("https")))
+				canonical.append(':').append(port);
+			
+			String path = uri.getRawPath();
+			canonical.append(path==null || path.length()==0 ? "/" : path);
+			if(uri.getRawQuery()!=null)
+				canonical.append('?').append(uri.getRawQuery());
+			return canonical.toString();
+		} catch(URISyntaxException ex){
+			return url;		//e.g. with unencoded spaces, only identical URLs are shared
+		}
+	}
+	
+	/**
+	 * Retrieves the file in the URL of the request, or in its fallback URL if the first one is not available.
+	 * If hedging is enabled, the fallback URL is also requested when the first one is too slow.
+	 */
+	String retrieve(String url, String fallbackUrl, XMLFlight flight) throws IOException{
+		XMLRequestPolicy policy = this.policy;
+		
+		String body = usableCachedBody(url);
+		if(body!=null){
+			XMLAttempt attempt = newAttempt(flight);
+			attempt.setSource(Source.CACHE);
+			attempt.succeeded();
+			return body;
+		}
+		
+		if(fallbackUrl!=null && policy.isHedgingEnabled())
+			return retrieveHedged(url, fallbackUrl, flight, policy);
+		return retrieveSequentially(url, newAttempt(flight), fallbackUrl, flight, policy);
+	}
+	
+	/**
+	 * Retrieves the file in the first URL and, only if it fails, in the fallback URL, in the calling thread
+	 */
+	private String retrieveSequentially(String url, XMLAttempt attempt, String fallbackUrl, XMLFlight flight, XMLRequestPolicy policy) throws IOException{
+		try{
+			return fetchWithRetries(url, attempt, policy);
+		} catch(IOException ex){
+			if(fallbackUrl==null || (flight!=null && flight.isCancelled()))
+				throw ex;
+			return fetchWithRetries(fallbackUrl, newAttempt(flight), policy);
+		}
+	}
+	
+	/**
+	 * Requests the first URL and, if it has not answered after the hedge delay of its host (or if it fails), the fallback URL. 
+	 * The first successful response is used and the other attempt is cancelled.
+	 * 
+	 * The attempts run in the hedge pool. When it has no free thread, the request is not hedged: it is made in the 
+	 * calling thread, or the fallback URL is only requested if the first one fails.
+	 */
+	private String retrieveHedged(String url, String fallbackUrl, XMLFlight flight, XMLRequestPolicy policy) throws IOException{
+		CompletionService<String> attempts = new ExecutorCompletionService<String>(hedgeExecutor);
+		XMLAttempt primary = newAttempt(flight);
+		XMLAttempt secondary = null;
+		boolean fallbackPending = true;		//The fallback URL has not been requested yet
+		IOException failure = null;
+		
+		try{
+			attempts.submit(retrieval(url, primary, policy));
+		} catch(RejectedExecutionException ex){
+			return retrieveSequentially(url, primary, fallbackUrl, flight, policy);
+		}
+		
+		try{
+			int pending = 1;
+			
+			Future<String> first = attempts.poll(hedgeDelay(url, policy), TimeUnit.MILLISECONDS);
+			if(first!=null){
+				pending--;
+				try{
+					return first.get();
+				} catch(ExecutionException ex){
+					failure = toIOException(ex.getCause());
+				}
+			}
+			
+			if(flight==null || !flight.isCancelled()){
+				secondary = newAttempt(flight);
+				try{
+					attempts.submit(retrieval(fallbackUrl, secondary, policy));
+					fallbackPending = false;
+					pending++;
+					if(flight!=null)
+						flight.setHedged();
+				} catch(RejectedExecutionException ex){
+					//No thread for the hedge, the fallback URL is only requested if the first one fails
+				}
+			}
+			
+			while(pending>0){
+				Future<String> next = attempts.take();
+				pending--;
+				try{
+					return next.get();
+				} catch(ExecutionException ex){
+					failure = toIOException(ex.getCause());
+				}
+			}
+			if(fallbackPending && secondary!=null && !secondary.isCancelled())
+				return fetchWithRetries(fallbackUrl, secondary, policy);
+			throw failure;
+		} catch(InterruptedException ex){
+			throw new InterruptedIOException("Interrupted while retrieving "+url);
+		} finally {
+			primary.cancel();
+			if(secondary!=null)
+				secondary.cancel();
+		}
+	}
+	
+	private Callable<String> retrieval(final String url, final XMLAttempt attempt, final XMLRequestPolicy policy){
+		return new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return fetchWithRetries(url, attempt, policy);
+			}
+		};
+	}
+	
+	private static IOException toIOException(Throwable cause){
+		if(cause instanceof IOException)
+			return (IOException) cause;
+		IOException ex = new IOException(cause.toString());
+		ex.initCause(cause);
+		return ex;
+	}
+	
+	/**
+	 * Time after which the fallback URL is requested: the configured percentile of the latencies of the host,
+	 * or the default delay if not enough responses have been received from it
+	 */
+	private long hedgeDelay(String url, XMLRequestPolicy policy){
+		long delay = getHostMonitor(url).latencyPercentile(policy.getHedgePercentile());
+		if(delay<0)
+			delay = policy.getDefaultHedgeDelay();
+		return Math.max(XMLRequestPolicy.MIN_HEDGE_DELAY, delay);
+	}
+	
+	/**
+	 * Retrieves the file in the URL, retrying with exponential backoff when the connection fails or the server answers 
+	 * with an error (5xx). The requests are rejected while the circuit breaker of the host is open.
+	 */
+	private String fetchWithRetries(final String url, final XMLAttempt attempt, XMLRequestPolicy policy) throws IOException{
+		final XMLResponseCache cache = responseCache;
+		final XMLResponseCache.Entry entry = cache!=null ? cache.get(url) : null;
+		
+		String body = withRetries(url, attempt, policy, new Operation<String>() {
+			@Override
+			public String run() throws IOException {
+				return fetch(url, attempt, cache, entry);
+			}
+		});
+		attempt.finish();
+		return body;
+	}
+	
+	/**
+	 * Operation on a URL that can be retried
+	 */
+	private interface Operation<T> {
+		T run() throws IOException;
+	}
+	
+	private <T> T withRetries(String url, XMLAttempt attempt, XMLRequestPolicy policy, Operation<T> operation) throws IOException{
+		XMLHostMonitor host = getHostMonitor(url);
+		
+		for(int retry=0; ; retry++){
+			attempt.setRetries(retry);
+			if(!host.allowRequest(policy))
+				throw new CircuitOpenException(hostOf(url));
+			
+			long start = System.currentTimeMillis();
+			try{
+				T result = operation.run();
+				host.recordSuccess(System.currentTimeMillis() - start);
+				attempt.succeeded();
+				return result;
+			} catch(IOException ex){
+				//A cancelled attempt (e.g. the loser of a hedged request) says nothing about the host, and it is not retried
+				if(attempt.isCancelled())
+					throw ex;
+				
+				boolean clientError = ex instanceof HttpStatusException && ((HttpStatusException) ex).isClientError();
+				if(clientError)
+					host.recordResponse();
+				else
+					host.recordFailure(policy);
+				
+				if(clientError || retry >= policy.getMaxRetries())
+					throw ex;
+			} finally {
+				host.endTrial();	//In case the outcome was not recorded (cancelled attempt or unexpected exception)
+			}
+			
+			try{
+				Thread.sleep(policy.backoff(retry, random));
+			} catch(InterruptedException ex){
+				throw new InterruptedIOException("Interrupted while retrying "+url);
+			}
+		}
+	}
+	
+	private XMLHostMonitor getHostMonitor(String url){
+		String host = hostOf(url);
+		synchronized(hosts){
+			XMLHostMonitor monitor = hosts.get(host);
+			if(monitor==null){
+				monitor = new XMLHostMonitor();
+				hosts.put(host, monitor);
+			}
+			return monitor;
+		}
+	}
+	
+	private static String hostOf(String url){
+		try{
+			return new URL(url).getAuthority();
+		} catch(MalformedURLException ex){
+			return url;
+		}
+	}
+	
+	private static XMLAttempt newAttempt(XMLFlight flight){
+		return flight!=null ? flight.newAttempt() : new XMLAttempt();
+	}
+	
+	/**
+	 * Returns the file in the URL from the cache if it is fresh (or usable while it is revalidated in the background), 
+	 * or null if it must be retrieved from the server
+	 */
+	private String usableCachedBody(String url){
+		XMLResponseCache cache = responseCache;
+		if(cache==null)
+			return null;
+		return usableCachedBody(cache, url, cache.get(url));
+	}
+	
+	/**
+	 * Returns the body of the cached entry if it can be used without waiting for the network 
+	 * (scheduling its revalidation if it is stale), or null if the server must be accessed
+	 */
+	private String usableCachedBody(XMLResponseCache cache, String url, XMLResponseCache.Entry entry){
+		if(entry!=null){
+			long now = System.currentTimeMillis();
+			if(entry.isFresh(now)){
+				cache.countHit();
+				return entry.body;
+			}
+			if(entry.isUsableWhileRevalidating(now)){
+				cache.countHit();
+				revalidateInBackground(cache, url, entry);
+				return entry.body;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Revalidates a cached file without blocking the request that used it. Only one revalidation per URL is done at a time.
+	 */
+	private void revalidateInBackground(final XMLResponseCache cache, final String url, final XMLResponseCache.Entry entry){
+		synchronized(revalidating){
+			if(!revalidating.add(url))
+				return;
+		}
+		
+		scheduler.execute(new Runnable() {
+			@Override
+			public void run() {
+				try{
+					fetch(url, new XMLAttempt(), cache, entry);
+				} catch(IOException ex){
+					//The stale copy is kept and it will be revalidated again in the next request
+				} finally {
+					synchronized(revalidating){
+						revalidating.remove(url);
+					}
+				}
+			}
+		}, XMLPriority.BACKGROUND);
+	}
+	
+	/**
+	 * Writes a string with the contents of the file in the specified URL
+	 * 
+	 * The response is read completely and the stream closed, but the connection is only disconnected in case 
+	 * of error, so that it can be reused by the following requests to the same host (keep-alive).
+	 * @param attempt Attempt that the connection belongs to (so that it can be cancelled)
+	 * @param cache Cache in which the file is stored, or null
+	 * @param cached Copy of the file in the cache, used to make a conditional request, or null
+	 */
+	private String fetch(String urlString, XMLAttempt attempt, XMLResponseCache cache, XMLResponseCache.Entry cached) throws IOException{
+		HttpURLConnection connection = connect(urlString, attempt, cached);
+		
+		InputStream in = null;
+		try{
+			if(connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED){
+				attempt.setSource(Source.REVALIDATED);
+				return notModified(cache, urlString, connection, cached);
+			}
+			
+			long start = System.currentTimeMillis();
+			in = XMLContent.open(connection, attempt);
+			String body = XMLContent.read(in, connection.getContentType(), connection.getContentEncoding()==null ? connection.getContentLength() : -1);
+			attempt.setDuration(Phase.DOWNLOAD, System.currentTimeMillis() - start);
+			
+			if(cache!=null){
+				cache.countMiss();
+				store(cache, urlString, connection, body, null);
+			}
+			return body;
+		} catch(IOException ex){
+			connection.disconnect();
+			throw ex;
+		} finally {
+			if(in!=null)
+				in.close();
+		}
+	}
+	
+	/**
+	 * Opens a connection to the URL and waits for the response headers. 
+	 * 
+	 * <code>HttpURLConnection</code> does not expose the DNS lookup, so its time is included in the time to connect
+	 * (as the TLS handshake). It is almost 0 when a kept-alive connection is reused, in which case the host name is not 
+	 * resolved again.
+	 * @param attempt Attempt that the connection belongs to (so that it can be cancelled) and in which the phases are measured
+	 * @param cached Copy of the file in the cache, used to make a conditional request, or null
+	 * @return Connection with response code 200 (OK), or 304 (Not modified) if there was a cached copy
+	 * @throws IOException If the server could not be accessed or answered with an error
+	 */
+	private HttpURLConnection connect(String urlString, XMLAttempt attempt, XMLResponseCache.Entry cached) throws IOException{
+		URL url = new URL(urlString);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		attempt.setConnection(connection);
+		
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+		connection.setAllowUserInteraction(false);
+		connection.setInstanceFollowRedirects(true);
+		connection.setRequestMethod("GET");
+		connection.setRequestProperty("Accept-Encoding", XMLContent.ACCEPT_ENCODING);
+		
+		if(cached!=null && cached.isRevalidable()){
+			if(cached.etag!=null)
+				connection.setRequestProperty("If-None-Match", cached.etag);
+			if(cached.lastModified>0)
+				connection.setIfModifiedSince(cached.lastModified);
+		}
+		
+		try{
+			long start = System.currentTimeMillis();
+			connection.connect();
+			attempt.setDuration(Phase.CONNECT, System.currentTimeMillis() - start);
+			
+			start = System.currentTimeMillis();
+			int response = connection.getResponseCode();
+			attempt.setDuration(Phase.FIRST_BYTE, System.currentTimeMillis() - start);
+			attempt.setStatus(response);
+			
+			if(response == HttpURLConnection.HTTP_OK || (response == HttpURLConnection.HTTP_NOT_MODIFIED && cached!=null))
+				return connection;
+			
+			discard(connection.getErrorStream());
+			throw new HttpStatusException(response, urlString);
+		} catch(IOException ex){
+			connection.disconnect();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Error response from the server
+	 */
+	static class HttpStatusException extends IOException {
+		private static final long serialVersionUID = 1L;
+		private final int status;
+		
+		HttpStatusException(int status, String url){
+			super("HTTP error "+status+" retrieving "+url);
+			this.status = status;
+		}
+		
+		int getStatus(){
+			return status;
+		}
+		
+		/**
+		 * True for errors that will not change if the request is repeated (4xx, except timeouts and too many requests)
+		 */
+		boolean isClientError(){
+			return status>=400 && status<500 && status!=HttpURLConnection.HTTP_CLIENT_TIMEOUT && status!=429;
+		}
+	}
+	
+	/**
+	 * Request rejected because the circuit breaker of the host is open
+	 */
+	static class CircuitOpenException extends IOException {
+		private static final long serialVersionUID = 1L;
+		
+		CircuitOpenException(String host){
+			super("Requests to "+host+" suspended after repeated failures");
+		}
+	}
+	
+	/**
+	 * Refreshes the cached copy of a file after a 304 (Not modified) response and returns its contents
+	 */
+	private String notModified(XMLResponseCache cache, String url, HttpURLConnection connection, XMLResponseCache.Entry cached) throws IOException{
+		discard(connection.getInputStream());
+		cache.countRevalidation();
+		store(cache, url, connection, cached.body, cached);
+		return cached.body;
+	}
+	
+	/**
+	 * Parses the file in the URL of the request (or in its fallback URL if the first one is not available) while it is being 
+	 * received. The fallback URL is only used if the first one fails before the handler starts reading. Streamed requests 
+	 * are retried and use the circuit breaker, but they are not hedged.
+	 */
+	void parse(String url, String fallbackUrl, XMLStreamHandler handler, XMLFlight flight) throws IOException, XmlPullParserException{
+		XMLRequestPolicy policy = this.policy;
+		XMLStreamSource source;
+		try{
+			source = openStream(url, newAttempt(flight), policy);
+		} catch(IOException ex){
+			if(fallbackUrl==null || (flight!=null && flight.isCancelled()))
+				throw ex;
+			source = openStream(fallbackUrl, newAttempt(flight), policy);
+		}
+		source.parse(handler);
+	}
+	
+	/**
+	 * Obtains the source to parse the file in the URL: the cached copy if it can be used, or the connection to the server
+	 */
+	private XMLStreamSource openStream(final String url, final XMLAttempt attempt, XMLRequestPolicy policy) throws IOException{
+		final XMLResponseCache cache = responseCache;
+		final XMLResponseCache.Entry entry = cache!=null ? cache.get(url) : null;
+		if(cache!=null){
+			String body = usableCachedBody(cache, url, entry);
+			if(body!=null){
+				attempt.setSource(Source.CACHE);
+				attempt.succeeded();
+				return new XMLStreamSource(body, attempt);
+			}
+		}
+		
+		return withRetries(url, attempt, policy, new Operation<XMLStreamSource>() {
+			@Override
+			public XMLStreamSource run() throws IOException {
+				HttpURLConnection connection = connect(url, attempt, entry);
+				if(connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED){
+					try{
+						attempt.setSource(Source.REVALIDATED);
+						return new XMLStreamSource(notModified(cache, url, connection, entry), attempt);
+					} catch(IOException ex){
+						connection.disconnect();
+						throw ex;
+					}
+				}
+				if(cache!=null)
+					cache.countMiss();
+				return new XMLStreamSource(connection, attempt, cache, url);
+			}
+		});
+	}
+	
+	/**
+	 * Stores a response in the cache with the freshness information in its headers, or removes 
+	 * it from the cache if the server does not allow storing it or it could not be reused
+	 * @param previous Entry that has been revalidated with a 304 response, or null for a new response
+	 */
+	static void store(XMLResponseCache cache, String url, HttpURLConnection connection, String body, XMLResponseCache.Entry previous){
+		String etag = connection.getHeaderField("ETag");
+		long lastModified = connection.getLastModified();
+		if(previous!=null){		//A 304 response may not repeat the validators of the cached copy
+			if(etag==null)
+				etag = previous.etag;
+			if(lastModified<=0)
+				lastModified = previous.lastModified;
+		}
+		
+		XMLResponseCache.Entry entry = cache.createEntry(body, connection.getHeaderField("Cache-Control"), etag,
+				lastModified, connection.getExpiration(), connection.getDate());
+		if(entry==null)
+			cache.remove(url);
+		else
+			cache.put(url, previous==null ? entry : previous.refreshed(entry));
+	}
+	
+	/**
+	 * Reads and closes the body of an error response, so that the connection can be reused
+	 */
+	static void discard(InputStream in){
+		if(in==null)
+			return;
+		try{
+			XMLContent.skip(in);
+			in.close();
+		} catch(IOException ex){
+			//The connection will not be reused
+		}
+	}
+	
+	/**
+	 * Sends the result of a finished request to its delegate in the callback executor: the contents of the file 
+	 * or the error. For streamed requests, only the errors are sent, as the handler has already read the file.
+	 * Then, the metrics of the request are sent to the listeners.
+	 */
+	void deliver(final XMLRequest request, final XMLAsyncResponse delegate, final XMLStreamHandler handler){
+		String result;
+		Throwable error = null;
+		try{
+			result = request.get();
+		} catch(ExecutionException ex){
+			error = ex.getCause();
+			result = errorMessage(error);
+		} catch(CancellationException ex){
+			report(request, null, -1);
+			return;
+		} catch(InterruptedException ex){
+			return;		//Not possible, the request has finished
+		}
+		
+		if(delegate==null && (handler==null || error==null)){
+			report(request, error, -1);
+			return;
+		}
+		
+		final String message = result;
+		final Throwable cause = error;
+		getCallbackExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.currentTimeMillis();
+				if(delegate!=null)
+					delegate.processXMLContents(message);
+				else
+					handler.processXMLStreamError(message);
+				report(request, cause, System.currentTimeMillis() - start);
+			}
+		});
+	}
+	
+	/**
+	 * Sends the metrics of a finished request to the listeners
+	 * @param processTime Time spent by the delegate, or -1 if it was not invoked
+	 */
+	private void report(XMLRequest request, Throwable error, long processTime){
+		if(listeners.isEmpty())
+			return;
+		XMLRequestMetrics metrics = request.getMetrics(error, processTime);
+		for(XMLRequestListener listener: listeners)
+			listener.onRequestFinished(metrics);
+	}
+	
+	/**
+	 * Message sent to the delegates when a request fails
+	 */
+	static String errorMessage(Throwable cause){
+		if(cause instanceof XmlPullParserException)
+			return "XMLException - "+cause.getMessage();
+		return "NetworkException - "+cause.getMessage();
+	}
+	
+	/**
+	 * Stops the threads of the client. Pending requests are cancelled.
+	 */
+	public void shutdown(){
+		scheduler.shutdownNow();
+		hedgeExecutor.shutdownNow();
+		synchronized(XMLClient.class){
+			if(singleton==this)
+				singleton = null;
+		}
+	}
+}
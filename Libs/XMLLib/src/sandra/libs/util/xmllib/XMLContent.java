@@ -0,0 +1,244 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.util.xmllib;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the body of the responses: it decompresses gzip and deflate responses, reads the bytes into 
+ * pooled buffers (see <code>XMLBufferPool</code>) and decodes them once with the charset indicated 
+ * in the Content-Type header, the byte order mark or the XML declaration (UTF-8 by default).
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+class XMLContent {
+
+	//Value of the Accept-Encoding header sent in the requests
+	static final String ACCEPT_ENCODING = "gzip, deflate";
+	
+	private static final String DEFAULT_CHARSET = "UTF-8";
+	private static final int PROLOG_LENGTH = 200;	//Bytes in which the XML declaration is searched
+	
+	private static final Pattern CONTENT_TYPE_CHARSET = Pattern.compile("charset\\s*=\\s*\"?([^\";\\s]+)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern PROLOG_ENCODING = Pattern.compile("^<\\?xml[^>]*encoding\\s*=\\s*[\"']([A-Za-z0-9._-]+)[\"']");
+	
+	private XMLContent(){}
+	
+	/**
+	 * Opens the body of the response of a connection, decompressing it if needed
+	 * @param attempt Attempt in which the bytes received and the bytes of the decompressed body are counted
+	 */
+	static InputStream open(HttpURLConnection connection, XMLAttempt attempt) throws IOException{
+		String encoding = connection.getContentEncoding();
+		if(encoding==null)
+			return new CountingInputStream(connection.getInputStream(), attempt, true, true);
+		
+		InputStream in = new CountingInputStream(connection.getInputStream(), attempt, true, false);
+		encoding = encoding.trim().toLowerCase(Locale.US);
+		if(encoding.equals("gzip") || encoding.equals("x-gzip"))
+			in = new GZIPInputStream(in, XMLBufferPool.CHUNK_SIZE);
+		else if(encoding.equals("deflate"))
+			in = inflate(in);
+		return new CountingInputStream(in, attempt, false, true);
+	}
+	
+	/**
+	 * Decompresses a deflate body. Some servers send raw deflate data instead of the zlib format of the
+	 * standard, so the first bytes are checked to choose the format.
+	 */
+	private static InputStream inflate(InputStream in) throws IOException{
+		PushbackInputStream pushback = new PushbackInputStream(in, 2);
+		int b0 = pushback.read();
+		int b1 = pushback.read();
+		if(b1 != -1)
+			pushback.unread(b1);
+		if(b0 != -1)
+			pushback.unread(b0);
+		
+		boolean zlib = b0 != -1 && b1 != -1 && (b0 & 0x0F) == 8 && ((b0 << 8) | b1) % 31 == 0;
+		final Inflater inflater = new Inflater(!zlib);
+		return new InflaterInputStream(pushback, inflater, XMLBufferPool.CHUNK_SIZE){
+			@Override
+			public void close() throws IOException{
+				super.close();
+				inflater.end();		//Releases the native memory
+			}
+		};
+	}
+	
+	/**
+	 * Reads a body completely and decodes it
+	 * @param contentType Value of the Content-Type header, or null
+	 * @param sizeHint Expected size of the body in bytes (e.g. the Content-Length), or -1 if unknown
+	 */
+	static String read(InputStream in, String contentType, int sizeHint) throws IOException{
+		byte[] buffer = XMLBufferPool.acquire(sizeHint>0 ? sizeHint+1 : XMLBufferPool.CHUNK_SIZE);
+		try{
+			int length = 0;
+			int read;
+			while((read = in.read(buffer, length, buffer.length-length)) != -1){
+				length += read;
+				if(length == buffer.length){
+					byte[] bigger = XMLBufferPool.acquire(buffer.length*2);
+					System.arraycopy(buffer, 0, bigger, 0, length);
+					XMLBufferPool.release(buffer);
+					buffer = bigger;
+				}
+			}
+			return decode(buffer, length, charsetFromContentType(contentType));
+		} finally {
+			XMLBufferPool.release(buffer);
+		}
+	}
+	
+	/**
+	 * Reads and discards the rest of a body
+	 */
+	static void skip(InputStream in) throws IOException{
+		byte[] buffer = XMLBufferPool.acquire(XMLBufferPool.CHUNK_SIZE);
+		try{
+			while(in.read(buffer) != -1);
+		} finally {
+			XMLBufferPool.release(buffer);
+		}
+	}
+	
+	/**
+	 * Decodes the bytes with the charset of the header, or else the one in the byte order mark or the XML declaration
+	 */
+	static String decode(byte[] bytes, int length, String headerCharset) throws IOException{
+		int offset = 0;
+		String charset = headerCharset;
+		
+		//Byte order mark
+		if(length>=3 && (bytes[0]&0xFF)==0xEF && (bytes[1]&0xFF)==0xBB && (bytes[2]&0xFF)==0xBF){
+			offset = 3;
+			if(charset==null)
+				charset = "UTF-8";
+		} else if(length>=2 && (bytes[0]&0xFF)==0xFE && (bytes[1]&0xFF)==0xFF){
+			offset = 2;
+			if(charset==null)
+				charset = "UTF-16BE";
+		} else if(length>=2 && (bytes[0]&0xFF)==0xFF && (bytes[1]&0xFF)==0xFE){
+			offset = 2;
+			if(charset==null)
+				charset = "UTF-16LE";
+		}
+		
+		if(charset==null)
+			charset = charsetFromProlog(bytes, length);
+		
+		try{
+			return new String(bytes, offset, length-offset, charset);
+		} catch(UnsupportedEncodingException ex){
+			return new String(bytes, offset, length-offset, DEFAULT_CHARSET);
+		}
+	}
+	
+	/**
+	 * Charset indicated in a Content-Type header (e.g. "text/xml; charset=ISO-8859-1"), or null if there is none
+	 */
+	static String charsetFromContentType(String contentType){
+		if(contentType==null)
+			return null;
+		Matcher matcher = CONTENT_TYPE_CHARSET.matcher(contentType);
+		return matcher.find() ? matcher.group(1) : null;
+	}
+	
+	/**
+	 * Charset indicated in the XML declaration, or UTF-8 (the default in XML) if there is none
+	 */
+	private static String charsetFromProlog(byte[] bytes, int length){
+		if(length>=4 && bytes[0]==0 && bytes[1]=='<' && bytes[2]==0 && bytes[3]=='?')
+			return "UTF-16BE";
+		if(length>=4 && bytes[0]=='<' && bytes[1]==0 && bytes[2]=='?' && bytes[3]==0)
+			return "UTF-16LE";
+		
+		int n = Math.min(length, PROLOG_LENGTH);
+		char[] prolog = new char[n];
+		for(int i=0; i<n; i++)
+			prolog[i] = (char) (bytes[i] & 0x7F);	//The declaration is in ASCII
+		Matcher matcher = PROLOG_ENCODING.matcher(new String(prolog));
+		return matcher.find() ? matcher.group(1) : DEFAULT_CHARSET;
+	}
+	
+	/**
+	 * Stream that counts the bytes read in an attempt
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private final XMLAttempt attempt;
+		private final boolean received;		//Count as bytes received from the network
+		private final boolean body;			//Count as bytes of the body
+		
+		CountingInputStream(InputStream in, XMLAttempt attempt, boolean received, boolean body){
+			super(in);
+			this.attempt = attempt;
+			this.received = received;
+			this.body = body;
+		}
+		
+		private void count(long bytes){
+			if(received)
+				attempt.countReceived(bytes);
+			if(body)
+				attempt.countBody(bytes);
+		}
+		
+		@Override
+		public int read() throws IOException{
+			int b = super.read();
+			if(b != -1)
+				count(1);
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException{
+			int read = super.read(buffer, offset, count);
+			if(read > 0)
+				count(read);
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException{
+			long skipped = super.skip(n);
+			if(skipped > 0)
+				count(skipped);
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.util.xmllib;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Network work shared by one or more requests. Concurrent requests for the same file are attached to the
+ * same flight, so that only one network call is made and its result is sent to all of them. 
+ * The flight is cancelled only when all its requests have been cancelled.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+class XMLFlight {
+
+	private final XMLClient client;
+	private final String key;		//Key in the flights of the client, null if the flight is not shared
+	private final FutureTask<String> task;
+	
+	private final ArrayList<XMLRequest> requests = new ArrayList<XMLRequest>();
+	private final ArrayList<XMLAttempt> attempts = new ArrayList<XMLAttempt>();
+	private boolean finished = false;
+	
+	//Metrics
+	private volatile long startTime = -1;		//When a thread started the flight
+	private volatile XMLAttempt winner = null;	//Attempt that provided the result
+	private volatile boolean hedged = false;
+	
+	/**
+	 * Flight that retrieves the whole file
+	 * @param key Key used to share the flight, or null if it is not shared
+	 */
+	XMLFlight(XMLClient client, String key, final String url, final String fallbackUrl){
+		this(client, key, url, fallbackUrl, null);
+	}
+	
+	/**
+	 * Flight that retrieves the whole file, or that sends it to the handler while it is being received if the handler is not null
+	 */
+	XMLFlight(final XMLClient client, String key, final String url, final String fallbackUrl, final XMLStreamHandler handler){
+		this.client = client;
+		this.key = key;
+		task = new FutureTask<String>(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				startTime = System.currentTimeMillis();
+				if(handler!=null){
+					client.parse(url, fallbackUrl, handler, XMLFlight.this);
+					return null;
+				}
+				return client.retrieve(url, fallbackUrl, XMLFlight.this);
+			}
+		}) {
+			@Override
+			protected void done() {
+				finish();
+			}
+		};
+	}
+	
+	FutureTask<String> getTask(){
+		return task;
+	}
+	
+	String getKey(){
+		return key;
+	}
+	
+	/**
+	 * Attaches a request to the flight
+	 * @return false if the flight has already finished or been cancelled, so a new one must be created
+	 */
+	synchronized boolean join(XMLRequest request){
+		if(finished || task.isCancelled())
+			return false;
+		requests.add(request);
+		return true;
+	}
+	
+	/**
+	 * Detaches a cancelled request. If there are no requests left, the flight is cancelled.
+	 */
+	void leave(XMLRequest request){
+		ArrayList<XMLAttempt> toCancel = null;
+		synchronized(this){
+			requests.remove(request);
+			if(requests.isEmpty() && !finished && task.cancel(true))
+				toCancel = new ArrayList<XMLAttempt>(attempts);
+		}
+		if(toCancel!=null){
+			client.removeFlight(this);
+			for(XMLAttempt attempt: toCancel)
+				attempt.cancel();
+		}
+	}
+	
+	/**
+	 * Creates a new attempt for the flight. If it has been cancelled, the attempt is also cancelled.
+	 */
+	XMLAttempt newAttempt(){
+		XMLAttempt attempt = new XMLAttempt(this);
+		synchronized(this){
+			attempts.add(attempt);
+		}
+		if(task.isCancelled())
+			attempt.cancel();
+		return attempt;
+	}
+	
+	/**
+	 * Records the attempt that obtained the file, if no other attempt did it before
+	 */
+	synchronized void setWinner(XMLAttempt attempt){
+		if(winner==null)
+			winner = attempt;
+	}
+	
+	/**
+	 * Attempt whose measurements are reported: the one that obtained the file, or the last one if all failed (null if none was made)
+	 */
+	synchronized XMLAttempt getReportedAttempt(){
+		if(winner!=null)
+			return winner;
+		return attempts.isEmpty() ? null : attempts.get(attempts.size()-1);
+	}
+	
+	/**
+	 * Indicates that the fallback URL was requested in parallel with the first one
+	 */
+	void setHedged(){
+		hedged = true;
+	}
+	
+	boolean isHedged(){
+		return hedged;
+	}
+	
+	/**
+	 * Time when a thread started the flight, or -1 if it has not started
+	 */
+	long getStartTime(){
+		return startTime;
+	}
+	
+	boolean isCancelled(){
+		return task.isCancelled();
+	}
+	
+	/**
+	 * Result of the flight, once it has finished
+	 * @throws Exception The exception raised while retrieving the file
+	 */
+	String getResult() throws Exception{
+		try{
+			return task.get();
+		} catch(ExecutionException ex){
+			Throwable cause = ex.getCause();
+			if(cause instanceof Exception)
+				throw (Exception) cause;
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Completes all the requests attached when the flight finishes
+	 */
+	private void finish(){
+		ArrayList<XMLRequest> attached;
+		synchronized(this){
+			finished = true;
+			attached = new ArrayList<XMLRequest>(requests);
+		}
+		client.removeFlight(this);
+		
+		if(!task.isCancelled()){
+			for(XMLRequest request: attached)
+				request.complete();
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.util.xmllib;
+
+/**
+ * Histogram of durations (in milliseconds) over a rolling time window. 
+ * 
+ * The values are counted in buckets following a 1-2-5 series (1ms, 2ms, 5ms, 10ms... 50s, and longer), 
+ * so that the memory used does not depend on the number of values. The window is divided in slices, and 
+ * the oldest slice is discarded as time passes, so that the histogram reflects the recent behaviour.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+public class XMLHistogram {
+
+	//Upper bounds (inclusive) of the buckets, there is a last bucket for longer values
+	private static final long[] BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 50000};
+	
+	private final long sliceMillis;
+	private final long[][] counts;		//[slice][bucket]
+	private final long[] sums;			//Sum of the values of each slice
+	private final long[] maxima;		//Maximum value of each slice
+	private final long[] epochs;		//Number of the period of each slice (time / sliceMillis), to detect old slices
+	
+	/**
+	 * Creates an empty histogram
+	 * @param windowMillis Time during which the values are kept
+	 * @param slices Number of parts in which the window is divided (the values are discarded one slice at a time)
+	 */
+	public XMLHistogram(long windowMillis, int slices){
+		if(windowMillis<=0 || slices<=0)
+			throw new IllegalArgumentException("The window and the number of slices must be positive");
+		
+		sliceMillis = Math.max(1, windowMillis / slices);
+		counts = new long[slices][BOUNDS.length+1];
+		sums = new long[slices];
+		maxima = new long[slices];
+		epochs = new long[slices];
+		for(int i=0; i<slices; i++)
+			epochs[i] = -1;
+	}
+	
+	/**
+	 * Upper bounds of the buckets in milliseconds. The last bucket (not included) contains the longer values.
+	 */
+	public static long[] getBucketBounds(){
+		return BOUNDS.clone();
+	}
+	
+	/**
+	 * Adds a value to the histogram
+	 */
+	public synchronized void record(long millis){
+		int slice = currentSlice(System.currentTimeMillis());
+		int bucket = 0;
+		while(bucket < BOUNDS.length && millis > BOUNDS[bucket])
+			bucket++;
+		counts[slice][bucket]++;
+		sums[slice] += millis;
+		maxima[slice] = Math.max(maxima[slice], millis);
+	}
+	
+	/**
+	 * Returns the slice for the current time, emptying it if it contained old values
+	 */
+	private int currentSlice(long now){
+		long epoch = now / sliceMillis;
+		int slice = (int) (epoch % counts.length);
+		if(epochs[slice] != epoch){
+			epochs[slice] = epoch;
+			for(int i=0; i<counts[slice].length; i++)
+				counts[slice][i] = 0;
+			sums[slice] = 0;
+			maxima[slice] = 0;
+		}
+		return slice;
+	}
+	
+	private boolean isInWindow(int slice, long now){
+		return epochs[slice] > now / sliceMillis - counts.length;
+	}
+	
+	/**
+	 * Number of values in each bucket in the current window (the last one contains the values longer than the last bound)
+	 */
+	public synchronized long[] getCounts(){
+		long now = System.currentTimeMillis();
+		long[] total = new long[BOUNDS.length+1];
+		for(int slice=0; slice<counts.length; slice++)
+			if(isInWindow(slice, now))
+				for(int bucket=0; bucket<total.length; bucket++)
+					total[bucket] += counts[slice][bucket];
+		return total;
+	}
+	
+	/**
+	 * Number of values in the current window
+	 */
+	public synchronized long getCount(){
+		long count = 0;
+		for(long n: getCounts())
+			count += n;
+		return count;
+	}
+	
+	/**
+	 * Mean of the values in the current window, 0 if there are none
+	 */
+	public synchronized double getMean(){
+		long now = System.currentTimeMillis();
+		long sum = 0;
+		for(int slice=0; slice<counts.length; slice++)
+			if(isInWindow(slice, now))
+				sum += sums[slice];
+		long count = getCount();
+		return count==0 ? 0 : (double) sum / count;
+	}
+	
+	/**
+	 * Maximum value in the current window, 0 if there are none
+	 */
+	public synchronized long getMax(){
+		long now = System.currentTimeMillis();
+		long max = 0;
+		for(int slice=0; slice<counts.length; slice++)
+			if(isInWindow(slice, now))
+				max = Math.max(max, maxima[slice]);
+		return max;
+	}
+	
+	/**
+	 * Upper bound of the bucket that contains the percentile (e.g. 0.95), or 0 if the histogram is empty. 
+	 * It is never greater than the maximum value recorded.
+	 */
+	public synchronized long getPercentile(double percentile){
+		long[] total = getCounts();
+		long count = 0;
+		for(long n: total)
+			count += n;
+		if(count==0)
+			return 0;
+		
+		long rank = (long) Math.ceil(percentile * count);
+		long accumulated = 0;
+		for(int bucket=0; bucket<BOUNDS.length; bucket++){
+			accumulated += total[bucket];
+			if(accumulated >= rank)
+				return Math.min(BOUNDS[bucket], getMax());
+		}
+		return getMax();
+	}
+	
+	/**
+	 * Empties the histogram
+	 */
+	public synchronized void clear(){
+		for(int slice=0; slice<counts.length; slice++)
+			epochs[slice] = -1;
+	}
+	
+	@Override
+	public synchronized String toString(){
+		long count = getCount();
+		if(count==0)
+			return "n=0";
+		return "n="+count+", mean="+Math.round(getMean())+"ms, p50<="+getPercentile(0.5)+"ms, p90<="+getPercentile(0.9)+
+				"ms, p99<="+getPercentile(0.99)+"ms, max="+getMax()+"ms";
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.util.xmllib;
+
+import java.util.Arrays;
+
+/**
+ * State of a host used by the request policy: the latencies of its last responses, to compute
+ * when requests should be hedged, and its circuit breaker.
+ * 
+ * The circuit is closed while the host works. After a number of consecutive failures it is opened and the 
+ * requests are rejected; when the open time has passed, one request is allowed (half-open) and the circuit 
+ * is closed if it succeeds or opened again if it fails.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+class XMLHostMonitor {
+
+	private static final int LATENCY_WINDOW = 64;		//Number of latencies kept
+	private static final int MIN_LATENCY_SAMPLES = 8;	//Number of latencies needed to compute percentiles
+	
+	private final long[] latencies = new long[LATENCY_WINDOW];
+	private int samples = 0;
+	private int next = 0;
+	
+	private int consecutiveFailures = 0;
+	private long openedAt = -1;				//-1 if the circuit is closed
+	private boolean trialInProgress = false;
+	private Thread trialThread = null;		//Thread making the request allowed in the half-open state
+	
+	private long lastResponse = -1;			//Time of the last response from the host, -1 if none
+	
+	/**
+	 * Stores the latency of a successful response and closes the circuit
+	 */
+	synchronized void recordSuccess(long latencyMillis){
+		latencies[next] = latencyMillis;
+		next = (next+1) % LATENCY_WINDOW;
+		samples = Math.min(samples+1, LATENCY_WINDOW);
+		recordResponse();
+	}
+	
+	/**
+	 * Closes the circuit when the host responds, even if the response is an error of the client (4xx)
+	 */
+	synchronized void recordResponse(){
+		consecutiveFailures = 0;
+		openedAt = -1;
+		trialInProgress = false;
+		trialThread = null;
+		lastResponse = System.currentTimeMillis();
+	}
+	
+	/**
+	 * True if the host has responded in the last milliseconds indicated, so there is probably an open connection to it
+	 */
+	synchronized boolean respondedWithin(long millis){
+		return lastResponse>=0 && System.currentTimeMillis()-lastResponse < millis;
+	}
+	
+	/**
+	 * Accounts for a failure, opening the circuit if needed
+	 */
+	synchronized void recordFailure(XMLRequestPolicy policy){
+		consecutiveFailures++;
+		if(trialInProgress || consecutiveFailures >= policy.getFailureThreshold())
+			openedAt = System.currentTimeMillis();
+		trialInProgress = false;
+		trialThread = null;
+	}
+	
+	/**
+	 * Checks if a request to the host can be made
+	 */
+	synchronized boolean allowRequest(XMLRequestPolicy policy){
+		if(openedAt<0)
+			return true;
+		if(!trialInProgress && System.currentTimeMillis()-openedAt >= policy.getOpenCircuitTime()){
+			trialInProgress = true;
+			trialThread = Thread.currentThread();
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Ends the trial request if it was made by the calling thread and its outcome was not recorded 
+	 * (e.g. it was cancelled or failed with an unexpected exception), so that another request can be tried
+	 */
+	synchronized void endTrial(){
+		if(trialThread == Thread.currentThread()){
+			trialInProgress = false;
+			trialThread = null;
+		}
+	}
+	
+	synchronized boolean isOpen(){
+		return openedAt>=0;
+	}
+	
+	/**
+	 * Latency below which the indicated proportion of the last responses were received, or -1 if there are not enough responses
+	 */
+	synchronized long latencyPercentile(double percentile){
+		if(samples < MIN_LATENCY_SAMPLES)
+			return -1;
+		long[] sorted = new long[samples];
+		System.arraycopy(latencies, 0, sorted, 0, samples);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile * samples) - 1;
+		return sorted[Math.max(0, Math.min(samples-1, index))];
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.util.xmllib;
+
+import java.util.EnumMap;
+
+import sandra.libs.util.xmllib.XMLRequestMetrics.ErrorClass;
+import sandra.libs.util.xmllib.XMLRequestMetrics.Phase;
+import sandra.libs.util.xmllib.XMLRequestMetrics.Source;
+
+/**
+ * Aggregates the metrics of the requests of an <code>XMLClient</code>: rolling histograms of the duration of each 
+ * phase and counters of the sources of the responses, errors and bytes. To use it, add it as a listener of the client:
+ * 
+ * 		XMLMetrics metrics = new XMLMetrics();
+ * 		XMLClient.getInstance().addListener(metrics);
+ * 		...
+ * 		Log.i(LOGTAG, metrics.report());
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+public class XMLMetrics implements XMLRequestListener {
+
+	public static final long DEFAULT_WINDOW = 5 * 60 * 1000;	//Milliseconds
+	private static final int SLICES = 10;
+	
+	private final EnumMap<Phase, XMLHistogram> histograms = new EnumMap<Phase, XMLHistogram>(Phase.class);
+	private final EnumMap<Source, Long> sources = new EnumMap<Source, Long>(Source.class);
+	private final EnumMap<ErrorClass, Long> errors = new EnumMap<ErrorClass, Long>(ErrorClass.class);
+	
+	private long requests = 0;
+	private long bytesReceived = 0;
+	private long bodyBytes = 0;
+	private long retries = 0;
+	private long hedged = 0;
+	
+	/**
+	 * Creates the metrics with histograms of the last 5 minutes
+	 */
+	public XMLMetrics(){
+		this(DEFAULT_WINDOW);
+	}
+	
+	/**
+	 * Creates the metrics with histograms of the indicated window (the counters are not reset)
+	 */
+	public XMLMetrics(long windowMillis){
+		for(Phase phase: Phase.values())
+			histograms.put(phase, new XMLHistogram(windowMillis, SLICES));
+	}
+	
+	@Override
+	public void onRequestFinished(XMLRequestMetrics metrics){
+		for(Phase phase: Phase.values()){
+			long duration = metrics.getDuration(phase);
+			if(duration >= 0)
+				histograms.get(phase).record(duration);
+		}
+		
+		synchronized(this){
+			requests++;
+			increment(sources, metrics.getSource());
+			increment(errors, metrics.getErrorClass());
+			if(metrics.getBytesReceived() > 0)
+				bytesReceived += metrics.getBytesReceived();
+			if(metrics.getBodyBytes() > 0)
+				bodyBytes += metrics.getBodyBytes();
+			retries += metrics.getRetries();
+			if(metrics.isHedged())
+				hedged++;
+		}
+	}
+	
+	private static <K extends Enum<K>> void increment(EnumMap<K, Long> counters, K key){
+		Long count = counters.get(key);
+		counters.put(key, count==null ? 1 : count+1);
+	}
+	
+	/**
+	 * Rolling histogram of the duration of a phase
+	 */
+	public XMLHistogram getHistogram(Phase phase){
+		return histograms.get(phase);
+	}
+	
+	public synchronized long getRequestCount(){
+		return requests;
+	}
+	
+	/**
+	 * Number of responses obtained from a source (network, cache...)
+	 */
+	public synchronized long getCount(Source source){
+		Long count = sources.get(source);
+		return count==null ? 0 : count;
+	}
+	
+	/**
+	 * Number of requests that finished with a class of error (NONE for the successful ones)
+	 */
+	public synchronized long getCount(ErrorClass errorClass){
+		Long count = errors.get(errorClass);
+		return count==null ? 0 : count;
+	}
+	
+	/**
+	 * Bytes received from the network (compressed)
+	 */
+	public synchronized long getBytesReceived(){
+		return bytesReceived;
+	}
+	
+	/**
+	 * Bytes of the bodies once decompressed
+	 */
+	public synchronized long getBodyBytes(){
+		return bodyBytes;
+	}
+	
+	/**
+	 * Proportion of the requests answered without downloading the file (from the cache or shared with another request)
+	 */
+	public synchronized double getCacheHitRate(){
+		if(requests==0)
+			return 0;
+		return (double) (getCount(Source.CACHE) + getCount(Source.REVALIDATED) + getCount(Source.SHARED)) / requests;
+	}
+	
+	/**
+	 * Resets the counters and empties the histograms
+	 */
+	public synchronized void reset(){
+		for(XMLHistogram histogram: histograms.values())
+			histogram.clear();
+		sources.clear();
+		errors.clear();
+		requests = 0;
+		bytesReceived = 0;
+		bodyBytes = 0;
+		retries = 0;
+		hedged = 0;
+	}
+	
+	/**
+	 * Text with the counters and the histograms, one line for each, that can be written to the log
+	 */
+	public synchronized String report(){
+		StringBuilder text = new StringBuilder();
+		text.append("requests=").append(requests).append(", sources=").append(sources).append(", errors=").append(errors)
+			.append(", retries=").append(retries).append(", hedged=").append(hedged)
+			.append(", received=").append(bytesReceived).append("B, body=").append(bodyBytes).append('B');
+		for(Phase phase: Phase.values()){
+			XMLHistogram histogram = histograms.get(phase);
+			if(histogram.getCount() > 0)
+				text.append('\n').append(phase.name().toLowerCase()).append(": ").append(histogram);
+		}
+		return text.toString();
+	}
+	
+	@Override
+	public String toString(){
+		return "XMLMetrics ["+report().replace('\n', ';')+"]";
+	}
+}
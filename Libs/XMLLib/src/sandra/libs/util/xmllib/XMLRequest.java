@@ -0,0 +1,184 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.util.xmllib;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import sandra.libs.util.xmllib.XMLRequestMetrics.ErrorClass;
+import sandra.libs.util.xmllib.XMLRequestMetrics.Phase;
+import sandra.libs.util.xmllib.XMLRequestMetrics.Source;
+
+/**
+ * Handle of a request started with <code>XMLClient</code>. It can be used to cancel the request
+ * or to wait for its result.
+ * 
+ * Concurrent requests for the same file share the network call (see <code>XMLFlight</code>), but each of them 
+ * has its own handle: cancelling one of them does not affect the others.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+public class XMLRequest {
+
+	private final String url;
+	private final XMLPriority priority;
+	private final FutureTask<String> task;	//Completed when the flight finishes
+	private volatile XMLFlight flight = null;
+	
+	private final long creationTime = System.currentTimeMillis();
+	private volatile long completionTime = -1;
+	private volatile boolean shared = false;	//True if it joined a flight started by another request
+	
+	XMLRequest(final XMLClient client, String url, final XMLAsyncResponse delegate, final XMLStreamHandler handler, XMLPriority priority){
+		this.url = url;
+		this.priority = priority;
+		task = new FutureTask<String>(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				completionTime = System.currentTimeMillis();
+				return flight.getResult();
+			}
+		}) {
+			@Override
+			protected void done() {
+				client.deliver(XMLRequest.this, delegate, handler);
+			}
+		};
+	}
+	
+	/**
+	 * Attaches the request to a flight
+	 * @return false if the flight has already finished
+	 */
+	boolean attach(XMLFlight flight){
+		this.flight = flight;
+		return flight.join(this);
+	}
+	
+	/**
+	 * Indicates that the request joined a flight started by another request for the same URL
+	 */
+	void setShared(){
+		shared = true;
+	}
+	
+	/**
+	 * Completes the request with the result of its flight
+	 */
+	void complete(){
+		task.run();
+	}
+	
+	/**
+	 * URL requested
+	 */
+	public String getUrl(){
+		return url;
+	}
+	
+	public XMLPriority getPriority(){
+		return priority;
+	}
+	
+	/**
+	 * Cancels the request. If no other request shares its network call, the connections are closed. The delegate is not invoked.
+	 * @return false if the request could not be cancelled because it had already finished
+	 */
+	public boolean cancel(){
+		boolean cancelled = task.cancel(false);
+		if(cancelled && flight!=null)
+			flight.leave(this);
+		return cancelled;
+	}
+	
+	public boolean isCancelled(){
+		return task.isCancelled();
+	}
+	
+	public boolean isDone(){
+		return task.isDone();
+	}
+	
+	/**
+	 * Waits for the request to finish (it must not be invoked from the main thread)
+	 * @return Contents of the file (null for streamed requests)
+	 * @throws ExecutionException If the file could not be retrieved, the cause is the original exception
+	 * @throws InterruptedException If the thread was interrupted while waiting
+	 * @throws java.util.concurrent.CancellationException If the request was cancelled
+	 */
+	public String get() throws InterruptedException, ExecutionException{
+		return task.get();
+	}
+	
+	/**
+	 * Waits at most the indicated time for the request to finish (it must not be invoked from the main thread)
+	 * @throws TimeoutException If the request did not finish in time (it is not cancelled)
+	 */
+	public String get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException{
+		return task.get(timeout, unit);
+	}
+	
+	/**
+	 * Metrics of the request once it has finished
+	 * @param error Exception raised, or null if it was successful
+	 * @param processTime Time spent by the delegate, or -1 if it was not invoked
+	 */
+	XMLRequestMetrics getMetrics(Throwable error, long processTime){
+		long now = System.currentTimeMillis();
+		long[] durations = new long[Phase.values().length];
+		Arrays.fill(durations, -1);
+		long bytesReceived = -1;
+		long bodyBytes = -1;
+		int status = -1;
+		int retries = 0;
+		boolean hedged = false;
+		Source source = shared ? Source.SHARED : Source.NETWORK;
+		
+		//The network phases are only reported by the request that started the flight, so that they are not counted several times
+		XMLFlight flight = this.flight;
+		XMLAttempt attempt = flight!=null ? flight.getReportedAttempt() : null;
+		if(!shared && attempt!=null){
+			durations = attempt.getDurations();
+			bytesReceived = attempt.getBytesReceived();
+			bodyBytes = attempt.getBodyBytes();
+			status = attempt.getStatus();
+			retries = attempt.getRetries();
+			source = attempt.getSource();
+			hedged = flight.isHedged();
+		}
+		if(!shared && flight!=null && flight.getStartTime()>=0)
+			durations[Phase.QUEUE.ordinal()] = Math.max(0, flight.getStartTime() - creationTime);
+		durations[Phase.TOTAL.ordinal()] = (completionTime>=0 ? completionTime : now) - creationTime;
+		durations[Phase.PROCESS.ordinal()] = processTime;
+		
+		ErrorClass errorClass = isCancelled() ? ErrorClass.CANCELLED : XMLRequestMetrics.classify(error);
+		return new XMLRequestMetrics(url, priority, durations, bytesReceived, bodyBytes, status, retries, hedged, source, errorClass, 
+				error==null ? null : error.getMessage());
+	}
+}
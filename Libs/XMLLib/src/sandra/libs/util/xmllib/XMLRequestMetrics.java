@@ -0,0 +1,229 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.util.xmllib;
+
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import javax.net.ssl.SSLException;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Measurements of a request made with <code>XMLClient</code>: the duration of each phase, the sizes of the
+ * response, where it came from (network, cache...) and the class of error if it failed. 
+ * They are sent to the <code>XMLRequestListener</code>s of the client when the request finishes.
+ * 
+ * The durations are in milliseconds, and are -1 for the phases that did not take place (e.g. the network 
+ * phases of a response taken from the cache). When a request is hedged or retried, the network phases 
+ * correspond to the last attempt of the URL that provided the response.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+public class XMLRequestMetrics {
+
+	/**
+	 * Phases of a request
+	 */
+	public enum Phase {
+		QUEUE,			//From the creation of the request until a thread starts it
+		CONNECT,		//Establishment of the connection, including the DNS lookup and the TLS handshake for https URLs
+		FIRST_BYTE,		//From the request until the response headers are received
+		DOWNLOAD,		//Reading of the body
+		PARSE,			//Time spent by the XMLStreamHandler (streamed requests, it includes the download)
+		PROCESS,		//Time spent by the delegate or the error callback
+		TOTAL			//From the creation of the request until the result is available (without PROCESS)
+	}
+	
+	/**
+	 * Origin of the response
+	 */
+	public enum Source {
+		NETWORK,		//Downloaded from the server
+		CACHE,			//Taken from the response cache without accessing the network
+		REVALIDATED,	//Taken from the cache after the server confirmed that it had not changed (304)
+		SHARED			//Obtained from a concurrent request for the same URL
+	}
+	
+	/**
+	 * Classes of errors
+	 */
+	public enum ErrorClass {
+		NONE,
+		DNS,			//The host name could not be resolved
+		CONNECT,		//The connection was refused or the host is unreachable
+		TIMEOUT,		//Connect or read timeout
+		TLS,			//Error in the secure connection
+		HTTP_CLIENT,	//4xx response
+		HTTP_SERVER,	//5xx response
+		CIRCUIT_OPEN,	//Rejected by the circuit breaker of the host
+		PARSE,			//The XML could not be parsed (streamed requests)
+		CANCELLED,
+		OTHER
+	}
+	
+	private final String url;
+	private final XMLPriority priority;
+	private final long[] durations;
+	private final long bytesReceived;
+	private final long bodyBytes;
+	private final int status;
+	private final int retries;
+	private final boolean hedged;
+	private final Source source;
+	private final ErrorClass errorClass;
+	private final String errorMessage;
+	
+	XMLRequestMetrics(String url, XMLPriority priority, long[] durations, long bytesReceived, long bodyBytes, int status, int retries, boolean hedged,
+			Source source, ErrorClass errorClass, String errorMessage){
+		this.url = url;
+		this.priority = priority;
+		this.durations = durations;
+		this.bytesReceived = bytesReceived;
+		this.bodyBytes = bodyBytes;
+		this.status = status;
+		this.retries = retries;
+		this.hedged = hedged;
+		this.source = source;
+		this.errorClass = errorClass;
+		this.errorMessage = errorMessage;
+	}
+	
+	/**
+	 * Class of an exception raised while retrieving or parsing a file
+	 */
+	static ErrorClass classify(Throwable error){
+		if(error==null)
+			return ErrorClass.NONE;
+		if(error instanceof XMLClient.HttpStatusException)
+			return ((XMLClient.HttpStatusException) error).getStatus() >= 500 ? ErrorClass.HTTP_SERVER : ErrorClass.HTTP_CLIENT;
+		if(error instanceof XMLClient.CircuitOpenException)
+			return ErrorClass.CIRCUIT_OPEN;
+		if(error instanceof UnknownHostException)
+			return ErrorClass.DNS;
+		if(error instanceof SocketTimeoutException)
+			return ErrorClass.TIMEOUT;
+		if(error instanceof ConnectException || error instanceof NoRouteToHostException)
+			return ErrorClass.CONNECT;
+		if(error instanceof SSLException)
+			return ErrorClass.TLS;
+		if(error instanceof XmlPullParserException)
+			return ErrorClass.PARSE;
+		if(error instanceof InterruptedIOException || error instanceof InterruptedException)
+			return ErrorClass.CANCELLED;
+		return ErrorClass.OTHER;
+	}
+	
+	public String getUrl(){
+		return url;
+	}
+	
+	public XMLPriority getPriority(){
+		return priority;
+	}
+	
+	/**
+	 * Duration of a phase in milliseconds, or -1 if it did not take place
+	 */
+	public long getDuration(Phase phase){
+		return durations[phase.ordinal()];
+	}
+	
+	/**
+	 * Bytes received from the network (compressed), or -1 if the network was not used
+	 */
+	public long getBytesReceived(){
+		return bytesReceived;
+	}
+	
+	/**
+	 * Size of the body once decompressed, or -1 if unknown
+	 */
+	public long getBodyBytes(){
+		return bodyBytes;
+	}
+	
+	/**
+	 * HTTP status of the last response, or -1 if none was received
+	 */
+	public int getStatus(){
+		return status;
+	}
+	
+	/**
+	 * Number of retries of the URL that provided the response
+	 */
+	public int getRetries(){
+		return retries;
+	}
+	
+	/**
+	 * True if the fallback URL was requested in parallel because the first one was slow or failed
+	 */
+	public boolean isHedged(){
+		return hedged;
+	}
+	
+	public Source getSource(){
+		return source;
+	}
+	
+	public ErrorClass getErrorClass(){
+		return errorClass;
+	}
+	
+	public boolean isSuccessful(){
+		return errorClass == ErrorClass.NONE;
+	}
+	
+	/**
+	 * Message of the error, or null if the request was successful
+	 */
+	public String getErrorMessage(){
+		return errorMessage;
+	}
+	
+	@Override
+	public String toString(){
+		StringBuilder text = new StringBuilder("XMLRequestMetrics [").append(url).append(", ").append(priority).append(", ").append(source);
+		if(errorClass != ErrorClass.NONE)
+			text.append(", error=").append(errorClass);
+		for(Phase phase: Phase.values())
+			if(durations[phase.ordinal()] >= 0)
+				text.append(", ").append(phase.name().toLowerCase()).append('=').append(durations[phase.ordinal()]).append("ms");
+		if(bytesReceived >= 0)
+			text.append(", received=").append(bytesReceived).append('B');
+		if(bodyBytes >= 0)
+			text.append(", body=").append(bodyBytes).append('B');
+		if(retries > 0)
+			text.append(", retries=").append(retries);
+		if(hedged)
+			text.append(", hedged");
+		return text.append(']').toString();
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.util.xmllib;
+
+import java.util.Random;
+
+/**
+ * Policy followed by <code>XMLClient</code> when a server is slow or fails:
+ * 
+ * 	- Hedging: when a request has a fallback URL, the fallback is requested as soon as the first URL takes longer 
+ * 	  than a percentile of the latencies observed for its host (or a default delay until enough latencies have been 
+ * 	  observed), and the first response that arrives is used. 
+ * 	- Retries: failed connections and server errors (5xx) are retried with exponential backoff and random jitter.
+ * 	- Circuit breaker: after several consecutive failures of a host, the requests to it fail immediately during 
+ * 	  some time, after which a single request is allowed to check whether it has recovered.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+public class XMLRequestPolicy {
+
+	public static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+	public static final long DEFAULT_HEDGE_DELAY = 3000;		//Milliseconds, used until enough latencies have been observed
+	public static final long MIN_HEDGE_DELAY = 100;				//Milliseconds
+	public static final int DEFAULT_MAX_RETRIES = 2;
+	public static final long DEFAULT_BASE_BACKOFF = 250;		//Milliseconds
+	public static final long DEFAULT_MAX_BACKOFF = 4000;		//Milliseconds
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	public static final long DEFAULT_OPEN_CIRCUIT_TIME = 30000;	//Milliseconds
+	
+	private volatile boolean hedging = true;
+	private volatile double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+	private volatile long defaultHedgeDelay = DEFAULT_HEDGE_DELAY;
+	
+	private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+	private volatile long baseBackoff = DEFAULT_BASE_BACKOFF;
+	private volatile long maxBackoff = DEFAULT_MAX_BACKOFF;
+	
+	private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+	private volatile long openCircuitTime = DEFAULT_OPEN_CIRCUIT_TIME;
+	
+	/**
+	 * Enables hedging the requests with their fallback URLs
+	 * @param percentile Percentile of the latencies of the host after which the fallback is requested (e.g. 0.95)
+	 * @param defaultDelayMillis Delay after which the fallback is requested until enough latencies have been observed
+	 */
+	public void setHedging(double percentile, long defaultDelayMillis){
+		if(percentile<=0 || percentile>1)
+			throw new IllegalArgumentException("The percentile must be in (0,1]");
+		hedgePercentile = percentile;
+		defaultHedgeDelay = Math.max(MIN_HEDGE_DELAY, defaultDelayMillis);
+		hedging = true;
+	}
+	
+	/**
+	 * Disables hedging: the fallback URL is only requested when the first one fails
+	 */
+	public void disableHedging(){
+		hedging = false;
+	}
+	
+	/**
+	 * Sets the retries of failed attempts
+	 * @param maxRetries Maximum number of retries for each URL (0 for none)
+	 * @param baseBackoffMillis Maximum wait before the first retry, it is doubled in each retry
+	 * @param maxBackoffMillis Maximum wait before any retry
+	 */
+	public void setRetries(int maxRetries, long baseBackoffMillis, long maxBackoffMillis){
+		if(maxRetries<0 || baseBackoffMillis<0 || maxBackoffMillis<baseBackoffMillis)
+			throw new IllegalArgumentException("Invalid retry policy");
+		this.maxRetries = maxRetries;
+		this.baseBackoff = baseBackoffMillis;
+		this.maxBackoff = maxBackoffMillis;
+	}
+	
+	/**
+	 * Sets the circuit breaker for the hosts
+	 * @param failureThreshold Number of consecutive failures after which the requests to the host are rejected
+	 * @param openMillis Time during which the requests are rejected
+	 */
+	public void setCircuitBreaker(int failureThreshold, long openMillis){
+		if(failureThreshold<=0 || openMillis<0)
+			throw new IllegalArgumentException("Invalid circuit breaker policy");
+		this.failureThreshold = failureThreshold;
+		this.openCircuitTime = openMillis;
+	}
+	
+	public boolean isHedgingEnabled(){
+		return hedging;
+	}
+	
+	public double getHedgePercentile(){
+		return hedgePercentile;
+	}
+	
+	public long getDefaultHedgeDelay(){
+		return defaultHedgeDelay;
+	}
+	
+	public int getMaxRetries(){
+		return maxRetries;
+	}
+	
+	public int getFailureThreshold(){
+		return failureThreshold;
+	}
+	
+	public long getOpenCircuitTime(){
+		return openCircuitTime;
+	}
+	
+	/**
+	 * Time to wait before a retry: a random value between 0 and the exponential backoff ("full jitter"), so that
+	 * clients that failed at the same time do not retry at the same time
+	 * @param retry Number of the retry (starting at 0)
+	 */
+	long backoff(int retry, Random random){
+		long limit = baseBackoff << Math.min(retry, 20);
+		limit = Math.min(maxBackoff, limit);
+		return limit<=0 ? 0 : (long) (random.nextDouble() * limit);
+	}
+}
@@ -0,0 +1,485 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.util.xmllib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Two-level cache of the files retrieved by <code>XMLClient</code>: a bounded in-memory LRU and, optionally, 
+ * a size-bounded directory in the disk (usually in the cache directory of the app) so that the files are kept 
+ * when the app is restarted.
+ * 
+ * The freshness of each file follows the HTTP headers of the response: <code>Cache-Control</code> (max-age, 
+ * no-cache, no-store and stale-while-revalidate), <code>Expires</code>, <code>ETag</code> and <code>Last-Modified</code>. 
+ * Fresh files are returned without accessing the network. Files that are no longer fresh are revalidated with a 
+ * conditional request (<code>If-None-Match</code> / <code>If-Modified-Since</code>), unless they are in their 
+ * stale-while-revalidate period: then they are returned immediately and revalidated in the background.
+ * 
+ * As many services (e.g. MusicBrainz or Pandorabots) do not send freshness information, a default max-age and 
+ * stale-while-revalidate period can be set for those responses.
+ * 
+ * All methods are thread-safe.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+public class XMLResponseCache {
+
+	private static final int DISK_FORMAT_VERSION = 1;
+	private static final String DISK_EXTENSION = ".xmlcache";
+	
+	private final int maxMemoryEntries;
+	private final LinkedHashMap<String, Entry> memory;
+	
+	private final File directory;		//null if the cache is only kept in memory
+	private final long maxDiskBytes;
+	private final Object diskLock = new Object();
+	private long diskBytes = 0;
+	
+	private volatile long defaultMaxAge = 0;					//Milliseconds
+	private volatile long defaultStaleWhileRevalidate = 0;		//Milliseconds
+	
+	private long hits = 0;
+	private long revalidations = 0;
+	private long misses = 0;
+	
+	/**
+	 * Creates a cache that is only kept in memory
+	 * @param maxMemoryEntries Maximum number of files kept in memory
+	 */
+	public XMLResponseCache(int maxMemoryEntries){
+		this(maxMemoryEntries, null, 0);
+	}
+	
+	/**
+	 * Creates a cache kept in memory and in the disk
+	 * @param maxMemoryEntries Maximum number of files kept in memory
+	 * @param directory Directory for the files in the disk (e.g. <code>new File(context.getCacheDir(), "xml")</code>), it is created if it does not exist
+	 * @param maxDiskBytes Maximum size of the files in the disk, the least recently used are removed when it is exceeded
+	 */
+	public XMLResponseCache(int maxMemoryEntries, File directory, long maxDiskBytes){
+		if(maxMemoryEntries<=0)
+			throw new IllegalArgumentException("The cache must admit at least one entry");
+		
+		this.maxMemoryEntries = maxMemoryEntries;
+		this.maxDiskBytes = maxDiskBytes;
+		
+		//Access order, so that the eldest entry is the least recently used
+		memory = new LinkedHashMap<String, Entry>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, XMLResponseCache.Entry> eldest){
+				return size() > XMLResponseCache.this.maxMemoryEntries;
+			}
+		};
+		
+		if(directory!=null && (directory.isDirectory() || directory.mkdirs())){
+			this.directory = directory;
+			for(File file: diskFiles())
+				diskBytes += file.length();
+		}
+		else
+			this.directory = null;
+	}
+	
+	/**
+	 * Freshness used for the responses without freshness information (neither <code>Cache-Control: max-age</code> nor <code>Expires</code>)
+	 * @param maxAgeMillis Time during which the response is used without accessing the network (0 to always revalidate it)
+	 * @param staleWhileRevalidateMillis Additional time during which the response is used while it is revalidated in the background
+	 */
+	public void setDefaultFreshness(long maxAgeMillis, long staleWhileRevalidateMillis){
+		defaultMaxAge = maxAgeMillis;
+		defaultStaleWhileRevalidate = staleWhileRevalidateMillis;
+	}
+	
+	/**
+	 * Returns the entry cached for a URL (from memory or from the disk), or null if there is none
+	 */
+	Entry get(String url){
+		Entry entry;
+		synchronized(this){
+			entry = memory.get(url);
+		}
+		if(entry==null && directory!=null){
+			entry = readFromDisk(url);
+			if(entry!=null){
+				synchronized(this){
+					memory.put(url, entry);
+				}
+			}
+		}
+		return entry;
+	}
+	
+	/**
+	 * Creates the entry for a response received from the server, or returns null if it must not be stored or it could 
+	 * never be reused: it is not fresh for any time, it has no validator to revalidate it (neither ETag nor Last-Modified) 
+	 * and it cannot be used while it is revalidated
+	 * @param body Contents of the response
+	 * @param cacheControl Value of the Cache-Control header, or null
+	 * @param etag Value of the ETag header, or null
+	 * @param lastModified Value of the Last-Modified header (0 if absent)
+	 * @param expires Value of the Expires header (0 if absent)
+	 * @param date Value of the Date header (0 if absent)
+	 */
+	Entry createEntry(String body, String cacheControl, String etag, long lastModified, long expires, long date){
+		long now = System.currentTimeMillis();
+		long maxAge = -1;
+		long staleWhileRevalidate = -1;
+		
+		if(cacheControl!=null){
+			for(String directive: cacheControl.toLowerCase().split(",")){
+				directive = directive.trim();
+				if(directive.equals("no-store"))
+					return null;
+				else if(directive.equals("no-cache"))
+					maxAge = 0;
+				else if(directive.startsWith("max-age=") && maxAge!=0)
+					maxAge = parseSeconds(directive.substring(8));
+				else if(directive.startsWith("stale-while-revalidate="))
+					staleWhileRevalidate = parseSeconds(directive.substring(23));
+			}
+		}
+		
+		if(maxAge<0 && expires>0)
+			maxAge = Math.max(0, expires - (date>0 ? date : now));
+		
+		if(maxAge<0){
+			maxAge = defaultMaxAge;
+			if(staleWhileRevalidate<0)
+				staleWhileRevalidate = defaultStaleWhileRevalidate;
+		}
+		
+		if(maxAge<=0 && staleWhileRevalidate<=0 && etag==null && lastModified<=0)
+			return null;
+		
+		return new Entry(body, etag, lastModified, now, maxAge, Math.max(0, staleWhileRevalidate));
+	}
+	
+	private static long parseSeconds(String value){
+		try{
+			return Long.parseLong(value.trim().replace("\"", "")) * 1000;
+		} catch(NumberFormatException ex){
+			return -1;
+		}
+	}
+	
+	/**
+	 * Stores (or replaces) the entry for a URL
+	 */
+	void put(String url, Entry entry){
+		synchronized(this){
+			memory.put(url, entry);
+		}
+		if(directory!=null)
+			writeToDisk(url, entry);
+	}
+	
+	/**
+	 * Removes the entry for a URL, e.g. when the server does no longer allow storing it
+	 */
+	void remove(String url){
+		synchronized(this){
+			memory.remove(url);
+		}
+		if(directory!=null){
+			synchronized(diskLock){
+				File file = fileFor(url);
+				long length = file.length();
+				if(file.delete())
+					diskBytes -= length;
+			}
+		}
+	}
+	
+	synchronized void countHit(){
+		hits++;
+	}
+	
+	synchronized void countRevalidation(){
+		revalidations++;
+	}
+	
+	synchronized void countMiss(){
+		misses++;
+	}
+	
+	/**
+	 * Removes all the files from the cache (also from the disk) and resets the statistics
+	 */
+	public void clear(){
+		synchronized(this){
+			memory.clear();
+			hits = 0;
+			revalidations = 0;
+			misses = 0;
+		}
+		if(directory!=null){
+			synchronized(diskLock){
+				for(File file: diskFiles())
+					file.delete();
+				diskBytes = 0;
+			}
+		}
+	}
+	
+	/**
+	 * Number of files currently kept in memory
+	 */
+	public synchronized int size(){
+		return memory.size();
+	}
+	
+	/**
+	 * Size of the files currently kept in the disk, in bytes
+	 */
+	public long getDiskSize(){
+		synchronized(diskLock){
+			return diskBytes;
+		}
+	}
+	
+	/**
+	 * Number of requests answered from the cache without waiting for the network
+	 */
+	public synchronized long getHits(){
+		return hits;
+	}
+	
+	/**
+	 * Number of requests answered after a conditional request to the server
+	 */
+	public synchronized long getRevalidations(){
+		return revalidations;
+	}
+	
+	/**
+	 * Number of requests for files that were not cached
+	 */
+	public synchronized long getMisses(){
+		return misses;
+	}
+	
+	@Override
+	public synchronized String toString(){
+		return "XMLResponseCache [size="+memory.size()+"/"+maxMemoryEntries+", disk="+getDiskSize()+"/"+maxDiskBytes+" bytes"+
+				", hits="+hits+", revalidations="+revalidations+", misses="+misses+"]";
+	}
+	
+	/*
+	 * Disk storage. Each file is stored in a file named after the MD5 hash of its URL, which contains the URL
+	 * (to detect collisions), the cache information and the contents.
+	 */
+	
+	private File fileFor(String url){
+		try{
+			byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+			StringBuilder name = new StringBuilder();
+			for(byte b: digest)
+				name.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+			return new File(directory, name.append(DISK_EXTENSION).toString());
+		} catch(NoSuchAlgorithmException ex){
+			return new File(directory, Integer.toHexString(url.hashCode())+DISK_EXTENSION);
+		} catch(IOException ex){
+			return new File(directory, Integer.toHexString(url.hashCode())+DISK_EXTENSION);
+		}
+	}
+	
+	private File[] diskFiles(){
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(DISK_EXTENSION);
+			}
+		});
+		return files==null ? new File[0] : files;
+	}
+	
+	private Entry readFromDisk(String url){
+		synchronized(diskLock){
+			File file = fileFor(url);
+			if(!file.isFile())
+				return null;
+			
+			DataInputStream in = null;
+			try{
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				if(in.readInt()!=DISK_FORMAT_VERSION || !in.readUTF().equals(url))
+					return null;
+				String etag = in.readBoolean() ? in.readUTF() : null;
+				long lastModified = in.readLong();
+				long storedAt = in.readLong();
+				long maxAge = in.readLong();
+				long staleWhileRevalidate = in.readLong();
+				byte[] body = new byte[in.readInt()];
+				in.readFully(body);
+				
+				file.setLastModified(System.currentTimeMillis());	//Used to remove the least recently used files
+				return new Entry(new String(body, "UTF-8"), etag, lastModified, storedAt, maxAge, staleWhileRevalidate);
+			} catch(IOException ex){
+				return null;
+			} finally {
+				close(in);
+			}
+		}
+	}
+	
+	private void writeToDisk(String url, Entry entry){
+		synchronized(diskLock){
+			File file = fileFor(url);
+			long previous = file.length();
+			
+			DataOutputStream out = null;
+			try{
+				byte[] body = entry.body.getBytes("UTF-8");
+				out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+				out.writeInt(DISK_FORMAT_VERSION);
+				out.writeUTF(url);
+				out.writeBoolean(entry.etag!=null);
+				if(entry.etag!=null)
+					out.writeUTF(entry.etag);
+				out.writeLong(entry.lastModified);
+				out.writeLong(entry.storedAt);
+				out.writeLong(entry.maxAge);
+				out.writeLong(entry.staleWhileRevalidate);
+				out.writeInt(body.length);
+				out.write(body);
+				out.close();
+				out = null;
+				diskBytes += file.length() - previous;
+			} catch(IOException ex){
+				close(out);
+				out = null;
+				diskBytes -= previous;
+				file.delete();
+			} finally {
+				close(out);
+			}
+			
+			if(diskBytes > maxDiskBytes)
+				trimDisk(file);
+		}
+	}
+	
+	/**
+	 * Removes the least recently used files until the size of the disk cache is below the maximum
+	 */
+	private void trimDisk(File keep){
+		File[] files = diskFiles();
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long m1 = f1.lastModified(), m2 = f2.lastModified();
+				return m1<m2 ? -1 : (m1==m2 ? 0 : 1);
+			}
+		});
+		
+		diskBytes = 0;
+		for(File file: files)
+			diskBytes += file.length();
+		
+		for(int i=0; i<files.length && diskBytes > maxDiskBytes; i++){
+			if(files[i].equals(keep) && files.length>1)
+				continue;
+			long length = files[i].length();
+			if(files[i].delete())
+				diskBytes -= length;
+		}
+	}
+	
+	private static void close(java.io.Closeable stream){
+		if(stream!=null){
+			try{
+				stream.close();
+			} catch(IOException ex){
+				//Nothing else can be done
+			}
+		}
+	}
+	
+	/**
+	 * File stored in the cache together with the information to decide whether it can be used
+	 */
+	static class Entry {
+		final String body;
+		final String etag;
+		final long lastModified;
+		final long storedAt;
+		final long maxAge;
+		final long staleWhileRevalidate;
+		
+		Entry(String body, String etag, long lastModified, long storedAt, long maxAge, long staleWhileRevalidate){
+			this.body = body;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.storedAt = storedAt;
+			this.maxAge = maxAge;
+			this.staleWhileRevalidate = staleWhileRevalidate;
+		}
+		
+		/**
+		 * True if the entry can be used without accessing the network
+		 */
+		boolean isFresh(long now){
+			return now - storedAt < maxAge;
+		}
+		
+		/**
+		 * True if the entry can be used while it is revalidated in the background
+		 */
+		boolean isUsableWhileRevalidating(long now){
+			return now - storedAt < maxAge + staleWhileRevalidate;
+		}
+		
+		/**
+		 * True if a conditional request can be sent to revalidate the entry
+		 */
+		boolean isRevalidable(){
+			return etag!=null || lastModified>0;
+		}
+		
+		/**
+		 * Same contents with the freshness information of a new (304 Not Modified) response
+		 */
+		Entry refreshed(Entry fresh){
+			return new Entry(body, fresh.etag!=null ? fresh.etag : etag, fresh.lastModified>0 ? fresh.lastModified : lastModified, 
+					fresh.storedAt, fresh.maxAge, fresh.staleWhileRevalidate);
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.util.xmllib;
+
+import java.util.EnumMap;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler of the requests of <code>XMLClient</code>. Each priority class has its own queue and a limit
+ * of tasks running at the same time. When a thread is free, the oldest task of the highest priority class
+ * that has not reached its limit is started. 
+ * 
+ * Some threads are reserved for the interactive tasks (half of them by default): the prefetches and the 
+ * background work together never use more than the rest, so up to that number of interactive requests run 
+ * at the same time without waiting for non-interactive ones. The threads that run non-interactive tasks 
+ * also have a lower priority, so they do not compete with the UI for the CPU.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+class XMLScheduler {
+
+	private final int threads;
+	private final ExecutorService pool;
+	
+	private final EnumMap<XMLPriority, LinkedList<Runnable>> queues = new EnumMap<XMLPriority, LinkedList<Runnable>>(XMLPriority.class);
+	private final EnumMap<XMLPriority, Integer> running = new EnumMap<XMLPriority, Integer>(XMLPriority.class);
+	private final EnumMap<XMLPriority, Integer> limits = new EnumMap<XMLPriority, Integer>(XMLPriority.class);
+	private int totalRunning = 0;
+	private int nonInteractiveRunning = 0;
+	private int interactiveReserve;		//Threads that non-interactive tasks cannot use
+	private boolean shutdown = false;
+	
+	/**
+	 * @param threads Maximum number of tasks running at the same time
+	 */
+	XMLScheduler(int threads, ThreadFactory threadFactory){
+		if(threads<=0)
+			throw new IllegalArgumentException("The number of threads must be positive");
+		this.threads = threads;
+		pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+		
+		for(XMLPriority priority: XMLPriority.values()){
+			queues.put(priority, new LinkedList<Runnable>());
+			running.put(priority, 0);
+		}
+		
+		//By default, prefetches can use half of the threads and background work only one
+		limits.put(XMLPriority.INTERACTIVE, threads);
+		limits.put(XMLPriority.PREFETCH, Math.max(1, threads/2));
+		limits.put(XMLPriority.BACKGROUND, 1);
+		interactiveReserve = reserve(Math.max(1, threads/2));
+	}
+	
+	/**
+	 * Sets the maximum number of tasks of a class that run at the same time. In any case, the non-interactive 
+	 * tasks never use the threads reserved for the interactive ones.
+	 */
+	void setLimit(XMLPriority priority, int limit){
+		if(limit<=0)
+			throw new IllegalArgumentException("The limit must be positive");
+		synchronized(this){
+			limits.put(priority, Math.min(limit, threads));
+		}
+		dispatch();
+	}
+	
+	synchronized int getLimit(XMLPriority priority){
+		return limits.get(priority);
+	}
+	
+	/**
+	 * Sets the number of threads that only interactive tasks can use. At least one thread is always left for the 
+	 * non-interactive tasks, except when there is a single thread, which they can use if no interactive task is running.
+	 */
+	void setInteractiveReserve(int reserve){
+		if(reserve<0)
+			throw new IllegalArgumentException("The reserve cannot be negative");
+		synchronized(this){
+			interactiveReserve = reserve(reserve);
+		}
+		dispatch();
+	}
+	
+	synchronized int getInteractiveReserve(){
+		return interactiveReserve;
+	}
+	
+	private int reserve(int reserve){
+		return Math.min(reserve, threads-1);
+	}
+	
+	/**
+	 * Queues a task with the specified priority
+	 */
+	void execute(Runnable task, XMLPriority priority){
+		synchronized(this){
+			if(shutdown)
+				return;
+			queues.get(priority).add(task);
+		}
+		dispatch();
+	}
+	
+	/**
+	 * Moves a task that has not started yet to the queue of a higher priority (e.g. when an interactive request
+	 * needs the file that is being prefetched). It has no effect if the task has started or has a higher priority.
+	 */
+	void promote(Runnable task, XMLPriority priority){
+		synchronized(this){
+			for(XMLPriority lower: XMLPriority.values()){
+				if(lower.compareTo(priority) > 0 && queues.get(lower).remove(task)){
+					queues.get(priority).add(task);
+					break;
+				}
+			}
+		}
+		dispatch();
+	}
+	
+	/**
+	 * Number of tasks of a class waiting to start
+	 */
+	synchronized int getQueued(XMLPriority priority){
+		return queues.get(priority).size();
+	}
+	
+	/**
+	 * Starts the queued tasks while there are free threads
+	 */
+	private void dispatch(){
+		while(true){
+			final Runnable task;
+			final XMLPriority priority;
+			synchronized(this){
+				priority = next();
+				if(priority==null)
+					return;
+				task = queues.get(priority).removeFirst();
+				running.put(priority, running.get(priority)+1);
+				totalRunning++;
+				if(priority != XMLPriority.INTERACTIVE)
+					nonInteractiveRunning++;
+			}
+			
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					Thread thread = Thread.currentThread();
+					int threadPriority = thread.getPriority();
+					if(priority != XMLPriority.INTERACTIVE)
+						thread.setPriority(Thread.MIN_PRIORITY);
+					try{
+						task.run();
+					} finally {
+						thread.setPriority(threadPriority);
+						finished(priority);
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Class of the next task to start, or null if none can start now
+	 */
+	private XMLPriority next(){
+		if(shutdown || totalRunning >= threads)
+			return null;
+		
+		for(XMLPriority priority: XMLPriority.values()){
+			if(queues.get(priority).isEmpty() || running.get(priority) >= limits.get(priority))
+				continue;
+			if(priority != XMLPriority.INTERACTIVE && nonInteractiveRunning >= threads-interactiveReserve)
+				continue;	//The rest of the threads are reserved for interactive tasks
+			return priority;
+		}
+		return null;
+	}
+	
+	private void finished(XMLPriority priority){
+		synchronized(this){
+			running.put(priority, running.get(priority)-1);
+			totalRunning--;
+			if(priority != XMLPriority.INTERACTIVE)
+				nonInteractiveRunning--;
+		}
+		dispatch();
+	}
+	
+	/**
+	 * Discards the queued tasks and interrupts the running ones
+	 */
+	void shutdownNow(){
+		synchronized(this){
+			shutdown = true;
+			for(LinkedList<Runnable> queue: queues.values())
+				queue.clear();
+		}
+		pool.shutdownNow();
+	}
+}
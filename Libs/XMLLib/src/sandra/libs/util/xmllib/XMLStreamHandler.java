@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.util.xmllib;
+
+import java.io.IOException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Interface to be implemented by the classes that parse an XML file while it is being received 
+ * (see <code>XMLClient.stream</code>), instead of waiting for the whole file as a String 
+ * (see <code>XMLAsyncResponse</code>).
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+public interface XMLStreamHandler {
+
+	/**
+	 * Reads the XML file with a parser bound to the response from the server. The parser is positioned
+	 * at the start of the document.
+	 * 
+	 * It is invoked in a background thread (not in the main thread, so the GUI must not be updated directly).
+	 * The handler can stop reading at any point by returning: the rest of the file is not downloaded.
+	 * 
+	 * @throws XmlPullParserException If the file is not well-formed, it is sent to <code>processXMLStreamError</code>
+	 * @throws IOException If the connection fails while reading, it is sent to <code>processXMLStreamError</code>
+	 */
+	void processXMLStream(XmlPullParser parser) throws XmlPullParserException, IOException;
+	
+	/**
+	 * It is invoked in the main thread when the file could not be retrieved or parsed
+	 * @param error "NetworkException - " or "XMLException - " followed by the error message
+	 */
+	void processXMLStreamError(String error);
+}
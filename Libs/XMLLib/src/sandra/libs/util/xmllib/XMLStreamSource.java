@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.libs.util.xmllib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import sandra.libs.util.xmllib.XMLRequestMetrics.Phase;
+
+/**
+ * Source of an XML file parsed in streaming mode: either a copy of the file in the cache,
+ * or a connection to the server whose response is parsed while it is being received.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+class XMLStreamSource {
+
+	private static XmlPullParserFactory factory = null;
+	
+	private final String body;
+	private final HttpURLConnection connection;
+	private final XMLResponseCache cache;
+	private final String url;
+	private final XMLAttempt attempt;	//Attempt in which the parsing time and the bytes read are recorded
+	
+	/**
+	 * Source for a file already available (e.g. from the cache)
+	 */
+	XMLStreamSource(String body, XMLAttempt attempt){
+		this.body = body;
+		this.connection = null;
+		this.cache = null;
+		this.url = null;
+		this.attempt = attempt;
+	}
+	
+	/**
+	 * Source for the response of a connection
+	 * @param cache Cache in which the file is stored if it is read completely, or null
+	 */
+	XMLStreamSource(HttpURLConnection connection, XMLAttempt attempt, XMLResponseCache cache, String url){
+		this.body = null;
+		this.connection = connection;
+		this.cache = cache;
+		this.url = url;
+		this.attempt = attempt;
+	}
+	
+	private static synchronized XmlPullParser newParser() throws XmlPullParserException{
+		if(factory==null)
+			factory = XmlPullParserFactory.newInstance();
+		return factory.newPullParser();
+	}
+	
+	/**
+	 * Sends a parser bound to the file to the handler. 
+	 * 
+	 * If the handler reads the whole document, the connection is kept alive to be reused, and the file is stored in
+	 * the cache. If it stops before, the connection is closed so that the rest of the file is not downloaded.
+	 */
+	void parse(XMLStreamHandler handler) throws IOException, XmlPullParserException{
+		XmlPullParser parser = newParser();
+		long start = System.currentTimeMillis();
+		
+		if(body!=null){
+			parser.setInput(new StringReader(body));
+			handler.processXMLStream(parser);
+			attempt.setDuration(Phase.PARSE, System.currentTimeMillis() - start);
+			return;
+		}
+		
+		boolean complete = false;
+		try{
+			InputStream in = XMLContent.open(connection, attempt);
+			CapturingInputStream captured = null;
+			if(cache!=null)
+				in = captured = new CapturingInputStream(in);
+			
+			//If the header does not indicate the charset, the parser detects it from the XML declaration
+			parser.setInput(in, XMLContent.charsetFromContentType(connection.getContentType()));
+			handler.processXMLStream(parser);
+			attempt.setDuration(Phase.PARSE, System.currentTimeMillis() - start);
+			
+			if(parser.getEventType() == XmlPullParser.END_DOCUMENT){
+				XMLClient.discard(in);		//Reads anything after the root element and closes the stream
+				complete = true;
+				if(captured!=null){
+					String encoding = parser.getInputEncoding();
+					XMLClient.store(cache, url, connection, captured.toString(encoding!=null ? encoding : "UTF-8"), null);
+				}
+			}
+		} finally {
+			if(!complete)
+				connection.disconnect();
+		}
+	}
+	
+	/**
+	 * Stream that keeps a copy of the bytes read, so that the file can be stored in the cache
+	 */
+	private static class CapturingInputStream extends FilterInputStream {
+		private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		
+		CapturingInputStream(InputStream in){
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException{
+			int b = super.read();
+			if(b != -1)
+				copy.write(b);
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException{
+			int read = super.read(buffer, offset, count);
+			if(read > 0)
+				copy.write(buffer, offset, read);
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException{
+			byte[] buffer = new byte[(int) Math.min(n, 1024)];
+			return Math.max(0, read(buffer, 0, buffer.length));
+		}
+		
+		String toString(String encoding) throws IOException{
+			return copy.toString(encoding);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.tools.aimlcompiler;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import sandra.libs.vpa.vpalib.AIMLEngine;
+
+/**
+ * Compiles AIML files into a brain image that the bots of <code>VPALib</code> memory-map with 
+ * <code>Bot.loadBrain</code>, so that the apps do not parse the AIML when they start.
+ * 
+ * Usage: java sandra.tools.aimlcompiler.AIMLCompiler [--option=value]... output input...
+ * 
+ * 		output					Brain image to write (e.g. ../../Apps/Derek/Derek/assets/derek.brain)
+ * 		input					AIML files, zip files with AIML files, or folders with any of them
+ * 		--property=name:value	Property of the bot used in the patterns, it can be repeated
+ * 		--test=sentence			Input used to check that the image answers the same as the AIML, it can be repeated
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+public class AIMLCompiler {
+
+	public static void main(String[] args) throws Exception {
+		AIMLEngine engine = new AIMLEngine();
+		ArrayList<String> tests = new ArrayList<String>();
+		ArrayList<File> files = new ArrayList<File>();
+		
+		for(String arg: args){
+			if(arg.startsWith("--property=") && arg.indexOf(':')>0){
+				String property = arg.substring("--property=".length());
+				engine.setProperty(property.substring(0, property.indexOf(':')), property.substring(property.indexOf(':')+1));
+			}
+			else if(arg.startsWith("--test="))
+				tests.add(arg.substring("--test=".length()));
+			else if(arg.startsWith("--"))
+				throw new IllegalArgumentException("Invalid option "+arg);
+			else
+				files.add(new File(arg));
+		}
+		if(files.size()<2)
+			throw new IllegalArgumentException("Usage: AIMLCompiler [--property=name:value] [--test=sentence] output input...");
+		
+		//Load the AIML
+		File output = files.remove(0);
+		long start = System.nanoTime();
+		long aimlSize = 0;
+		for(File file: files)
+			aimlSize += load(engine, file);
+		System.out.printf(Locale.US, "%d categories loaded from %d bytes of AIML in %.1f ms%n", engine.getCategoryCount(), aimlSize, 
+				(System.nanoTime()-start)/1e6);
+		
+		//Write the image
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+		try {
+			engine.writeImage(out);
+		} finally {
+			out.close();
+		}
+		
+		//Open it as the apps do
+		start = System.nanoTime();
+		AIMLEngine image = new AIMLEngine();
+		image.loadImage(output);
+		System.out.printf(Locale.US, "%s written, %d bytes, opened in %.1f ms%n", output, output.length(), (System.nanoTime()-start)/1e6);
+		if(image.getCategoryCount()!=engine.getCategoryCount())
+			throw new IllegalStateException("The image has "+image.getCategoryCount()+" categories instead of "+engine.getCategoryCount());
+		
+		for(String test: tests){
+			String expected = engine.respond(test);
+			String response = image.respond(test);
+			System.out.println(test+" -> "+response);
+			if(expected==null ? response!=null : !expected.equals(response))
+				System.out.println("\tWARNING: the AIML answers "+expected+" (different if the template is random)");
+		}
+	}
+	
+	/**
+	 * Loads an AIML file, a zip file or the files in a folder
+	 * @return number of bytes read
+	 */
+	private static long load(AIMLEngine engine, File file) throws IOException, XmlPullParserException {
+		if(file.isDirectory()){
+			long size = 0;
+			File[] children = file.listFiles();
+			Arrays.sort(children);
+			for(File child: children)
+				if(child.isDirectory() || isAIML(child) || isZip(child))
+					size += load(engine, child);
+			return size;
+		}
+		
+		InputStream in = new FileInputStream(file);
+		try {
+			if(isZip(file))
+				engine.loadZip(in);
+			else
+				engine.load(in);
+		} finally {
+			in.close();
+		}
+		return file.length();
+	}
+	
+	private static boolean isAIML(File file){
+		return file.getName().toLowerCase(Locale.ENGLISH).endsWith(".aiml");
+	}
+	
+	private static boolean isZip(File file){
+		return file.getName().toLowerCase(Locale.ENGLISH).endsWith(".zip");
+	}
+}
@@ -0,0 +1,382 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.tools.knowledgeindexer;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import sandra.libs.vpa.vpalib.KnowledgeIndexWriter;
+import sandra.libs.vpa.vpalib.LocalKnowledgeSource;
+
+/**
+ * Builds the index of entities that the bots of <code>VPALib</code> search offline with 
+ * <code>Bot.loadKnowledgeIndex</code>, from a dump of DBpedia or from other files with entities.
+ * 
+ * Usage: java sandra.tools.knowledgeindexer.KnowledgeIndexer [--option=value]... output input...
+ * 
+ * 		output					Index to write (e.g. ../../Apps/Derek/Derek/assets/diabetes.index)
+ * 		input					Files with entities, compressed with gzip if their name ends with .gz:
+ * 								.ttl, .nt	N-Triples (e.g. the long or short abstracts of DBpedia), the subject 
+ * 											is the label and the literal is the description
+ * 								.xml		Elements with a label and a description (e.g. the results of the 
+ * 											keyword search of DBpedia)
+ * 								.json		Objects with a label and a description
+ * 		--entity=name			Name of the XML elements that contain the entities (default Result)
+ * 		--label=name			Name of the XML element or JSON field of the label (default Label in XML, label in JSON)
+ * 		--description=name		Name of the XML element or JSON field of the description (default Description in 
+ * 								XML, description in JSON)
+ * 		--language=code			Language of the N-Triples literals that are indexed (default en)
+ * 		--test=query			Query used to check the index, it can be repeated
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+public class KnowledgeIndexer {
+	
+	private static String entityElement = "Result";
+	private static String labelName = null;
+	private static String descriptionName = null;
+	private static String language = "en";
+
+	public static void main(String[] args) throws Exception {
+		ArrayList<String> tests = new ArrayList<String>();
+		ArrayList<File> files = new ArrayList<File>();
+		
+		for(String arg: args){
+			if(arg.startsWith("--entity="))
+				entityElement = arg.substring("--entity=".length());
+			else if(arg.startsWith("--label="))
+				labelName = arg.substring("--label=".length());
+			else if(arg.startsWith("--description="))
+				descriptionName = arg.substring("--description=".length());
+			else if(arg.startsWith("--language="))
+				language = arg.substring("--language=".length());
+			else if(arg.startsWith("--test="))
+				tests.add(arg.substring("--test=".length()));
+			else if(arg.startsWith("--"))
+				throw new IllegalArgumentException("Invalid option "+arg);
+			else
+				files.add(new File(arg));
+		}
+		if(files.size()<2)
+			throw new IllegalArgumentException("Usage: KnowledgeIndexer [--entity=name] [--label=name] [--description=name] [--language=code] [--test=query] output input...");
+		
+		//Read the entities
+		File output = files.remove(0);
+		KnowledgeIndexWriter writer = new KnowledgeIndexWriter();
+		long start = System.nanoTime();
+		for(File file: files)
+			load(writer, file);
+		System.out.printf(Locale.US, "%d entities read in %.1f s%n", writer.size(), (System.nanoTime()-start)/1e9);
+		
+		//Write the index
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+		try {
+			writer.write(out);
+		} finally {
+			out.close();
+		}
+		
+		//Open it as the apps do
+		start = System.nanoTime();
+		LocalKnowledgeSource index = new LocalKnowledgeSource(output);
+		System.out.printf(Locale.US, "%s written, %d bytes, opened in %.1f ms%n", output, output.length(), (System.nanoTime()-start)/1e6);
+		
+		for(String test: tests){
+			start = System.nanoTime();
+			LocalKnowledgeSource.Hit[] hits = index.search(test, 3);
+			System.out.printf(Locale.US, "%s -> %d hits in %.2f ms%n", test, hits.length, (System.nanoTime()-start)/1e6);
+			for(LocalKnowledgeSource.Hit hit: hits)
+				System.out.printf(Locale.US, "\t%.2f %s: %s%n", hit.getScore(), hit.getLabel(), abbreviate(hit.getDescription()));
+		}
+	}
+	
+	private static String abbreviate(String text){
+		return text.length() > 80 ? text.substring(0, 77)+"..." : text;
+	}
+	
+	/**
+	 * Reads the entities of a file according to its extension
+	 */
+	private static void load(KnowledgeIndexWriter writer, File file) throws IOException, XmlPullParserException {
+		String name = file.getName().toLowerCase(Locale.ENGLISH);
+		InputStream in = new FileInputStream(file);
+		try {
+			if(name.endsWith(".gz")){
+				in = new GZIPInputStream(in, 65536);
+				name = name.substring(0, name.length()-3);
+			}
+			
+			if(name.endsWith(".ttl") || name.endsWith(".nt"))
+				loadTriples(writer, new BufferedReader(new InputStreamReader(in, "UTF-8"), 65536));
+			else if(name.endsWith(".xml"))
+				loadXML(writer, in);
+			else if(name.endsWith(".json"))
+				new JSONEntityReader(new BufferedReader(new InputStreamReader(in, "UTF-8"), 65536), 
+						labelName!=null ? labelName : "label", descriptionName!=null ? descriptionName : "description").read(writer);
+			else
+				throw new IllegalArgumentException("Unknown type of file "+file);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Reads N-Triples such as <http://dbpedia.org/resource/Granada> <http://dbpedia.org/ontology/abstract> "Granada is..."@en .
+	 * The label is the name of the resource, and the description is the literal if it is in the language indexed
+	 */
+	private static void loadTriples(KnowledgeIndexWriter writer, BufferedReader reader) throws IOException {
+		String line;
+		while((line = reader.readLine()) != null){
+			if(!line.startsWith("<"))
+				continue;	//Comments and blank nodes
+			int subjectEnd = line.indexOf('>');
+			int literalStart = line.indexOf('"', subjectEnd);
+			int literalEnd = line.lastIndexOf('"');
+			if(subjectEnd<0 || literalStart<0 || literalEnd<=literalStart)
+				continue;	//The object is not a literal
+			
+			String tag = line.substring(literalEnd+1).trim();
+			if(tag.startsWith("@") && !tag.startsWith("@"+language+" ") && !tag.equals("@"+language+"."))
+				continue;
+			
+			String subject = line.substring(1, subjectEnd);
+			String label = subject.substring(Math.max(subject.lastIndexOf('/'), subject.lastIndexOf('#'))+1);
+			try {
+				label = URLDecoder.decode(label.replace("+", "%2B"), "UTF-8");
+			} catch (IllegalArgumentException e) {
+				//Not encoded
+			}
+			writer.add(label.replace('_', ' '), unescape(line.substring(literalStart+1, literalEnd)));
+		}
+	}
+	
+	/**
+	 * Replaces the escape sequences of N-Triples and JSON strings
+	 */
+	static String unescape(String text){
+		if(text.indexOf('\\')<0)
+			return text;
+		StringBuilder result = new StringBuilder(text.length());
+		for(int i=0; i<text.length(); i++){
+			char c = text.charAt(i);
+			if(c!='\\' || i+1==text.length()){
+				result.append(c);
+				continue;
+			}
+			c = text.charAt(++i);
+			switch(c){
+				case 'n': result.append('\n'); break;
+				case 'r': result.append('\r'); break;
+				case 't': result.append('\t'); break;
+				case 'b': result.append('\b'); break;
+				case 'f': result.append('\f'); break;
+				case 'u':
+				case 'U':
+					int digits = c=='u' ? 4 : 8;
+					if(i+digits < text.length()){
+						result.appendCodePoint(Integer.parseInt(text.substring(i+1, i+1+digits), 16));
+						i += digits;
+					}
+					break;
+				default: result.append(c);	// \" \\ \/
+			}
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * Reads the entities of an XML file: the elements named as the entities, with the label and the description 
+	 * in child elements (or in nested elements, whose text is concatenated)
+	 */
+	private static void loadXML(KnowledgeIndexWriter writer, InputStream in) throws IOException, XmlPullParserException {
+		String labelElement = labelName!=null ? labelName : "Label";
+		String descriptionElement = descriptionName!=null ? descriptionName : "Description";
+		XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+		parser.setInput(in, null);
+		
+		String label = null;
+		String description = null;
+		int entityDepth = -1;
+		int eventType = parser.getEventType();
+		while(eventType != XmlPullParser.END_DOCUMENT){
+			if(eventType == XmlPullParser.START_TAG){
+				if(parser.getName().equals(entityElement)){
+					entityDepth = parser.getDepth();
+					label = null;
+					description = null;
+				}
+				else if(entityDepth>=0 && label==null && parser.getName().equals(labelElement))
+					label = text(parser);
+				else if(entityDepth>=0 && description==null && parser.getName().equals(descriptionElement))
+					description = text(parser);
+			}
+			else if(eventType == XmlPullParser.END_TAG && parser.getDepth()==entityDepth){
+				if(label!=null && description!=null)
+					writer.add(label, description);
+				entityDepth = -1;
+			}
+			eventType = parser.next();
+		}
+	}
+	
+	/**
+	 * Text of an element, including the text of the elements it contains. The parser is left at its end tag
+	 */
+	private static String text(XmlPullParser parser) throws IOException, XmlPullParserException {
+		StringBuilder text = new StringBuilder();
+		int depth = parser.getDepth();
+		int eventType = parser.next();
+		while(eventType != XmlPullParser.END_TAG || parser.getDepth() > depth){
+			if(eventType == XmlPullParser.TEXT)
+				text.append(parser.getText());
+			eventType = parser.next();
+		}
+		return text.toString().trim();
+	}
+	
+	/**
+	 * Reads the entities of a JSON file: every object, at any depth, with a label and a description. If the 
+	 * values are arrays (e.g. in the JSON results of DBpedia), their first string is used.
+	 */
+	private static class JSONEntityReader {
+		private final Reader reader;
+		private final String labelField;
+		private final String descriptionField;
+		private int next;
+		
+		JSONEntityReader(Reader reader, String labelField, String descriptionField){
+			this.reader = reader;
+			this.labelField = labelField;
+			this.descriptionField = descriptionField;
+		}
+		
+		void read(KnowledgeIndexWriter writer) throws IOException {
+			next = reader.read();
+			readValue(writer);
+		}
+		
+		/**
+		 * Reads a value, adding the entities it contains
+		 * @return the string of the value, or of the first element if it is an array; null otherwise
+		 */
+		private String readValue(KnowledgeIndexWriter writer) throws IOException {
+			skipWhitespace();
+			if(next=='{'){
+				next = reader.read();
+				String label = null;
+				String description = null;
+				skipWhitespace();
+				while(next!='}'){
+					String field = readString();
+					skipWhitespace();
+					expect(':');
+					String value = readValue(writer);
+					if(field.equals(labelField) && label==null)
+						label = value;
+					else if(field.equals(descriptionField) && description==null)
+						description = value;
+					skipWhitespace();
+					if(next==',')
+						next = reader.read();
+					skipWhitespace();
+				}
+				next = reader.read();
+				if(label!=null && description!=null)
+					writer.add(label, description);
+				return null;
+			}
+			else if(next=='['){
+				next = reader.read();
+				String first = null;
+				skipWhitespace();
+				while(next!=']'){
+					String value = readValue(writer);
+					if(first==null)
+						first = value;
+					skipWhitespace();
+					if(next==',')
+						next = reader.read();
+					skipWhitespace();
+				}
+				next = reader.read();
+				return first;
+			}
+			else if(next=='"')
+				return readString();
+			else {
+				//Number, true, false or null
+				while(next!=-1 && next!=',' && next!='}' && next!=']' && !Character.isWhitespace(next))
+					next = reader.read();
+				return null;
+			}
+		}
+		
+		private String readString() throws IOException {
+			expect('"');
+			StringBuilder text = new StringBuilder();
+			while(next!='"'){
+				if(next==-1)
+					throw new IOException("Unterminated JSON string");
+				if(next=='\\'){
+					text.append('\\');
+					next = reader.read();
+				}
+				text.append((char) next);
+				next = reader.read();
+			}
+			next = reader.read();
+			return unescape(text.toString());
+		}
+		
+		private void expect(char c) throws IOException {
+			if(next!=c)
+				throw new IOException("Invalid JSON: expected "+c+" but found "+(next==-1 ? "the end of the file" : String.valueOf((char) next)));
+			next = reader.read();
+		}
+		
+		private void skipWhitespace() throws IOException {
+			while(next!=-1 && Character.isWhitespace(next))
+				next = reader.read();
+			if(next==-1)
+				throw new IOException("Unexpected end of the JSON file");
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.tools.xmlloadtest;
+
+import java.util.Arrays;
+
+/**
+ * Latencies recorded during a load test, with exact percentiles.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+class LatencySamples {
+
+	private long[] samples = new long[256];
+	private int count = 0;
+	private int errors = 0;
+	
+	synchronized void record(long millis){
+		if(count == samples.length){
+			long[] bigger = new long[samples.length*2];
+			System.arraycopy(samples, 0, bigger, 0, count);
+			samples = bigger;
+		}
+		samples[count++] = millis;
+	}
+	
+	synchronized void recordError(){
+		errors++;
+	}
+	
+	synchronized int getCount(){
+		return count;
+	}
+	
+	synchronized int getErrors(){
+		return errors;
+	}
+	
+	/**
+	 * Values of the percentiles indicated (e.g. 0.5, 0.99) with the nearest-rank method, 0 if there are no samples
+	 */
+	synchronized long[] percentiles(double... percentiles){
+		long[] sorted = new long[count];
+		System.arraycopy(samples, 0, sorted, 0, count);
+		Arrays.sort(sorted);
+		
+		long[] values = new long[percentiles.length];
+		for(int i=0; i<percentiles.length; i++){
+			if(count==0)
+				continue;
+			int rank = (int) Math.ceil(percentiles[i] * count);
+			values[i] = sorted[Math.min(count, Math.max(1, rank)) - 1];
+		}
+		return values;
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.tools.xmlloadtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import sandra.libs.util.xmllib.XMLClient;
+import sandra.libs.util.xmllib.XMLMetrics;
+import sandra.libs.util.xmllib.XMLResponseCache;
+
+/**
+ * Load test of <code>XMLLib</code> with the interactions of the apps: it starts a <code>ReplayServer</code> that
+ * stands in for their web services and runs N concurrent simulated sessions (see <code>Scenario</code>) with
+ * an <code>XMLClient</code>. When they finish, it reports the throughput and the percentiles of the latency of 
+ * the turns of each scenario, the metrics of the client and the statistics of the server.
+ * 
+ * Usage: java sandra.tools.xmlloadtest.LoadTest [--option=value]...
+ * 
+ * 		--recordings=dir		Directory with replay.properties and the recorded responses (default: recordings)
+ * 		--sessions=N			Concurrent sessions (default: 20)
+ * 		--turns=N				Turns of each session (default: 10)
+ * 		--duration=seconds		Maximum duration of the test, 0 for no limit (default: 0)
+ * 		--mix=jack:2,...		Proportion of sessions of each scenario (default: jack:1,grammartest:1,musicbrain:1)
+ * 		--think=millis			Mean time that the users take to speak (default: 1000)
+ * 		--threads=N				Threads of the XMLClient (default: XMLClient.DEFAULT_THREADS)
+ * 		--latency-scale=x		Multiplies the latencies of replay.properties (default: 1)
+ * 		--error-rate=p			Replaces the rates of replay.properties: responses with status 503,
+ * 		--reset-rate=p				connections closed without response,
+ * 		--stall-rate=p				and requests that get no response before the read timeout
+ * 		--connect-timeout=millis, --read-timeout=millis		Timeouts of the client
+ * 		--cache=entries			Uses a memory cache with that number of entries (default: 0, no cache)
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+public class LoadTest {
+
+	private static final double[] PERCENTILES = {0.5, 0.9, 0.95, 0.99, 1.0};
+	
+	public static void main(String[] args) throws Exception {
+		HashMap<String, String> options = parseOptions(args);
+		
+		int sessions = Integer.parseInt(option(options, "sessions", "20"));
+		int turns = Integer.parseInt(option(options, "turns", "10"));
+		long duration = Long.parseLong(option(options, "duration", "0")) * 1000;
+		long thinkTime = Long.parseLong(option(options, "think", "1000"));
+		int threads = Integer.parseInt(option(options, "threads", String.valueOf(XMLClient.DEFAULT_THREADS)));
+		ArrayList<Scenario> mix = parseMix(option(options, "mix", "jack:1,grammartest:1,musicbrain:1"));
+		
+		//Server
+		ReplayServer server = new ReplayServer(new File(option(options, "recordings", "recordings")));
+		server.scaleLatency(Double.parseDouble(option(options, "latency-scale", "1")));
+		if(options.containsKey("error-rate") || options.containsKey("reset-rate") || options.containsKey("stall-rate"))
+			server.setFaults(Double.parseDouble(option(options, "error-rate", "0")), Double.parseDouble(option(options, "reset-rate", "0")),
+					Double.parseDouble(option(options, "stall-rate", "0")));
+		int port = server.start(0);
+		String baseUrl = "http://127.0.0.1:"+port;
+		
+		//Client, the results are used in the threads of the sessions, which wait for them
+		XMLClient client = new XMLClient(threads);
+		client.setCallbackExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		});
+		client.setTimeouts(Integer.parseInt(option(options, "connect-timeout", String.valueOf(XMLClient.DEFAULT_CONNECT_TIMEOUT))),
+				Integer.parseInt(option(options, "read-timeout", String.valueOf(XMLClient.DEFAULT_READ_TIMEOUT))));
+		int cacheEntries = Integer.parseInt(option(options, "cache", "0"));
+		if(cacheEntries > 0)
+			client.setResponseCache(new XMLResponseCache(cacheEntries));
+		XMLMetrics metrics = new XMLMetrics(Long.MAX_VALUE / 2);	//The whole test
+		client.addListener(metrics);
+		
+		//Sessions
+		EnumMap<Scenario, LatencySamples> turnSamples = new EnumMap<Scenario, LatencySamples>(Scenario.class);
+		EnumMap<Scenario, LatencySamples> startSamples = new EnumMap<Scenario, LatencySamples>(Scenario.class);
+		for(Scenario scenario: Scenario.values()){
+			turnSamples.put(scenario, new LatencySamples());
+			startSamples.put(scenario, new LatencySamples());
+		}
+		
+		System.out.println("Running "+sessions+" sessions of "+turns+" turns against "+baseUrl+" with "+threads+" client threads...");
+		long start = System.currentTimeMillis();
+		long deadline = duration > 0 ? start + duration : Long.MAX_VALUE;
+		ExecutorService users = Executors.newFixedThreadPool(sessions);
+		for(int i=0; i<sessions; i++){
+			Scenario scenario = mix.get(i % mix.size());
+			users.execute(new Session(scenario, client, baseUrl, turns, deadline, thinkTime, i, turnSamples.get(scenario), startSamples.get(scenario)));
+		}
+		users.shutdown();
+		if(!users.awaitTermination(duration > 0 ? duration + 60000 : Long.MAX_VALUE, TimeUnit.MILLISECONDS))
+			users.shutdownNow();
+		long elapsed = System.currentTimeMillis() - start;
+		
+		System.out.println(report(turnSamples, startSamples, elapsed));
+		System.out.println("XMLClient: "+metrics.report());
+		System.out.println();
+		System.out.print("Server:\n"+server.report());
+		
+		client.shutdown();
+		server.stop();
+	}
+	
+	/**
+	 * Table with the throughput and latency percentiles of each scenario
+	 */
+	private static String report(EnumMap<Scenario, LatencySamples> turnSamples, EnumMap<Scenario, LatencySamples> startSamples, long elapsed){
+		StringBuilder text = new StringBuilder();
+		text.append(String.format(Locale.US, "%nDuration: %.1f s%n%n", elapsed / 1000.0));
+		text.append(String.format(Locale.US, "%-20s %7s %7s %9s %7s %7s %7s %7s %7s%n", "(latency in ms)", "count", "errors", "per sec", "p50", "p90", "p95", "p99", "max"));
+		
+		int total = 0;
+		for(Scenario scenario: Scenario.values()){
+			total += turnSamples.get(scenario).getCount();
+			append(text, scenario.name().toLowerCase(Locale.US)+" turns", turnSamples.get(scenario), elapsed);
+			append(text, scenario.name().toLowerCase(Locale.US)+" start", startSamples.get(scenario), elapsed);
+		}
+		text.append(String.format(Locale.US, "%nThroughput: %.2f turns per second%n", total * 1000.0 / elapsed));
+		return text.toString();
+	}
+	
+	private static void append(StringBuilder text, String label, LatencySamples samples, long elapsed){
+		if(samples.getCount()==0 && samples.getErrors()==0)
+			return;
+		long[] values = samples.percentiles(PERCENTILES);
+		text.append(String.format(Locale.US, "%-20s %7d %7d %9.2f %7d %7d %7d %7d %7d%n", label, samples.getCount(), samples.getErrors(), 
+				samples.getCount() * 1000.0 / elapsed, values[0], values[1], values[2], values[3], values[4]));
+	}
+	
+	/**
+	 * Reads the arguments with the form --name=value
+	 */
+	private static HashMap<String, String> parseOptions(String[] args){
+		HashMap<String, String> options = new HashMap<String, String>();
+		for(String arg: args){
+			if(!arg.startsWith("--") || !arg.contains("="))
+				throw new IllegalArgumentException("Invalid option "+arg+", the options have the form --name=value");
+			options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=')+1));
+		}
+		return options;
+	}
+	
+	private static String option(HashMap<String, String> options, String name, String defaultValue){
+		String value = options.get(name);
+		return value!=null ? value : defaultValue;
+	}
+	
+	/**
+	 * Reads the proportions of scenarios (e.g. "jack:2,musicbrain:1") into a list in which each scenario appears as many times as its weight
+	 */
+	private static ArrayList<Scenario> parseMix(String mix){
+		ArrayList<Scenario> scenarios = new ArrayList<Scenario>();
+		for(String part: mix.split(",")){
+			String[] nameWeight = part.trim().split(":");
+			Scenario scenario = Scenario.valueOf(nameWeight[0].trim().toUpperCase(Locale.US));
+			int weight = nameWeight.length>1 ? Integer.parseInt(nameWeight[1].trim()) : 1;
+			for(int i=0; i<weight; i++)
+				scenarios.add(scenario);
+		}
+		if(scenarios.isEmpty())
+			throw new IllegalArgumentException("No scenarios in "+mix);
+		return scenarios;
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.tools.xmlloadtest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server that stands in for the web services used by the apps (Pandorabots, DBpedia, MusicBrainz, 
+ * Maluuba...), so that the libraries can be tested without accessing them. Each service is a <code>Route</code> 
+ * that replays recorded responses with a configurable latency and error rates.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+public class ReplayServer {
+
+	public static final String CONFIGURATION_FILE = "replay.properties";
+	
+	private final ArrayList<Route> routes = new ArrayList<Route>();
+	private final Random random = new Random();
+	private HttpServer server = null;
+	private ExecutorService threads = null;
+	
+	/**
+	 * Creates a server with the routes configured in the file <code>replay.properties</code> of the directory
+	 * of recordings. The property <code>routes</code> contains the names of the routes separated by commas.
+	 */
+	public ReplayServer(File recordings) throws IOException{
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(new File(recordings, CONFIGURATION_FILE));
+		try{
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		
+		String names = properties.getProperty("routes");
+		if(names==null)
+			throw new IOException("Missing property routes in "+CONFIGURATION_FILE);
+		for(String name: names.split(","))
+			routes.add(new Route(name.trim(), properties, recordings));
+	}
+	
+	/**
+	 * Multiplies the latency of all the routes
+	 */
+	public void scaleLatency(double factor){
+		for(Route route: routes)
+			route.scaleLatency(factor);
+	}
+	
+	/**
+	 * Replaces the rates of injected errors of all the routes
+	 * @param errorRate Proportion of responses with status 503
+	 * @param resetRate Proportion of connections closed without response
+	 * @param stallRate Proportion of requests that do not get a response until the stall time of the route
+	 */
+	public void setFaults(double errorRate, double resetRate, double stallRate){
+		for(Route route: routes)
+			route.setFaults(errorRate, resetRate, stallRate);
+	}
+	
+	/**
+	 * Starts the server
+	 * @param port Port to listen to, 0 for any free port
+	 * @return Port in which the server listens
+	 */
+	public int start(int port) throws IOException{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 128);
+		for(final Route route: routes){
+			server.createContext(route.getPath(), new HttpHandler() {
+				@Override
+				public void handle(HttpExchange exchange) throws IOException {
+					route.handle(exchange, random);
+				}
+			});
+		}
+		
+		//The latency is simulated by sleeping, so each request needs its own thread
+		threads = Executors.newCachedThreadPool();
+		server.setExecutor(threads);
+		server.start();
+		return server.getAddress().getPort();
+	}
+	
+	public void stop(){
+		if(server!=null)
+			server.stop(0);
+		if(threads!=null)
+			threads.shutdownNow();
+	}
+	
+	/**
+	 * Statistics of each route, one per line
+	 */
+	public String report(){
+		StringBuilder text = new StringBuilder();
+		for(Route route: routes)
+			text.append(route).append('\n');
+		return text.toString();
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.tools.xmlloadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Path of the <code>ReplayServer</code> that stands in for one web service. It answers with the recorded
+ * responses of the service (in turns), after a random latency, and injects errors with the configured rates:
+ * server errors (503), connections closed without response, and stalls longer than the read timeout of the client.
+ * 
+ * The routes are read from a properties file, e.g.:
+ * 
+ * 		pandorabots.path = /pandora/talk-xml
+ * 		pandorabots.files = pandorabots.xml, pandorabots_oob.xml
+ * 		pandorabots.contentType = text/xml; charset=UTF-8
+ * 		pandorabots.latency = 300			(median in milliseconds)
+ * 		pandorabots.spread = 0.5			(the latency is log-normal, this is the standard deviation of its logarithm)
+ * 		pandorabots.errorRate = 0.01
+ * 		pandorabots.resetRate = 0.005
+ * 		pandorabots.stallRate = 0.0
+ * 		pandorabots.stall = 20000			(duration of the stalls in milliseconds)
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+class Route {
+
+	private final String name;
+	private final String path;
+	private final String contentType;
+	private final ArrayList<byte[]> bodies = new ArrayList<byte[]>();
+	private final ArrayList<byte[]> gzippedBodies = new ArrayList<byte[]>();
+	private final AtomicInteger next = new AtomicInteger();
+	
+	private volatile long latency;
+	private volatile double spread;
+	private volatile double errorRate;
+	private volatile double resetRate;
+	private volatile double stallRate;
+	private volatile long stall;
+	
+	//Statistics
+	private final AtomicLong served = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong resets = new AtomicLong();
+	private final AtomicLong stalls = new AtomicLong();
+	
+	/**
+	 * Reads the configuration of the route with the indicated name
+	 * @param directory Directory that contains the recorded responses
+	 */
+	Route(String name, Properties properties, File directory) throws IOException{
+		this.name = name;
+		path = required(properties, name+".path");
+		contentType = properties.getProperty(name+".contentType", "text/xml; charset=UTF-8");
+		
+		for(String file: required(properties, name+".files").split(",")){
+			byte[] body = read(new File(directory, file.trim()));
+			bodies.add(body);
+			gzippedBodies.add(gzip(body));
+		}
+		
+		latency = Long.parseLong(properties.getProperty(name+".latency", "100").trim());
+		spread = Double.parseDouble(properties.getProperty(name+".spread", "0.5").trim());
+		errorRate = Double.parseDouble(properties.getProperty(name+".errorRate", "0").trim());
+		resetRate = Double.parseDouble(properties.getProperty(name+".resetRate", "0").trim());
+		stallRate = Double.parseDouble(properties.getProperty(name+".stallRate", "0").trim());
+		stall = Long.parseLong(properties.getProperty(name+".stall", "20000").trim());
+	}
+	
+	private static String required(Properties properties, String key) throws IOException{
+		String value = properties.getProperty(key);
+		if(value==null)
+			throw new IOException("Missing property "+key);
+		return value.trim();
+	}
+	
+	private static byte[] read(File file) throws IOException{
+		InputStream in = new FileInputStream(file);
+		try{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = in.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+	
+	private static byte[] gzip(byte[] body) throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(body);
+		gzip.close();
+		return out.toByteArray();
+	}
+	
+	String getName(){
+		return name;
+	}
+	
+	String getPath(){
+		return path;
+	}
+	
+	/**
+	 * Multiplies the latency of the route (e.g. to simulate a slower network)
+	 */
+	void scaleLatency(double factor){
+		latency = Math.round(latency * factor);
+	}
+	
+	/**
+	 * Replaces the rates of injected errors
+	 */
+	void setFaults(double errorRate, double resetRate, double stallRate){
+		this.errorRate = errorRate;
+		this.resetRate = resetRate;
+		this.stallRate = stallRate;
+	}
+	
+	/**
+	 * Answers a request with the next recorded response, or with an injected error
+	 */
+	void handle(HttpExchange exchange, Random random) throws IOException{
+		try{
+			exchange.getRequestBody().close();
+			
+			double dice = random.nextDouble();
+			if(dice < stallRate){
+				stalls.incrementAndGet();
+				sleep(stall);
+				return;		//The exchange is closed without response
+			}
+			
+			//Log-normal latency: most responses are close to the median, with a long tail of slow ones
+			sleep(Math.round(latency * Math.exp(spread * random.nextGaussian())));
+			
+			if(dice < stallRate + resetRate){
+				resets.incrementAndGet();
+				return;
+			}
+			if(dice < stallRate + resetRate + errorRate){
+				errors.incrementAndGet();
+				exchange.sendResponseHeaders(503, -1);
+				return;
+			}
+			
+			int index = (next.getAndIncrement() & Integer.MAX_VALUE) % bodies.size();
+			String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			boolean gzip = acceptEncoding!=null && acceptEncoding.contains("gzip");
+			byte[] body = gzip ? gzippedBodies.get(index) : bodies.get(index);
+			
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+			if(gzip)
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+			served.incrementAndGet();
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	private static void sleep(long millis){
+		try{
+			Thread.sleep(millis);
+		} catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	@Override
+	public String toString(){
+		return name+" ("+path+"): served="+served.get()+", errors="+errors.get()+", resets="+resets.get()+", stalls="+stalls.get();
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.tools.xmlloadtest;
+
+import java.io.IOException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import sandra.libs.util.xmllib.XMLClient;
+import sandra.libs.util.xmllib.XMLStreamHandler;
+
+/**
+ * Interactions of the apps with their web services, reproduced with the same URLs and <code>XMLClient</code> 
+ * calls as the libraries, but without Android (the activities are replaced by a simulated user):
+ * 
+ * 		JACK: 			a query to Pandorabots per turn, as <code>Bot.initiateQuery</code>. When the answer contains
+ * 						an OOB search, the bot looks it up in DBpedia as <code>Bot.doSearch</code>
+ * 		GRAMMARTEST: 	a phrase interpreted by Maluuba per turn, as <code>NLU.startStatistical</code>
+ * 		MUSICBRAIN:		the VXML file is retrieved at the start of the session, then each turn is a dialog whose
+ * 						results are searched in MusicBrainz, parsing the response while it is received
+ * 
+ * Before each query, the connections are warmed up as the apps do when the recognizer is ready for speech, 
+ * and the session waits for the user to speak (think time). The latency of a turn is measured from the end 
+ * of the user input until the result is available.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+enum Scenario {
+	
+	JACK {
+		@Override
+		long turn(Session session) throws Exception {
+			String pandorabots = session.getBaseUrl()+"/pandora/talk-xml";
+			String dbpedia = session.getBaseUrl()+"/api/search.asmx/KeywordSearch";
+			XMLClient client = session.getClient();
+			
+			client.preconnect(pandorabots, dbpedia);
+			session.waitForUser();
+			
+			long start = System.currentTimeMillis();
+			String query = pandorabots+"?input="+session.nextPhrase().replaceAll(" ", "%20")+"&botid="+BOTID;
+			String answer = client.request(query, query, null).get();
+			if(answer.contains("oob") && answer.contains("search")){
+				String search = dbpedia+"?QueryString="+session.nextPhrase().replaceAll(" ", "+")+"&MaxHits=1";
+				client.request(search, search, null).get();
+			}
+			return System.currentTimeMillis() - start;
+		}
+	},
+	
+	GRAMMARTEST {
+		@Override
+		long turn(Session session) throws Exception {
+			String maluuba = session.getBaseUrl()+"/v0/interpret";
+			XMLClient client = session.getClient();
+			
+			client.preconnect(maluuba);
+			session.waitForUser();
+			
+			long start = System.currentTimeMillis();
+			String url = maluuba+"?phrase="+session.nextPhrase()+"&apikey="+APIKEY;
+			client.request(url, url, null).get();
+			return System.currentTimeMillis() - start;
+		}
+	},
+	
+	MUSICBRAIN {
+		@Override
+		boolean hasStart(){
+			return true;
+		}
+		
+		@Override
+		void start(Session session) throws Exception {
+			String vxml = session.getBaseUrl()+"/zoraida/androidspeechbook/code/sandra/examples/formfill/musicbrain.vxml";
+			session.getClient().request(vxml, vxml, null).get();
+		}
+		
+		@Override
+		long turn(Session session) throws Exception {
+			String musicbrainz = session.getBaseUrl()+"/ws/2/release/?query=release:";
+			XMLClient client = session.getClient();
+			
+			client.preconnect(musicbrainz);
+			session.waitForUser();
+			
+			long start = System.currentTimeMillis();
+			ReleaseCounter counter = new ReleaseCounter();
+			client.stream(musicbrainz+session.nextPhrase().replaceAll(" ", "%20"), musicbrainz+"Android", counter).get();
+			if(counter.releases==0)
+				throw new Exception("No releases in the response of MusicBrainz");
+			return System.currentTimeMillis() - start;
+		}
+	};
+	
+	private static final String BOTID = "d7b695cf0e344c0a";
+	private static final String APIKEY = "loadtest";
+	
+	/**
+	 * True if the sessions of the scenario have interactions at their start
+	 */
+	boolean hasStart(){
+		return false;
+	}
+	
+	/**
+	 * Interactions at the start of a session (e.g. retrieving the files that describe the dialog)
+	 */
+	void start(Session session) throws Exception {
+	}
+	
+	/**
+	 * Carries out a turn of the user
+	 * @return Time waiting for the web services, in milliseconds
+	 */
+	abstract long turn(Session session) throws Exception;
+	
+	/**
+	 * Counts the releases of a MusicBrainz response while it is received, as <code>MusicBrainParser</code>
+	 */
+	private static class ReleaseCounter implements XMLStreamHandler {
+		int releases = 0;
+		
+		@Override
+		public void processXMLStream(XmlPullParser parser) throws XmlPullParserException, IOException {
+			int event = parser.getEventType();
+			while(event != XmlPullParser.END_DOCUMENT){
+				if(event == XmlPullParser.END_TAG && parser.getName().equals("release"))
+					releases++;
+				event = parser.next();
+			}
+		}
+		
+		@Override
+		public void processXMLStreamError(String error) {
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2013 Zoraida Callejas and Michael McTear
+ * 
+ *  This file is part of the Sandra (Speech ANDroid Apps) Toolkit, from the book:
+ *  Voice Application Development for Android, Michael McTear and Zoraida Callejas, 
+ *  PACKT Publishing 2013 <http://www.packtpub.com/voice-application-development-for-android/book>,
+ *  <http://lsi.ugr.es/zoraida/androidspeechbook>
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+
+ *  You should have received a copy of the GNU General Public License
+ *   along with this program. If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package sandra.tools.xmlloadtest;
+
+import java.util.Random;
+
+import sandra.libs.util.xmllib.XMLClient;
+
+/**
+ * Simulated user of an app, that carries out the turns of a <code>Scenario</code> one after another.
+ * 
+ * @author Zoraida Callejas
+ * @author Michael McTear
+ * @version 1.0, 10/19/26
+ */
+class Session implements Runnable {
+
+	//Phrases said by the simulated users
+	private static final String[] PHRASES = {"hello", "what is your name", "tell me about granada", "search the alhambra",
+		"who wrote don quixote", "thriller", "abbey road", "play some music", "what time is it", "good bye"};
+	
+	private final Scenario scenario;
+	private final XMLClient client;
+	private final String baseUrl;
+	private final int turns;
+	private final long deadline;		//Time at which the session stops, even if it has not finished its turns
+	private final long thinkTime;		//Mean time that the user takes to speak, in milliseconds
+	private final Random random;
+	private final LatencySamples samples;
+	private final LatencySamples startSamples;
+	
+	/**
+	 * @param samples Where the latencies of the turns are recorded
+	 * @param startSamples Where the latency of the start of the session is recorded
+	 */
+	Session(Scenario scenario, XMLClient client, String baseUrl, int turns, long deadline, long thinkTime, long seed, 
+			LatencySamples samples, LatencySamples startSamples){
+		this.scenario = scenario;
+		this.client = client;
+		this.baseUrl = baseUrl;
+		this.turns = turns;
+		this.deadline = deadline;
+		this.thinkTime = thinkTime;
+		this.random = new Random(seed);
+		this.samples = samples;
+		this.startSamples = startSamples;
+	}
+	
+	XMLClient getClient(){
+		return client;
+	}
+	
+	String getBaseUrl(){
+		return baseUrl;
+	}
+	
+	String nextPhrase(){
+		return PHRASES[random.nextInt(PHRASES.length)];
+	}
+	
+	/**
+	 * Waits while the user speaks: between half and one and a half times the think time
+	 */
+	void waitForUser() throws InterruptedException{
+		if(thinkTime > 0)
+			Thread.sleep(thinkTime/2 + (long) (random.nextDouble() * thinkTime));
+	}
+	
+	@Override
+	public void run() {
+		if(scenario.hasStart()){
+			try{
+				long start = System.currentTimeMillis();
+				scenario.start(this);
+				startSamples.record(System.currentTimeMillis() - start);
+			} catch(InterruptedException ex){
+				return;
+			} catch(Exception ex){
+				startSamples.recordError();
+				return;		//The app cannot work without its initial files
+			}
+		}
+		
+		for(int turn=0; turn<turns && System.currentTimeMillis()<deadline; turn++){
+			try{
+				samples.record(scenario.turn(this));
+			} catch(InterruptedException ex){
+				return;
+			} catch(Exception ex){
+				samples.recordError();
+			}
+		}
+	}
+}